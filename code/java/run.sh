@@ -4,4 +4,27 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
+# Pool settings are read from system properties, e.g.
+# JAVA_OPTS="-Ddbproject.pool.maxSize=20" source ./run.sh flightDB 5432 user
+# Metrics are dumped in the Prometheus text format every N seconds with
+# JAVA_OPTS="-Ddbproject.metrics.file=metrics.prom -Ddbproject.metrics.intervalSeconds=10"
+# Query results are printed as TSV, or TABLE, CSV or JSONL with
+# JAVA_OPTS="-Ddbproject.output.format=TABLE"
+# Reports and seat lookups read from replicas (see ../postgresql/startReplica.sh) with
+# JAVA_OPTS="-Ddbproject.replicas=localhost:9998"
+# Results of repeated reads are cached (up to maxBytes, 16 MB by default) with
+# JAVA_OPTS="-Ddbproject.queryCache.maxEntries=1000 -Ddbproject.queryCache.maxBytes=16777216"
+# Waitlisted reservations are promoted to free seats every N seconds with
+# JAVA_OPTS="-Ddbproject.waitlist.sweepSeconds=30", or once with the promote-waitlist mode
+# The flight search allows connections of 0 to 1 days, or as set with
+# JAVA_OPTS="-Ddbproject.routes.minConnectionDays=0 -Ddbproject.routes.maxConnectionDays=2",
+# on one thread per core or JAVA_OPTS="-Ddbproject.routes.threads=4"
+# The asynchronous booking queue groups up to batchSize bookings per commit with
+# JAVA_OPTS="-Ddbproject.bookingQueue.batchSize=256 -Ddbproject.bookingQueue.lingerMillis=2";
+# the serve mode books through it unless JAVA_OPTS="-Ddbproject.http.bookingQueue=false"
+# Planes, pilots and technicians are cached in memory once migrate installed their
+# change notifications; turn that off with JAVA_OPTS="-Ddbproject.referenceCache=false"
+# Extra arguments select a mode, e.g.
+# source ./run.sh flightDB 5432 user load ../data
+# source ./run.sh flightDB 5432 user migrate
+java $JAVA_OPTS -cp lib/*:bin/ DBproject $DBNAME $PORT $USER "${@:4}"
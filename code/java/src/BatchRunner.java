@@ -0,0 +1,528 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class runs the menu operations from a file instead of the prompts.
+ * Each line is one operation in CSV form, the operation name first and then
+ * the values the menu would ask for, e.g.
+ *
+ *   AddPlane,Boeing,737-800,3,189
+ *   AddFlight,350,0,1,2020-01-03,2020-01-03,LAXAA,SFOAA,12,7
+ *   BookFlight,42,1001,y
+ *   ListNumberOfAvailableSeats,1001,2020-01-03
+ *
+ * Blank lines and lines starting with # are skipped; a field may be quoted
+ * with double quotes to contain a comma.  Consecutive writes are grouped
+ * into transactions of up to chunkSize operations.  Before a chunk runs, the
+ * pilots, planes, technicians, customers and flights it refers to are
+ * checked with one lookup per table, and the lines naming a missing one are
+ * reported and skipped.  If a transaction still fails,
+ * its operations are run again one per transaction, so one bad line only
+ * loses itself.  A summary of throughput and latency per operation is
+ * printed at the end.
+ *
+ */
+
+public class BatchRunner{
+	private enum Op{
+		AddPlane(4, true, "make,model,age,seats"),
+		AddPilot(2, true, "fullname,nationality"),
+		AddTechnician(1, true, "full_name"),
+		AddFlight(9, true, "cost,num_sold,num_stops,departure_date,arrival_date,arrival_airport,departure_airport,pilot_id,plane_id"),
+		AddRepair(5, true, "repair_date,repair_code,pilot_id,plane_id,technician_id"),
+		BookFlight(3, true, "customer_id,flight_id,confirmed(y/n)"),
+		ListNumberOfAvailableSeats(2, false, "flight_id,departure_date"),
+		ListsTotalNumberOfRepairsPerPlane(0, false, ""),
+		ListTotalNumberOfRepairsPerYear(0, false, ""),
+		FindPassengersCountWithStatus(2, false, "flight_id,status");
+
+		final int arity;
+		final boolean write;
+		final String fields;
+
+		Op(int arity, boolean write, String fields){
+			this.arity = arity;
+			this.write = write;
+			this.fields = fields;
+		}
+	}
+
+	/**
+	 * One parsed line of the batch file.
+	 */
+	private static final class Record{
+		final int line;
+		final Op op;
+		final String[] args;
+
+		Record(int line, Op op, String[] args){
+			this.line = line;
+			this.op = op;
+			this.args = args;
+		}
+	}
+
+	private final DBproject _esql;
+	private final int _chunkSize;
+	private final PrintStream _out;
+	private final Map<String, Stats> _stats = new TreeMap<String, Stats>();
+	private final List<Record> _pending = new ArrayList<Record>();
+	private int _transactions = 0;
+
+	/**
+	 * @param esql the database
+	 * @param chunkSize maximum number of writes per transaction
+	 * @param out where the results of report operations are printed
+	 */
+	public BatchRunner(DBproject esql, int chunkSize, PrintStream out){
+		if(chunkSize < 1){
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+		this._esql = esql;
+		this._chunkSize = chunkSize;
+		this._out = out;
+	}
+
+	/**
+	 * Method to run every operation read from a batch file and print the
+	 * summary.  Lines that fail are reported on standard error and counted
+	 * as errors; the run goes on.
+	 *
+	 * @param input the batch file
+	 * @return number of operations that failed
+	 * @throws java.io.IOException when the input could not be read
+	 */
+	public int run(BufferedReader input) throws IOException {
+		long begin = System.nanoTime();
+		int lineNo = 0;
+		String line;
+		while((line = input.readLine()) != null){
+			lineNo++;
+			line = line.trim();
+			if(line.length() == 0 || line.startsWith("#")){
+				continue;
+			}
+			Record r;
+			try{
+				r = parse(lineNo, line);
+			}catch (IllegalArgumentException e){
+				error(lineNo, e);
+				stats("(invalid)").errors++;
+				continue;
+			}
+			if(r.op.write){
+				this._pending.add(r);
+				if(this._pending.size() >= this._chunkSize){
+					flush();
+				}
+			}
+			else{
+				//reads see every write before them
+				flush();
+				runAlone(r);
+			}
+		}
+		flush();
+		return summary(System.nanoTime() - begin);
+	}
+
+	/**
+	 * Method to parse one line into an operation and its arguments.
+	 *
+	 * @throws IllegalArgumentException when the operation is unknown or has
+	 *         the wrong number of fields
+	 */
+	private static Record parse(int lineNo, String line){
+		String[] fields = splitCsv(line);
+		Op op;
+		try{
+			op = Op.valueOf(fields[0]);
+		}catch (IllegalArgumentException e){
+			throw new IllegalArgumentException("Unknown operation " + fields[0]);
+		}
+		if(fields.length - 1 != op.arity){
+			throw new IllegalArgumentException(op + " takes " + op.arity + " fields (" + op.fields + "), got " + (fields.length - 1));
+		}
+		return new Record(lineNo, op, Arrays.copyOfRange(fields, 1, fields.length));
+	}
+
+	/**
+	 * Method to split a CSV line.  Double quotes group a field; "" inside a
+	 * quoted field is a literal quote.
+	 */
+	static String[] splitCsv(String line){
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for(int i = 0; i < line.length(); i++){
+			char c = line.charAt(i);
+			if(quoted){
+				if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+					field.append('"');
+					i++;
+				}
+				else if(c == '"'){
+					quoted = false;
+				}
+				else{
+					field.append(c);
+				}
+			}
+			else if(c == '"'){
+				quoted = true;
+			}
+			else if(c == ','){
+				fields.add(field.toString().trim());
+				field.setLength(0);
+			}
+			else{
+				field.append(c);
+			}
+		}
+		fields.add(field.toString().trim());
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/**
+	 * Method to run the pending writes as one transaction.  Flights in the
+	 * chunk are inserted together as one FlightBatch; each gets an equal share
+	 * of the batch's time.
+	 */
+	private void flush(){
+		if(this._pending.isEmpty()){
+			return;
+		}
+		final List<Record> chunk = checkReferences(this._pending);
+		this._pending.clear();
+		if(chunk.isEmpty()){
+			return;
+		}
+		final long[] latencies = new long[chunk.size()];
+		try{
+			long begin = System.nanoTime();
+			long work = this._esql.inTransaction(new DBproject.TransactionWork<Long>(){
+				public Long run() throws SQLException {
+					long start = System.nanoTime();
+					List<FlightBatch.NewFlight> flights = new ArrayList<FlightBatch.NewFlight>();
+					List<Integer> flightIndexes = new ArrayList<Integer>();
+					for(int i = 0; i < chunk.size(); i++){
+						Record r = chunk.get(i);
+						long t = System.nanoTime();
+						if(r.op == Op.AddFlight){
+							flights.add(newFlight(r.args));
+							flightIndexes.add(i);
+						}
+						else{
+							execute(r);
+						}
+						latencies[i] = System.nanoTime() - t;
+					}
+					if(!flights.isEmpty()){
+						long t = System.nanoTime();
+						FlightBatch.insert(_esql, flights);
+						long share = (System.nanoTime() - t) / flights.size();
+						for(int i : flightIndexes){
+							latencies[i] += share;
+						}
+					}
+					return System.nanoTime() - start;
+				}
+			});
+			stats("(commit)").add(System.nanoTime() - begin - work);
+			this._transactions++;
+			for(int i = 0; i < chunk.size(); i++){
+				stats(chunk.get(i).op.name()).add(latencies[i]);
+			}
+		}catch (SQLException | RuntimeException e){
+			//the chunk rolled back; find the bad lines by running each alone.
+			//New ids and flights reach memory only on commit (afterCommit()),
+			//but bookings lowered cached seat counts as they went
+			this._esql.getSeatCache().clear();
+			for(Record r : chunk){
+				runAlone(r);
+			}
+		}
+	}
+
+	/**
+	 * Method to drop the writes that refer to a row that does not exist.
+	 * They would fail anyway, and failing inside the transaction would cost
+	 * the whole chunk a rerun.  The ids of each table are checked together.
+	 *
+	 * @param writes the pending writes
+	 * @return the writes whose references all exist
+	 */
+	private List<Record> checkReferences(List<Record> writes){
+		Map<ExistenceChecker.Table, List<Integer>> ids = new EnumMap<ExistenceChecker.Table, List<Integer>>(ExistenceChecker.Table.class);
+		for(Record r : writes){
+			for(Reference ref : references(r)){
+				List<Integer> list = ids.get(ref.table);
+				if(list == null){
+					list = new ArrayList<Integer>();
+					ids.put(ref.table, list);
+				}
+				list.add(ref.id);
+			}
+		}
+		if(ids.isEmpty()){
+			return new ArrayList<Record>(writes);
+		}
+		Map<ExistenceChecker.Table, Set<Integer>> missing = new EnumMap<ExistenceChecker.Table, Set<Integer>>(ExistenceChecker.Table.class);
+		try{
+			for(Map.Entry<ExistenceChecker.Table, List<Integer>> e : ids.entrySet()){
+				missing.put(e.getKey(), this._esql.getExistenceChecker().missing(e.getKey(), e.getValue()));
+			}
+		}catch (SQLException e){
+			//the foreign keys still catch them
+			return new ArrayList<Record>(writes);
+		}
+
+		List<Record> valid = new ArrayList<Record>(writes.size());
+		for(Record r : writes){
+			String problem = null;
+			for(Reference ref : references(r)){
+				if(missing.get(ref.table).contains(ref.id)){
+					problem = ExistenceChecker.describe(ref.table, Collections.singleton(ref.id));
+					break;
+				}
+			}
+			if(problem == null){
+				valid.add(r);
+			}
+			else{
+				System.err.println("line " + r.line + ": " + problem);
+				stats(r.op.name()).errors++;
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Method to list the rows a write refers to.  A field that is not a
+	 * number is left to fail when the write runs.
+	 */
+	private static List<Reference> references(Record r){
+		List<Reference> refs = new ArrayList<Reference>(3);
+		String[] a = r.args;
+		try{
+			switch(r.op){
+				case AddFlight:
+					refs.add(new Reference(ExistenceChecker.Table.PILOT, Integer.parseInt(a[7])));
+					refs.add(new Reference(ExistenceChecker.Table.PLANE, Integer.parseInt(a[8])));
+					break;
+				case AddRepair:
+					refs.add(new Reference(ExistenceChecker.Table.PILOT, Integer.parseInt(a[2])));
+					refs.add(new Reference(ExistenceChecker.Table.PLANE, Integer.parseInt(a[3])));
+					refs.add(new Reference(ExistenceChecker.Table.TECHNICIAN, Integer.parseInt(a[4])));
+					break;
+				case BookFlight:
+					refs.add(new Reference(ExistenceChecker.Table.CUSTOMER, Integer.parseInt(a[0])));
+					refs.add(new Reference(ExistenceChecker.Table.FLIGHT, Integer.parseInt(a[1])));
+					break;
+				default:
+					break;
+			}
+		}catch (NumberFormatException e){
+			refs.clear();
+		}
+		return refs;
+	}
+
+	/**
+	 * Method to run one operation in a transaction of its own and record it.
+	 */
+	private void runAlone(final Record r){
+		long t = System.nanoTime();
+		try{
+			if(r.op.write){
+				this._esql.inTransaction(new DBproject.TransactionWork<Void>(){
+					public Void run() throws SQLException {
+						if(r.op == Op.AddFlight){
+							FlightBatch.insert(_esql, newFlight(r.args));
+						}
+						else{
+							execute(r);
+						}
+						return null;
+					}
+				});
+				this._transactions++;
+			}
+			else{
+				execute(r);
+			}
+			stats(r.op.name()).add(System.nanoTime() - t);
+		}catch (SQLException | RuntimeException e){
+			if(r.op.write){
+				this._esql.getSeatCache().clear();
+			}
+			error(r.line, e);
+			stats(r.op.name()).errors++;
+		}
+	}
+
+	/**
+	 * Method to run one operation other than AddFlight.
+	 */
+	private void execute(Record r) throws SQLException {
+		String[] a = r.args;
+		switch(r.op){
+			case AddPlane:
+				DBproject.insertPlane(this._esql, a[0], a[1], Integer.parseInt(a[2]), Integer.parseInt(a[3]));
+				break;
+			case AddPilot:
+				DBproject.insertPilot(this._esql, a[0], a[1]);
+				break;
+			case AddTechnician:
+				DBproject.insertTechnician(this._esql, a[0]);
+				break;
+			case AddRepair:
+				DBproject.insertRepair(this._esql, Date.valueOf(a[0]), a[1],
+				                       Integer.parseInt(a[2]), Integer.parseInt(a[3]), Integer.parseInt(a[4]));
+				break;
+			case BookFlight:
+				this._esql.getBookingEngine().book(Integer.parseInt(a[0]), Integer.parseInt(a[1]), yesNo(a[2]));
+				break;
+			case ListNumberOfAvailableSeats:{
+				int fid = Integer.parseInt(a[0]);
+				Integer seats = DBproject.getAvailableSeats(this._esql, fid, Date.valueOf(a[1]));
+				if(seats == null){
+					this._out.println("Flight " + fid + " is not scheduled on " + a[1] + ".");
+				}
+				else{
+					this._out.println("The number of available seats for flight " + fid + " on " + a[1] + " is " + seats + ".");
+				}
+				break;
+			}
+			case ListsTotalNumberOfRepairsPerPlane:
+				DBproject.repairsPerPlane(this._esql).print(this._out, this._esql.getOutputFormat());
+				break;
+			case ListTotalNumberOfRepairsPerYear:
+				DBproject.repairsPerYear(this._esql).print(this._out, this._esql.getOutputFormat());
+				break;
+			case FindPassengersCountWithStatus:{
+				int fid = Integer.parseInt(a[0]);
+				long count = DBproject.countPassengersWithStatus(this._esql, fid, a[1]);
+				this._out.println("The number of passengers on flight " + fid + " with status " + a[1] + " is " + count + ".");
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Not a single-statement operation: " + r.op);
+		}
+	}
+
+	private static FlightBatch.NewFlight newFlight(String[] a){
+		return new FlightBatch.NewFlight(Integer.parseInt(a[0]), Integer.parseInt(a[1]), Integer.parseInt(a[2]),
+		                                 Date.valueOf(a[3]), Date.valueOf(a[4]), a[5], a[6],
+		                                 Integer.parseInt(a[7]), Integer.parseInt(a[8]));
+	}
+
+	private static boolean yesNo(String s){
+		if(s.equals("y")){
+			return true;
+		}
+		if(s.equals("n")){
+			return false;
+		}
+		throw new IllegalArgumentException("Expected y or n, got " + s);
+	}
+
+	private static void error(int line, Exception e){
+		System.err.println("line " + line + ": " + e.getMessage());
+	}
+
+	private Stats stats(String name){
+		Stats s = this._stats.get(name);
+		if(s == null){
+			s = new Stats();
+			this._stats.put(name, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Method to print operations per second and latency percentiles per
+	 * operation.  Operations per second is over the time spent in that
+	 * operation, not the whole run.
+	 *
+	 * @return total number of errors
+	 */
+	private int summary(long elapsedNanos){
+		int ops = 0;
+		int errors = 0;
+		System.out.println(String.format("%-34s %8s %7s %11s %9s %9s %9s", "operation", "count", "errors", "ops/s", "p50 ms", "p99 ms", "max ms"));
+		for(Map.Entry<String, Stats> e : this._stats.entrySet()){
+			Stats s = e.getValue();
+			long[] sorted = Arrays.copyOf(s.latencies, s.count);
+			Arrays.sort(sorted);
+			System.out.println(String.format("%-34s %8d %7d %11.1f %9.3f %9.3f %9.3f", e.getKey(), s.count, s.errors,
+			                                 s.total == 0 ? 0.0 : s.count * 1e9 / s.total,
+			                                 BookingBenchmark.percentile(sorted, 0.50) / 1e6,
+			                                 BookingBenchmark.percentile(sorted, 0.99) / 1e6,
+			                                 (sorted.length == 0 ? 0 : sorted[sorted.length - 1]) / 1e6));
+			if(!e.getKey().startsWith("(")){
+				ops += s.count;
+			}
+			errors += s.errors;
+		}
+		System.out.println(String.format("%d operations, %d errors, %d transactions in %d ms (%.1f ops/s)",
+		                                 ops, errors, this._transactions, elapsedNanos / 1000000L,
+		                                 ops * 1e9 / Math.max(1L, elapsedNanos)));
+		return errors;
+	}
+
+	/**
+	 * An id a write expects to exist in a table.
+	 */
+	private static final class Reference{
+		final ExistenceChecker.Table table;
+		final int id;
+
+		Reference(ExistenceChecker.Table table, int id){
+			this.table = table;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Latencies in nanoseconds of one operation type.
+	 */
+	private static final class Stats{
+		long[] latencies = new long[64];
+		int count = 0;
+		long total = 0;
+		int errors = 0;
+
+		void add(long nanos){
+			if(this.count == this.latencies.length){
+				this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+			}
+			this.latencies[this.count++] = nanos;
+			this.total += nanos;
+		}
+	}
+}
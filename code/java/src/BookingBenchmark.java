@@ -0,0 +1,242 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class measures booking throughput with many concurrent bookers all
+ * booking the same hot flight, and checks afterwards that the flight was not
+ * overbooked.  It writes real reservations, so run it against a scratch
+ * database loaded from code/data.
+ *
+ * The mode picks the booking path: sync books with BookingEngine.book(),
+ * one statement and commit per booking; async submits to the BookingQueue
+ * and waits for the future, so concurrent bookings share a commit; both
+ * runs sync and then async.  Once the flight is full, the remaining
+ * bookings of either path are waitlisted.  Between the two runs of both,
+ * the reservations of the first run are deleted and num_sold is put back,
+ * so each run starts from the same flight.
+ *
+ * Usage: java -cp lib/*:bin/ BookingBenchmark <dbname> <port> <user> [threads] [bookings] [fnum] [sync|async|both]
+ *
+ */
+
+public class BookingBenchmark{
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + BookingBenchmark.class.getName()
+			                   + " <dbname> <port> <user> [threads] [bookings] [fnum] [sync|async|both]");
+			return;
+		}
+		final int threads = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		final int bookings = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+		final int fnum = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+		String mode = args.length > 6 ? args[6] : "sync";
+		if(!mode.equals("sync") && !mode.equals("async") && !mode.equals("both")){
+			System.err.println("The mode must be sync, async or both, not " + mode);
+			return;
+		}
+
+		//every booker needs its own connection
+		if(System.getProperty("dbproject.pool.maxSize") == null){
+			System.setProperty("dbproject.pool.maxSize", String.valueOf(threads));
+		}
+		Class.forName("org.postgresql.Driver");
+		final DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try{
+			esql.getIdAllocator().init();
+			final int[] customers = esql.queryColumns("SELECT id FROM Customer ORDER BY id").getIntColumn(0);
+			if(customers.length == 0){
+				System.err.println("The Customer table is empty.");
+				return;
+			}
+
+			ColumnarResult flight = esql.queryColumns("SELECT CAST(num_sold AS int4) FROM Flight WHERE fnum = ?", fnum);
+			if(flight.size() == 0){
+				System.err.println("There is no flight " + fnum + ".");
+				return;
+			}
+			//the reservations booked by a run have rnums above this
+			final int soldBefore = flight.getIntColumn(0)[0];
+			final int lastRnum = esql.queryColumns("SELECT CAST(COALESCE(MAX(rnum), -1) AS int4) FROM Reservation").getIntColumn(0)[0];
+
+			if(!mode.equals("async")){
+				int failures = run(esql, threads, bookings, customers, fnum, false);
+				BookingEngine engine = esql.getBookingEngine();
+				System.out.println("waitlisted=" + engine.getWaitlistedCount()
+				                   + " retries=" + engine.getRetryCount()
+				                   + " failures=" + failures);
+				check(esql, fnum);
+			}
+			if(mode.equals("both")){
+				reset(esql, fnum, soldBefore, lastRnum);
+			}
+			if(!mode.equals("sync")){
+				int failures = run(esql, threads, bookings, customers, fnum, true);
+				BookingQueue queue = esql.getBookingQueue();
+				System.out.println("batches=" + queue.getBatchCount()
+				                   + String.format(" (%.1f bookings/batch)", queue.getBookedCount() / Math.max(1.0, queue.getBatchCount()))
+				                   + " fallbacks=" + queue.getFallbackCount()
+				                   + " failures=" + failures);
+				check(esql, fnum);
+			}
+			System.out.println(esql.getPool());
+		}finally{
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to print whether the flight was overbooked.
+	 *
+	 * @param esql the database
+	 * @param fnum the flight
+	 * @throws java.sql.SQLException when the flight could not be read
+	 */
+	static void check(DBproject esql, int fnum) throws SQLException {
+		ColumnarResult check = esql.queryColumns(
+			"SELECT F.num_sold, P.seats FROM Flight F, FlightInfo FI, Plane P"
+			+ " WHERE F.fnum = ? AND FI.flight_id = F.fnum AND P.id = FI.plane_id", fnum);
+		if(check.size() > 0){
+			long sold = check.getLong(0, 0);
+			long seats = check.getLong(0, 1);
+			System.out.println("flight " + fnum + ": num_sold=" + sold + " seats=" + seats
+			                   + (sold > seats ? "  OVERBOOKED" : "  ok"));
+		}
+	}
+
+	/**
+	 * Method to undo a run: delete the reservations it booked on the flight
+	 * and put num_sold back.
+	 *
+	 * @param esql the database
+	 * @param fnum the flight
+	 * @param sold num_sold before the run
+	 * @param lastRnum the highest rnum before the run
+	 * @throws java.sql.SQLException when the flight could not be reset
+	 */
+	static void reset(final DBproject esql, final int fnum, final int sold, final int lastRnum) throws SQLException {
+		esql.inTransaction(new DBproject.TransactionWork<Void>(){
+			public Void run() throws SQLException {
+				esql.executeUpdate("DELETE FROM Reservation WHERE fid = ? AND rnum > ?", fnum, lastRnum);
+				esql.executeUpdate("UPDATE Flight SET num_sold = ? WHERE fnum = ?", sold, fnum);
+				return null;
+			}
+		});
+		esql.getSeatCache().invalidate(fnum);
+	}
+
+	/**
+	 * Method to book from many threads at once and report the throughput.
+	 *
+	 * @param esql the database
+	 * @param threads concurrent bookers
+	 * @param bookings bookings in all
+	 * @param customers customer ids to book for, in turn
+	 * @param fnum the flight
+	 * @param async whether to book through the BookingQueue
+	 * @return the number of bookings that failed
+	 * @throws Exception when interrupted
+	 */
+	static int run(final DBproject esql, final int threads, final int bookings, final int[] customers, final int fnum,
+	               final boolean async) throws Exception {
+		final long[][] latencies = new long[threads][];
+		final AtomicInteger issued = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++){
+			final int id = t;
+			workers[t] = new Thread(new Runnable(){
+				public void run(){
+					long[] mine = new long[bookings / threads + 1];
+					int n = 0;
+					try{
+						start.await();
+					}catch (InterruptedException e){
+						return;
+					}
+					int i;
+					while((i = issued.getAndIncrement()) < bookings){
+						long begin = System.nanoTime();
+						try{
+							if(async){
+								esql.getBookingQueue().submit(customers[i % customers.length], fnum, (i & 1) == 0).get();
+							}
+							else{
+								esql.getBookingEngine().book(customers[i % customers.length], fnum, (i & 1) == 0);
+							}
+						}catch (Exception e){
+							failures.incrementAndGet();
+						}
+						if(n == mine.length){
+							mine = Arrays.copyOf(mine, n * 2);
+						}
+						mine[n++] = System.nanoTime() - begin;
+					}
+					latencies[id] = Arrays.copyOf(mine, n);
+				}
+			}, "booker-" + t);
+			workers[t].start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for(Thread w : workers){
+			w.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+
+		report(async ? "async" : "sync", bookings, elapsed, latencies);
+		return failures.get();
+	}
+
+	/**
+	 * Method to print throughput and latency percentiles for one run.
+	 *
+	 * @param label name of the run
+	 * @param operations number of operations issued
+	 * @param elapsedNanos wall-clock time of the run
+	 * @param latencies per-thread operation latencies in nanoseconds
+	 */
+	static void report(String label, int operations, long elapsedNanos, long[][] latencies){
+		int total = 0;
+		for(long[] l : latencies){
+			total += l == null ? 0 : l.length;
+		}
+		long[] all = new long[total];
+		int k = 0;
+		for(long[] l : latencies){
+			if(l != null){
+				System.arraycopy(l, 0, all, k, l.length);
+				k += l.length;
+			}
+		}
+		Arrays.sort(all);
+		System.out.println(label + ": " + operations + " bookings in " + (elapsedNanos / 1000000L) + " ms = "
+		                   + String.format("%.1f", operations * 1e9 / elapsedNanos) + " bookings/s"
+		                   + "  p50=" + percentile(all, 0.50) / 1000L + "us"
+		                   + " p99=" + percentile(all, 0.99) / 1000L + "us"
+		                   + " max=" + (all.length == 0 ? 0 : all[all.length - 1] / 1000L) + "us");
+	}
+
+	static long percentile(long[] sorted, double p){
+		if(sorted.length == 0){
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+	}
+}
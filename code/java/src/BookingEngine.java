@@ -0,0 +1,158 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class books reservations.  The seat check, the num_sold increment and
+ * the Reservation insert are a single statement, so they run in one
+ * transaction and one round trip: the conditional UPDATE only succeeds while
+ * num_sold is below the plane's seat count, and the reservation is waitlisted
+ * when it does not.  Concurrent bookers on the same flight queue on the
+ * Flight row lock and re-check the seat count, so the flight is never
+ * overbooked.  Serialization failures and deadlocks are retried.  The seat
+ * count the statement returns is written through to the SeatCache.
+ *
+ */
+
+public class BookingEngine{
+	static final String BOOK_SQL =
+		"WITH seat AS ("
+		+ " UPDATE Flight F SET num_sold = F.num_sold + 1"
+		+ " FROM FlightInfo FI, Plane P"
+		+ " WHERE F.fnum = ? AND FI.flight_id = F.fnum AND P.id = FI.plane_id AND F.num_sold < P.seats"
+		+ " RETURNING CAST(P.seats AS int4) - CAST(F.num_sold AS int4) AS seats_left)"
+		+ " INSERT INTO Reservation (rnum, cid, fid, status)"
+		+ " SELECT ?, ?, ?, CAST(CASE WHEN EXISTS (SELECT 1 FROM seat) THEN ? ELSE 'W' END AS CHAR(1))"
+		+ " RETURNING status, (SELECT seats_left FROM seat)";
+
+	/**
+	 * Outcome of one booking.
+	 */
+	public static final class Result{
+		public final int rnum;
+		public final int cid;
+		public final int fid;
+		//'C' or 'R' when a seat was taken, 'W' when waitlisted
+		public final char status;
+		//seats left after this booking, or -1 when waitlisted
+		public final int seatsLeft;
+
+		Result(int rnum, int cid, int fid, char status, int seatsLeft){
+			this.rnum = rnum;
+			this.cid = cid;
+			this.fid = fid;
+			this.status = status;
+			this.seatsLeft = seatsLeft;
+		}
+
+		public boolean isWaitlisted(){
+			return this.status == 'W';
+		}
+	}
+
+	private final DBproject _esql;
+	private final int _maxRetries;
+	private final AtomicLong _bookings = new AtomicLong();
+	private final AtomicLong _waitlisted = new AtomicLong();
+	private final AtomicLong _retries = new AtomicLong();
+
+	public BookingEngine(DBproject esql, int maxRetries){
+		this._esql = esql;
+		this._maxRetries = maxRetries;
+	}
+
+	/**
+	 * Method to book a seat for a customer, or waitlist the customer when
+	 * the flight is full.
+	 *
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param confirmed whether the customer confirmed ('C') or only reserved ('R')
+	 * @return the booking outcome
+	 * @throws java.sql.SQLException when the booking failed after all retries
+	 */
+	public Result book(int cid, int fid, boolean confirmed) throws SQLException {
+		Metrics.Series op = this._esql.getMetrics().operation("BookFlight");
+		Metrics.Series m = this._esql.getMetrics().statement(BOOK_SQL);
+		long begin = System.nanoTime();
+		int rnum = this._esql.getIdAllocator().next("Reservation");
+		String status = confirmed ? "C" : "R";
+		for(int attempt = 0; ; attempt++){
+			long start = System.nanoTime();
+			PooledConnection pc = this._esql.acquireConnection();
+			try{
+				PreparedStatement stmt = DBproject.bind(pc.prepare(BOOK_SQL), new Object[]{fid, rnum, cid, fid, status});
+				ResultSet rs = stmt.executeQuery();
+				rs.next();
+				char booked = rs.getString(1).charAt(0);
+				int seatsLeft = rs.getInt(2);
+				if(rs.wasNull()){
+					seatsLeft = -1;
+				}
+				rs.close();
+				this._esql.wrote(BOOK_SQL);
+				long end = System.nanoTime();
+				m.record(end - start, 1, 0);
+				op.record(end - begin, 1, 0);
+
+				this._bookings.incrementAndGet();
+				if(booked == 'W'){
+					this._waitlisted.incrementAndGet();
+					this._esql.getSeatCache().invalidate(fid);
+				}
+				else{
+					this._esql.getSeatCache().update(fid, seatsLeft);
+				}
+				return new Result(rnum, cid, fid, booked, seatsLeft);
+			}catch (SQLException e){
+				m.error();
+				//an enclosing transaction is aborted, so only its owner can retry
+				if(attempt >= this._maxRetries || !isRetryable(e) || this._esql.isInTransaction()){
+					op.error();
+					throw e;
+				}
+				this._retries.incrementAndGet();
+			}finally{
+				this._esql.releaseConnection(pc);
+			}
+			backoff(attempt);
+		}
+	}
+
+	public long getBookingCount(){ return this._bookings.get(); }
+	public long getWaitlistedCount(){ return this._waitlisted.get(); }
+	public long getRetryCount(){ return this._retries.get(); }
+
+	/**
+	 * Method to tell whether a failure is a transient conflict worth retrying.
+	 *
+	 * @param e the failure
+	 * @return true for serialization failures and deadlocks
+	 */
+	static boolean isRetryable(SQLException e){
+		String state = e.getSQLState();
+		return "40001".equals(state) || "40P01".equals(state);
+	}
+
+	private static void backoff(int attempt){
+		try{
+			Thread.sleep((long) (Math.random() * (5L << Math.min(attempt, 6))));
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
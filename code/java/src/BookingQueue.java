@@ -0,0 +1,355 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class books reservations asynchronously with group commit.  Callers
+ * submit bookings to a bounded ring buffer and get a future; a single writer
+ * thread takes up to batchSize bookings at a time, waiting at most
+ * lingerMillis for a batch to fill, and books the whole batch with one
+ * statement, so the batch costs one round trip and one commit.  When the
+ * buffer is full, submit() waits for room (backpressure) and fails after
+ * offerTimeoutMillis.
+ *
+ * The statement locks the Flight rows of the batch, ranks the bookings of
+ * each flight in submission order, gives seats to as many as the flight has
+ * free and waitlists the rest, then inserts the reservations and adds the
+ * seats to num_sold with one update per flight.  The outcome is the same as
+ * booking the requests one after the other with BookingEngine.book().  A
+ * batch that fails for another reason than a conflict (an unknown customer
+ * or flight) is booked again one request at a time, so only the bad
+ * request fails.
+ *
+ * The futures complete on the writer thread, so work chained to them should
+ * be short or use the *Async variants.  book() submits and waits; the HTTP
+ * service books through it unless dbproject.http.bookingQueue is false.
+ *
+ */
+
+public class BookingQueue{
+	static final String BATCH_SQL =
+		"WITH req AS ("
+		+ " SELECT * FROM unnest(CAST(? AS int4[]), CAST(? AS int4[]), CAST(? AS int4[]), CAST(? AS text[]))"
+		+ " WITH ORDINALITY AS r (rnum, cid, fid, status, n)),"
+		+ " f AS ("
+		+ " SELECT F.fnum, CAST(P.seats AS int4) - CAST(F.num_sold AS int4) AS free"
+		+ " FROM Flight F, FlightInfo FI, Plane P"
+		+ " WHERE F.fnum IN (SELECT fid FROM req) AND FI.flight_id = F.fnum AND P.id = FI.plane_id"
+		+ " ORDER BY F.fnum FOR UPDATE OF F),"
+		+ " ranked AS ("
+		+ " SELECT req.rnum, req.cid, req.fid, req.status, req.n, f.free,"
+		+ " row_number() OVER (PARTITION BY req.fid ORDER BY req.n) AS pos"
+		+ " FROM req LEFT JOIN f ON f.fnum = req.fid),"
+		+ " booked AS ("
+		+ " SELECT rnum, cid, fid, n, CAST(CASE WHEN pos <= free THEN status ELSE 'W' END AS CHAR(1)) AS status,"
+		+ " CASE WHEN pos <= free THEN CAST(free - pos AS int4) END AS seats_left FROM ranked),"
+		+ " ins AS ("
+		+ " INSERT INTO Reservation (rnum, cid, fid, status) SELECT rnum, cid, fid, status FROM booked RETURNING fid, status),"
+		+ " sold AS (SELECT fid, CAST(COUNT(*) AS int4) AS cnt FROM ins WHERE status <> 'W' GROUP BY fid),"
+		+ " upd AS ("
+		+ " UPDATE Flight F SET num_sold = F.num_sold + sold.cnt FROM sold WHERE F.fnum = sold.fid RETURNING F.fnum)"
+		+ " SELECT status, seats_left FROM booked ORDER BY n";
+
+	/**
+	 * One booking waiting in the buffer.
+	 */
+	private static final class Request{
+		final int cid;
+		final int fid;
+		final boolean confirmed;
+		final long submitted = System.nanoTime();
+		final CompletableFuture<BookingEngine.Result> future = new CompletableFuture<BookingEngine.Result>();
+		int rnum = -1;
+
+		Request(int cid, int fid, boolean confirmed){
+			this.cid = cid;
+			this.fid = fid;
+			this.confirmed = confirmed;
+		}
+	}
+
+	private final DBproject _esql;
+	private final ArrayBlockingQueue<Request> _buffer;
+	private final int _batchSize;
+	private final long _lingerNanos;
+	private final long _offerTimeoutMillis;
+	private final int _maxRetries;
+	private final Thread _writer;
+	private volatile boolean _closed = false;
+
+	private final AtomicLong _batches = new AtomicLong();
+	private final AtomicLong _booked = new AtomicLong();
+	private final AtomicLong _fallbacks = new AtomicLong();
+
+	/**
+	 * @param esql the database
+	 * @param capacity most bookings waiting in the buffer
+	 * @param batchSize most bookings per statement
+	 * @param lingerMillis longest wait for a batch to fill once it has a booking
+	 * @param offerTimeoutMillis longest wait of submit() for room in a full buffer
+	 * @param maxRetries retries of a batch after a deadlock or serialization failure
+	 */
+	public BookingQueue(DBproject esql, int capacity, int batchSize, long lingerMillis, long offerTimeoutMillis, int maxRetries){
+		if(capacity < 1 || batchSize < 1 || lingerMillis < 0){
+			throw new IllegalArgumentException("Invalid booking queue: capacity " + capacity + ", batch size " + batchSize
+			                                   + ", linger " + lingerMillis + " ms");
+		}
+		this._esql = esql;
+		this._buffer = new ArrayBlockingQueue<Request>(capacity);
+		this._batchSize = batchSize;
+		this._lingerNanos = lingerMillis * 1000000L;
+		this._offerTimeoutMillis = offerTimeoutMillis;
+		this._maxRetries = maxRetries;
+		this._writer = new Thread(new Runnable(){
+			public void run(){
+				drain();
+			}
+		}, "booking-writer");
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/**
+	 * Method to submit a booking.  Waits while the buffer is full.
+	 *
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param confirmed whether the customer confirmed ('C') or only reserved ('R')
+	 * @return the outcome once the batch holding the booking committed
+	 * @throws java.sql.SQLException when the buffer stayed full for offerTimeoutMillis
+	 */
+	public CompletableFuture<BookingEngine.Result> submit(int cid, int fid, boolean confirmed) throws SQLException {
+		if(this._closed){
+			throw new SQLException("The booking queue is closed");
+		}
+		Request request = new Request(cid, fid, confirmed);
+		try{
+			if(!this._buffer.offer(request, this._offerTimeoutMillis, TimeUnit.MILLISECONDS)){
+				throw new SQLException("The booking queue stayed full for " + this._offerTimeoutMillis + " ms");
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for room in the booking queue");
+		}
+		//close() may have begun after the check above; if the writer could
+		//have stopped without seeing the request, take it back.  If it is
+		//gone already, the writer or close() took it and completes it
+		if(this._closed && this._buffer.remove(request)){
+			throw new SQLException("The booking queue is closed");
+		}
+		return request.future;
+	}
+
+	/**
+	 * Method to submit a booking and wait for it to be booked.
+	 *
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param confirmed whether the customer confirmed ('C') or only reserved ('R')
+	 * @return the outcome of the booking
+	 * @throws java.sql.SQLException when the booking could not be submitted or failed
+	 */
+	public BookingEngine.Result book(int cid, int fid, boolean confirmed) throws SQLException {
+		CompletableFuture<BookingEngine.Result> future = submit(cid, fid, confirmed);
+		try{
+			return future.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the booking");
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof SQLException){
+				throw (SQLException) cause;
+			}
+			if(cause instanceof RuntimeException){
+				throw (RuntimeException) cause;
+			}
+			throw new SQLException(cause);
+		}
+	}
+
+	/**
+	 * Method to stop taking bookings, book those already submitted and stop
+	 * the writer.
+	 */
+	public void close(){
+		this._closed = true;
+		try{
+			this._writer.join();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		//submitted while the writer was stopping
+		Request left;
+		while((left = this._buffer.poll()) != null){
+			left.future.completeExceptionally(new SQLException("The booking queue is closed"));
+		}
+	}
+
+	public int size(){ return this._buffer.size(); }
+	public long getBatchCount(){ return this._batches.get(); }
+	public long getBookedCount(){ return this._booked.get(); }
+	public long getFallbackCount(){ return this._fallbacks.get(); }
+
+	/**
+	 * Method run by the writer: take batches off the buffer until closed and
+	 * empty.
+	 */
+	private void drain(){
+		List<Request> batch = new ArrayList<Request>(this._batchSize);
+		while(true){
+			try{
+				Request first = this._buffer.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null){
+					if(this._closed && this._buffer.isEmpty()){
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				this._buffer.drainTo(batch, this._batchSize - 1);
+				long deadline = System.nanoTime() + this._lingerNanos;
+				while(batch.size() < this._batchSize){
+					long wait = deadline - System.nanoTime();
+					Request next = wait > 0 ? this._buffer.poll(wait, TimeUnit.NANOSECONDS) : this._buffer.poll();
+					if(next == null){
+						break;
+					}
+					batch.add(next);
+					this._buffer.drainTo(batch, this._batchSize - batch.size());
+				}
+			}catch (InterruptedException e){
+				//finish what was taken, then stop
+				this._closed = true;
+			}
+			if(!batch.isEmpty()){
+				book(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Method to book a batch and complete its futures.
+	 */
+	private void book(List<Request> batch){
+		Metrics.Series op = this._esql.getMetrics().operation("BookFlightAsync");
+		try{
+			for(Request r : batch){
+				if(r.rnum < 0){
+					r.rnum = this._esql.getIdAllocator().next("Reservation");
+				}
+			}
+			List<BookingEngine.Result> results = execute(batch);
+			this._batches.incrementAndGet();
+			long end = System.nanoTime();
+			for(int i = 0; i < batch.size(); i++){
+				op.record(end - batch.get(i).submitted, 1, 0);
+				batch.get(i).future.complete(results.get(i));
+			}
+			this._booked.addAndGet(batch.size());
+		}catch (SQLException e){
+			if(batch.size() == 1 || BookingEngine.isRetryable(e)){
+				for(Request r : batch){
+					op.error();
+					r.future.completeExceptionally(e);
+				}
+				return;
+			}
+			//one bad request fails the statement; book them one by one
+			this._fallbacks.incrementAndGet();
+			for(Request r : batch){
+				book(Collections.singletonList(r));
+			}
+		}catch (RuntimeException e){
+			for(Request r : batch){
+				op.error();
+				r.future.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Method to run the batch statement, retrying conflicts.
+	 */
+	private List<BookingEngine.Result> execute(List<Request> batch) throws SQLException {
+		StringBuilder rnums = new StringBuilder("{");
+		StringBuilder cids = new StringBuilder("{");
+		StringBuilder fids = new StringBuilder("{");
+		StringBuilder statuses = new StringBuilder("{");
+		for(Request r : batch){
+			String sep = rnums.length() > 1 ? "," : "";
+			rnums.append(sep).append(r.rnum);
+			cids.append(sep).append(r.cid);
+			fids.append(sep).append(r.fid);
+			statuses.append(sep).append(r.confirmed ? 'C' : 'R');
+		}
+		Object[] params = new Object[]{rnums.append('}').toString(), cids.append('}').toString(),
+		                               fids.append('}').toString(), statuses.append('}').toString()};
+
+		Metrics.Series m = this._esql.getMetrics().statement(BATCH_SQL);
+		for(int attempt = 0; ; attempt++){
+			long start = System.nanoTime();
+			PooledConnection pc = this._esql.acquireConnection();
+			try{
+				PreparedStatement stmt = DBproject.bind(pc.prepare(BATCH_SQL), params);
+				ResultSet rs = stmt.executeQuery();
+				List<BookingEngine.Result> results = new ArrayList<BookingEngine.Result>(batch.size());
+				for(Request r : batch){
+					rs.next();
+					char status = rs.getString(1).charAt(0);
+					int seatsLeft = rs.getInt(2);
+					if(rs.wasNull()){
+						seatsLeft = -1;
+					}
+					results.add(new BookingEngine.Result(r.rnum, r.cid, r.fid, status, seatsLeft));
+				}
+				rs.close();
+				this._esql.wrote(BATCH_SQL);
+				m.record(System.nanoTime() - start, batch.size(), 0);
+				for(BookingEngine.Result result : results){
+					if(result.isWaitlisted()){
+						this._esql.getSeatCache().invalidate(result.fid);
+					}
+					else{
+						this._esql.getSeatCache().update(result.fid, result.seatsLeft);
+					}
+				}
+				return results;
+			}catch (SQLException e){
+				m.error();
+				if(attempt >= this._maxRetries || !BookingEngine.isRetryable(e)){
+					throw e;
+				}
+			}finally{
+				this._esql.releaseConnection(pc);
+			}
+			try{
+				Thread.sleep((long) (Math.random() * (5L << Math.min(attempt, 6))));
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class reloads the airline tables from the CSV files in code/data by
+ * streaming each file to the server with COPY ... FROM STDIN, so the files do
+ * not have to be on the database host.  Tables are loaded in dependency
+ * stages: tables without foreign keys first, then the tables referencing
+ * them.  Every file is first copied into an unlogged staging table
+ * (load_customer, load_flight, ...) and the staging tables are loaded in
+ * parallel, each on its own pooled connection.  Only when every file has
+ * loaded are the airline tables emptied and refilled from the staging tables,
+ * in one transaction, so a bad or missing file leaves the old rows in place.
+ * Two loads must not run at the same time since they share the staging
+ * tables.
+ *
+ */
+
+public class BulkLoader{
+	//table, csv file, column list (same as the COPY statements in create.sql)
+	static final String[][][] STAGES = {
+		{
+			{"Customer", "customer.csv", "id, fname, lname, gtype, dob, address, phone, zipcode"},
+			{"Pilot", "pilots.csv", "id, fullname, nationality"},
+			{"Plane", "planes.csv", "id, make, model, age, seats"},
+			{"Technician", "technician.csv", "id, full_name"},
+		},
+		{
+			{"Flight", "flights.csv", "fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport"},
+			{"Repairs", "repairs.csv", "rid, repair_date, repair_code, pilot_id, plane_id, technician_id"},
+		},
+		{
+			{"Reservation", "reservation.csv", "rnum, cid, fid, status"},
+			{"FlightInfo", "flightinfo.csv", "fiid, flight_id, pilot_id, plane_id"},
+			{"Schedule", "schedule.csv", "id, flightNum, departure_time, arrival_time"},
+		},
+	};
+
+	private final DBproject _esql;
+
+	public BulkLoader(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to replace the airline tables with a directory of CSV files.
+	 * Prints rows and rows per second for every table.  The tables are
+	 * swapped in one transaction after all files are copied, so if any file
+	 * fails to load the old rows are kept.
+	 *
+	 * @param dir the directory holding customer.csv, flights.csv, ...
+	 * @return total number of rows loaded
+	 * @throws java.sql.SQLException when a COPY or the swap failed
+	 */
+	public long load(final File dir) throws SQLException {
+		for(String[][] stage : STAGES){
+			for(String[] table : stage){
+				File csv = new File(dir, table[1]);
+				if(!csv.isFile()){
+					throw new SQLException("Missing data file " + csv.getPath());
+				}
+			}
+		}
+
+		long total = 0;
+		long begin = System.nanoTime();
+		try{
+			for(String[][] stage : STAGES){
+				for(String[] table : stage){
+					this._esql.executeUpdate("DROP TABLE IF EXISTS " + staging(table[0]));
+					this._esql.executeUpdate("CREATE UNLOGGED TABLE " + staging(table[0]) + " (LIKE " + table[0] + ")");
+				}
+			}
+
+			//staging tables have no foreign keys, so every file can load at once
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			try{
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for(String[][] stage : STAGES){
+					for(final String[] table : stage){
+						loads.add(pool.submit(new Callable<Long>(){
+							public Long call() throws Exception {
+								return copy(table[0], table[2], new File(dir, table[1]));
+							}
+						}));
+					}
+				}
+				for(Future<Long> load : loads){
+					total += await(load);
+				}
+			}finally{
+				pool.shutdownNow();
+			}
+
+			//the old rows go only if all of the new ones make it in
+			long swap = System.nanoTime();
+			this._esql.inTransaction(new DBproject.TransactionWork<Void>(){
+				public Void run() throws SQLException {
+					_esql.executeUpdate("TRUNCATE Customer, Pilot, Plane, Technician, Flight, Repairs, Reservation, FlightInfo, Schedule");
+					//parents before the tables referencing them
+					for(String[][] stage : STAGES){
+						for(String[] table : stage){
+							_esql.executeUpdate("INSERT INTO " + table[0] + " (" + table[2] + ") SELECT " + table[2] + " FROM " + staging(table[0]));
+						}
+					}
+					return null;
+				}
+			});
+			System.out.println(String.format("Swapped in new rows in %d ms", (System.nanoTime() - swap) / 1000000L));
+		}finally{
+			for(String[][] stage : STAGES){
+				for(String[] table : stage){
+					try{
+						this._esql.executeUpdate("DROP TABLE IF EXISTS " + staging(table[0]));
+					}catch (SQLException e){
+						System.err.println("Could not drop " + staging(table[0]) + ": " + e.getMessage());
+					}
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - begin;
+		System.out.println(String.format("Loaded %d rows in %d ms (%.0f rows/s)", total, elapsed / 1000000L, total * 1e9 / elapsed));
+
+		//keys and cached values from before the reload are meaningless now
+		this._esql.getIdAllocator().reset();
+		this._esql.getIdAllocator().init();
+		this._esql.getSeatCache().clear();
+		this._esql.getExistenceChecker().clear();
+		this._esql.invalidateQueryCache();
+		this._esql.getRouteIndex().clear();
+		return total;
+	}
+
+	/**
+	 * Method to stream one CSV file into the staging table of a table.
+	 *
+	 * @param table the airline table name
+	 * @param columns the column list matching the file
+	 * @param csv the file
+	 * @return number of rows copied
+	 * @throws Exception when the copy failed
+	 */
+	private long copy(String table, String columns, File csv) throws Exception {
+		PooledConnection pc = this._esql.getPool().borrow();
+		InputStream data = new BufferedInputStream(new FileInputStream(csv), 1 << 16);
+		try{
+			long start = System.nanoTime();
+			long rows = pc.getConnection().unwrap(PGConnection.class).getCopyAPI().copyIn(
+				"COPY " + staging(table) + " (" + columns + ") FROM STDIN WITH DELIMITER ','", data, 1 << 16);
+			long elapsed = Math.max(1L, System.nanoTime() - start);
+			System.out.println(String.format("%-12s %10d rows %8d ms %12.0f rows/s", table, rows, elapsed / 1000000L, rows * 1e9 / elapsed));
+			return rows;
+		}finally{
+			data.close();
+			this._esql.getPool().release(pc);
+		}
+	}
+
+	/**
+	 * Method to name the staging table of an airline table.
+	 *
+	 * @param table the airline table name
+	 * @return the staging table name
+	 */
+	private static String staging(String table){
+		return "load_" + table.toLowerCase();
+	}
+
+	private static long await(Future<Long> load) throws SQLException {
+		try{
+			return load.get().longValue();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while loading");
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if(cause instanceof SQLException){
+				throw (SQLException) cause;
+			}
+			throw new SQLException(cause.getMessage(), cause);
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * This class stores a numeric query result column by column in primitive
+ * arrays.  SMALLINT and INTEGER columns are kept in an int[], BIGINT columns
+ * (such as COUNT) in a long[], and the columns that can hold fractions
+ * (NUMERIC, DECIMAL, DOUBLE, REAL, FLOAT, such as AVG) in a double[].  It is
+ * filled row by row as a DBproject.RowHandler, so no per-cell String is
+ * allocated.
+ *
+ */
+
+public class ColumnarResult implements DBproject.RowHandler{
+	private String[] _names;
+	private int[][] _ints;
+	private long[][] _longs;
+	private double[][] _doubles;
+	private int _size = 0;
+
+	/**
+	 * Method to append the current row of the result set.
+	 *
+	 * @param rs the result set positioned on a row
+	 * @throws java.sql.SQLException when a column is not numeric
+	 */
+	public void handle(ResultSet rs) throws SQLException {
+		if(this._names == null){
+			init(rs.getMetaData());
+		}
+		if(this._size == capacity()){
+			grow();
+		}
+		for(int c = 0; c < this._names.length; c++){
+			if(this._ints[c] != null){
+				this._ints[c][this._size] = rs.getInt(c + 1);
+			}
+			else if(this._longs[c] != null){
+				this._longs[c][this._size] = rs.getLong(c + 1);
+			}
+			else{
+				this._doubles[c][this._size] = rs.getDouble(c + 1);
+			}
+		}
+		this._size++;
+	}
+
+	public int size(){
+		return this._size;
+	}
+
+	public int getColumnCount(){
+		return this._names == null ? 0 : this._names.length;
+	}
+
+	public String getColumnName(int col){
+		return this._names[col];
+	}
+
+	public boolean isIntColumn(int col){
+		return this._ints[col] != null;
+	}
+
+	public boolean isDoubleColumn(int col){
+		return this._doubles[col] != null;
+	}
+
+	/**
+	 * Method to return the bytes taken by the values held, 4 per INTEGER
+	 * value and 8 per other value.
+	 *
+	 * @return size of the values in bytes
+	 */
+	public long getByteSize(){
+		long bytes = 0;
+		for(int c = 0; c < getColumnCount(); c++){
+			bytes += (long) this._size * (this._ints[c] != null ? 4 : 8);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Method to return an INTEGER column, trimmed to the number of rows.
+	 *
+	 * @param col zero-based column index
+	 * @return the column values
+	 */
+	public int[] getIntColumn(int col){
+		if(this._names == null){
+			return new int[0];
+		}
+		if(this._ints[col] == null){
+			throw new IllegalArgumentException("Column " + this._names[col] + " is not an int column");
+		}
+		return Arrays.copyOf(this._ints[col], this._size);
+	}
+
+	/**
+	 * Method to return an integral column widened to long, trimmed to the
+	 * number of rows.
+	 *
+	 * @param col zero-based column index
+	 * @return the column values
+	 */
+	public long[] getLongColumn(int col){
+		if(this._names == null){
+			return new long[0];
+		}
+		if(this._doubles[col] != null){
+			throw new IllegalArgumentException("Column " + this._names[col] + " holds fractions, use getDoubleColumn");
+		}
+		if(this._longs[col] != null){
+			return Arrays.copyOf(this._longs[col], this._size);
+		}
+		long[] values = new long[this._size];
+		for(int r = 0; r < this._size; r++){
+			values[r] = this._ints[col][r];
+		}
+		return values;
+	}
+
+	/**
+	 * Method to return a column as double, trimmed to the number of rows.
+	 *
+	 * @param col zero-based column index
+	 * @return the column values
+	 */
+	public double[] getDoubleColumn(int col){
+		if(this._names == null){
+			return new double[0];
+		}
+		double[] values = new double[this._size];
+		for(int r = 0; r < this._size; r++){
+			values[r] = getDouble(r, col);
+		}
+		return values;
+	}
+
+	/**
+	 * Method to return a value of an integral column.
+	 *
+	 * @param row zero-based row index
+	 * @param col zero-based column index
+	 * @return the value
+	 */
+	public long getLong(int row, int col){
+		if(this._ints[col] != null){
+			return this._ints[col][row];
+		}
+		if(this._longs[col] != null){
+			return this._longs[col][row];
+		}
+		throw new IllegalArgumentException("Column " + this._names[col] + " holds fractions, use getDouble");
+	}
+
+	public double getDouble(int row, int col){
+		return this._doubles[col] != null ? this._doubles[col][row] : getLong(row, col);
+	}
+
+	/**
+	 * Method to return a value as an Integer, Long or Double, whichever the
+	 * column holds.
+	 *
+	 * @param row zero-based row index
+	 * @param col zero-based column index
+	 * @return the value
+	 */
+	public Number getValue(int row, int col){
+		if(this._ints[col] != null){
+			return Integer.valueOf(this._ints[col][row]);
+		}
+		if(this._longs[col] != null){
+			return Long.valueOf(this._longs[col][row]);
+		}
+		return Double.valueOf(this._doubles[col][row]);
+	}
+
+	/**
+	 * Method to print the result with a header, in the same format as
+	 * DBproject.executeQueryAndPrintResult.
+	 *
+	 * @param out the stream to print to
+	 * @param format the output format
+	 * @throws java.sql.SQLException when the output could not be written
+	 */
+	public void print(PrintStream out, ResultRenderer.Format format) throws SQLException {
+		if(this._size == 0){
+			return;
+		}
+		ResultRenderer renderer = new ResultRenderer(format, out);
+		boolean[] numeric = new boolean[this._names.length];
+		Arrays.fill(numeric, true);
+		renderer.start(this._names, numeric);
+		String[] values = new String[this._names.length];
+		for(int r = 0; r < this._size; r++){
+			for(int c = 0; c < values.length; c++){
+				values[c] = getValue(r, c).toString();
+			}
+			renderer.row(values);
+		}
+		renderer.finish();
+	}
+
+	private int capacity(){
+		if(this._names.length == 0){
+			return Integer.MAX_VALUE;
+		}
+		if(this._ints[0] != null){
+			return this._ints[0].length;
+		}
+		return this._longs[0] != null ? this._longs[0].length : this._doubles[0].length;
+	}
+
+	private void init(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		this._names = new String[numCol];
+		this._ints = new int[numCol][];
+		this._longs = new long[numCol][];
+		this._doubles = new double[numCol][];
+		for(int c = 0; c < numCol; c++){
+			this._names[c] = rsmd.getColumnName(c + 1);
+			switch(rsmd.getColumnType(c + 1)){
+				case Types.SMALLINT:
+				case Types.INTEGER:
+					this._ints[c] = new int[16];
+					break;
+				case Types.BIGINT:
+					this._longs[c] = new long[16];
+					break;
+				case Types.NUMERIC:
+				case Types.DECIMAL:
+				case Types.DOUBLE:
+				case Types.REAL:
+				case Types.FLOAT:
+					this._doubles[c] = new double[16];
+					break;
+				default:
+					throw new SQLException("Column " + this._names[c] + " is not numeric");
+			}
+		}
+	}
+
+	private void grow(){
+		for(int c = 0; c < this._names.length; c++){
+			if(this._ints[c] != null){
+				this._ints[c] = Arrays.copyOf(this._ints[c], this._ints[c].length * 2);
+			}
+			else if(this._longs[c] != null){
+				this._longs[c] = Arrays.copyOf(this._longs[c], this._longs[c].length * 2);
+			}
+			else{
+				this._doubles[c] = Arrays.copyOf(this._doubles[c], this._doubles[c].length * 2);
+			}
+		}
+	}
+}
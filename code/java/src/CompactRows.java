@@ -0,0 +1,368 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class stores a query result as compactly as the caches need it,
+ * instead of one padded String per cell.  It is filled row by row as a
+ * DBproject.RowHandler and read as a list of rows of Strings.
+ *
+ * SMALLINT and INTEGER columns are kept in an int[].  Every other column
+ * starts dictionary encoded: each row holds a 16-bit code of its value, and
+ * each distinct value is kept once.  Airport codes, nationalities, plane
+ * makes and models and reservation statuses stay that way.  A column with
+ * more than MAX_CODES distinct values (names, addresses) moves to the arena,
+ * one byte array shared by all such columns, where each value is its UTF-8
+ * length and bytes.  The blanks padding CHAR(n) values are not stored and
+ * are added back when a value is read, so a row reads the same as the
+ * ResultSet it came from.
+ *
+ * A filled CompactRows is read-only, so one instance can be read by many
+ * threads.
+ *
+ */
+
+public class CompactRows extends AbstractList<List<String>> implements DBproject.RowHandler{
+	//distinct values a column may have before it moves to the arena
+	static final int MAX_CODES = 1024;
+
+	/**
+	 * The distinct values of a column, numbered from 0 in the order first
+	 * seen.  Also used on its own, shared between threads, to keep one
+	 * instance of each repeated value in the reference caches.
+	 */
+	static final class Dictionary{
+		private final List<String> _values = new ArrayList<String>();
+		private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+		private long _bytes = 64;
+
+		/**
+		 * Method to return the code of a value, adding it when new.
+		 *
+		 * @param value the value
+		 * @return its code
+		 */
+		synchronized int code(String value){
+			Integer code = this._codes.get(value);
+			if(code == null){
+				code = this._values.size();
+				this._values.add(value);
+				this._codes.put(value, code);
+				this._bytes += 40 + 2L * value.length() + 32;
+			}
+			return code.intValue();
+		}
+
+		synchronized String value(int code){
+			return this._values.get(code);
+		}
+
+		synchronized int size(){
+			return this._values.size();
+		}
+
+		/**
+		 * Method to return the instance of a value kept by the dictionary.
+		 *
+		 * @param value the value, or null
+		 * @return an equal string, the same instance for equal values
+		 */
+		synchronized String intern(String value){
+			return value == null ? null : this._values.get(code(value));
+		}
+
+		/**
+		 * @return bytes taken by the values and their index
+		 */
+		synchronized long getByteSize(){
+			return this._bytes;
+		}
+	}
+
+	private String[] _names;
+	//declared width of CHAR(n) columns, 0 for the others
+	private int[] _widths;
+	private int[][] _ints;
+	private BitSet[] _nulls;
+	//code + 1 of each value of a dictionary column, 0 for null
+	private char[][] _codes;
+	private Dictionary[] _dictionaries;
+	//start of each value of an arena column, -1 for null
+	private int[][] _starts;
+	private byte[] _arena = new byte[256];
+	private int _arenaSize = 0;
+	private int _capacity = 16;
+	private int _size = 0;
+
+	/**
+	 * Method to append the current row of the result set.
+	 *
+	 * @param rs the result set positioned on a row
+	 * @throws java.sql.SQLException when a value could not be read
+	 */
+	public void handle(ResultSet rs) throws SQLException {
+		if(this._names == null){
+			init(rs.getMetaData());
+		}
+		if(this._size == this._capacity){
+			grow(this._capacity * 2);
+		}
+		for(int c = 0; c < this._names.length; c++){
+			if(this._ints[c] != null){
+				this._ints[c][this._size] = rs.getInt(c + 1);
+				if(rs.wasNull()){
+					this._nulls[c].set(this._size);
+				}
+				continue;
+			}
+			String value = rs.getString(c + 1);
+			if(value != null && this._widths[c] > 0){
+				value = Rows.trim(value);
+			}
+			if(this._codes[c] != null){
+				if(value == null){
+					this._codes[c][this._size] = 0;
+					continue;
+				}
+				int code = this._dictionaries[c].code(value);
+				if(code < MAX_CODES){
+					this._codes[c][this._size] = (char) (code + 1);
+					continue;
+				}
+				toArena(c);
+			}
+			this._starts[c][this._size] = value == null ? -1 : append(value);
+		}
+		this._size++;
+	}
+
+	public int size(){
+		return this._size;
+	}
+
+	public int getColumnCount(){
+		return this._names == null ? 0 : this._names.length;
+	}
+
+	public String getColumnName(int col){
+		return this._names[col];
+	}
+
+	/**
+	 * Method to return a row.
+	 *
+	 * @param row zero-based row index
+	 * @return the values of the row, as ResultSet.getString() read them; read-only
+	 */
+	public List<String> get(int row){
+		String[] values = new String[getColumnCount()];
+		row(row, values);
+		return Collections.unmodifiableList(Arrays.asList(values));
+	}
+
+	/**
+	 * Method to read a row into an array.
+	 *
+	 * @param row zero-based row index
+	 * @param values receives the values, one per column
+	 */
+	public void row(int row, String[] values){
+		if(row < 0 || row >= this._size){
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this._size);
+		}
+		for(int c = 0; c < values.length; c++){
+			values[c] = value(row, c);
+		}
+	}
+
+	/**
+	 * Method to return the bytes taken by the rows.
+	 *
+	 * @return estimated size in bytes
+	 */
+	public long getByteSize(){
+		long bytes = 64 + this._arena.length;
+		for(int c = 0; c < getColumnCount(); c++){
+			if(this._ints[c] != null){
+				bytes += 4L * this._capacity + this._nulls[c].size() / 8;
+			}
+			else if(this._codes[c] != null){
+				bytes += 2L * this._capacity + this._dictionaries[c].getByteSize();
+			}
+			else{
+				bytes += 4L * this._capacity;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Method to release the room kept for more rows, once the result is
+	 * complete.
+	 */
+	public void trimToSize(){
+		if(this._names != null && this._capacity > this._size){
+			grow(Math.max(this._size, 1));
+		}
+		if(this._arena.length > this._arenaSize){
+			this._arena = Arrays.copyOf(this._arena, this._arenaSize);
+		}
+	}
+
+	private String value(int row, int c){
+		String value;
+		if(this._ints[c] != null){
+			if(this._nulls[c].get(row)){
+				return null;
+			}
+			value = Integer.toString(this._ints[c][row]);
+		}
+		else if(this._codes[c] != null){
+			int code = this._codes[c][row];
+			if(code == 0){
+				return null;
+			}
+			value = this._dictionaries[c].value(code - 1);
+		}
+		else{
+			int start = this._starts[c][row];
+			if(start < 0){
+				return null;
+			}
+			int length = 0;
+			int shift = 0;
+			byte b;
+			do{
+				b = this._arena[start++];
+				length |= (b & 0x7f) << shift;
+				shift += 7;
+			}while(b < 0);
+			value = new String(this._arena, start, length, StandardCharsets.UTF_8);
+		}
+		return pad(value, this._widths[c]);
+	}
+
+	private static String pad(String value, int width){
+		if(value.length() >= width){
+			return value;
+		}
+		StringBuilder padded = new StringBuilder(width).append(value);
+		while(padded.length() < width){
+			padded.append(' ');
+		}
+		return padded.toString();
+	}
+
+	/**
+	 * Method to add a value to the arena.
+	 *
+	 * @return where it starts
+	 */
+	private int append(String value){
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int start = this._arenaSize;
+		if(this._arena.length - start < bytes.length + 5){
+			this._arena = Arrays.copyOf(this._arena, Math.max(this._arena.length * 2, start + bytes.length + 5));
+		}
+		int length = bytes.length;
+		while(length > 0x7f){
+			this._arena[this._arenaSize++] = (byte) ((length & 0x7f) | 0x80);
+			length >>>= 7;
+		}
+		this._arena[this._arenaSize++] = (byte) length;
+		System.arraycopy(bytes, 0, this._arena, this._arenaSize, bytes.length);
+		this._arenaSize += bytes.length;
+		return start;
+	}
+
+	/**
+	 * Method to move a dictionary column with too many values to the arena.
+	 */
+	private void toArena(int c){
+		int[] starts = new int[this._capacity];
+		for(int r = 0; r < this._size; r++){
+			int code = this._codes[c][r];
+			starts[r] = code == 0 ? -1 : append(this._dictionaries[c].value(code - 1));
+		}
+		this._starts[c] = starts;
+		this._codes[c] = null;
+		this._dictionaries[c] = null;
+	}
+
+	private void init(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		this._names = new String[numCol];
+		this._widths = new int[numCol];
+		this._ints = new int[numCol][];
+		this._nulls = new BitSet[numCol];
+		this._codes = new char[numCol][];
+		this._dictionaries = new Dictionary[numCol];
+		this._starts = new int[numCol][];
+		for(int c = 0; c < numCol; c++){
+			this._names[c] = rsmd.getColumnName(c + 1);
+			switch(rsmd.getColumnType(c + 1)){
+				case Types.SMALLINT:
+				case Types.INTEGER:
+					this._ints[c] = new int[this._capacity];
+					this._nulls[c] = new BitSet();
+					break;
+				case Types.CHAR:{
+					//bpchar without a length reports no usable width
+					int width = rsmd.getPrecision(c + 1);
+					this._widths[c] = width > 0 && width <= 10485760 ? width : 0;
+					encode(c);
+					break;
+				}
+				default:
+					encode(c);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Method to start a column out dictionary encoded.
+	 */
+	private void encode(int c){
+		this._codes[c] = new char[this._capacity];
+		this._dictionaries[c] = new Dictionary();
+	}
+
+	private void grow(int capacity){
+		for(int c = 0; c < this._names.length; c++){
+			if(this._ints[c] != null){
+				this._ints[c] = Arrays.copyOf(this._ints[c], capacity);
+			}
+			else if(this._codes[c] != null){
+				this._codes[c] = Arrays.copyOf(this._codes[c], capacity);
+			}
+			else{
+				this._starts[c] = Arrays.copyOf(this._starts[c], capacity);
+			}
+		}
+		this._capacity = capacity;
+	}
+}
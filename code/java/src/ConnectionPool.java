@@ -0,0 +1,279 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a bounded pool of PostgreSQL connections.  At most
+ * maxSize connections are lent out at the same time; callers that find the
+ * pool exhausted wait up to borrowTimeout for one to be returned.  Idle
+ * connections above minSize are closed once they have been idle longer than
+ * idleTimeout, and a connection that has been idle for a while is validated
+ * before it is handed out again.
+ *
+ */
+
+public class ConnectionPool{
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutMillis;
+	private final long _borrowTimeoutMillis;
+	private final long _validateAfterMillis;
+	private final int _statementCacheSize;
+
+	//most recently returned connections are at the head
+	private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+	//one permit per connection that may be lent out
+	private final Semaphore _permits;
+	private final AtomicInteger _open = new AtomicInteger();
+	private final ScheduledExecutorService _evictor;
+	private volatile boolean _closed = false;
+
+	//pool metrics
+	private final AtomicLong _borrowCount = new AtomicLong();
+	private final AtomicLong _waitNanos = new AtomicLong();
+	private final AtomicLong _maxWaitNanos = new AtomicLong();
+	private final AtomicLong _timeoutCount = new AtomicLong();
+	private final AtomicLong _evictedCount = new AtomicLong();
+	private final AtomicLong _invalidCount = new AtomicLong();
+
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+	                      long idleTimeoutMillis, long borrowTimeoutMillis, long validateAfterMillis,
+	                      int statementCacheSize) throws SQLException {
+		if(minSize < 0 || maxSize < 1 || minSize > maxSize){
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		}
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+		this._validateAfterMillis = validateAfterMillis;
+		this._statementCacheSize = statementCacheSize;
+		this._permits = new Semaphore(maxSize, true);
+
+		//open the minimum number of connections up front
+		for(int i = 0; i < minSize; i++){
+			this._idle.offerLast(open());
+		}
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "ConnectionPool-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000L, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool.  Waits up to the borrow
+	 * timeout when every connection is in use.
+	 *
+	 * @return a validated pooled connection
+	 * @throws java.sql.SQLException when no connection became available or a new one could not be opened
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if(this._closed){
+			throw new SQLException("Connection pool is closed");
+		}
+
+		long start = System.nanoTime();
+		try{
+			if(!this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS)){
+				this._timeoutCount.incrementAndGet();
+				throw new SQLException("Timed out after " + this._borrowTimeoutMillis + " ms waiting for a pooled connection");
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a pooled connection");
+		}
+		recordWait(System.nanoTime() - start);
+
+		try{
+			PooledConnection pc;
+			while((pc = this._idle.pollFirst()) != null){
+				if(isUsable(pc)){
+					return pc;
+				}
+				this._invalidCount.incrementAndGet();
+				discard(pc);
+			}
+			return open();
+		}catch (SQLException e){
+			this._permits.release();
+			throw e;
+		}catch (RuntimeException e){
+			this._permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to hand a borrowed connection back to the pool.  Connections left
+	 * in a transaction are rolled back and put back into autocommit mode.
+	 *
+	 * @param pc the connection previously returned by borrow()
+	 */
+	public void release(PooledConnection pc){
+		if(pc == null){
+			return;
+		}
+		try{
+			Connection c = pc.getConnection();
+			if(this._closed || c.isClosed()){
+				discard(pc);
+				return;
+			}
+			if(!c.getAutoCommit()){
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+			pc.touch();
+			this._idle.offerFirst(pc);
+		}catch (SQLException e){
+			discard(pc);
+		}finally{
+			this._permits.release();
+		}
+	}
+
+	/**
+	 * Method to close every idle connection and stop lending new ones.
+	 * Connections still borrowed are closed when they are released.
+	 */
+	public void close(){
+		this._closed = true;
+		this._evictor.shutdownNow();
+		PooledConnection pc;
+		while((pc = this._idle.pollFirst()) != null){
+			discard(pc);
+		}
+	}
+
+	public int getMinSize(){ return this._minSize; }
+	public int getMaxSize(){ return this._maxSize; }
+	public int getOpenCount(){ return this._open.get(); }
+	public int getIdleCount(){ return this._idle.size(); }
+	public int getActiveCount(){ return this._maxSize - this._permits.availablePermits(); }
+	public long getBorrowCount(){ return this._borrowCount.get(); }
+	public long getTimeoutCount(){ return this._timeoutCount.get(); }
+	public long getEvictedCount(){ return this._evictedCount.get(); }
+	public long getInvalidCount(){ return this._invalidCount.get(); }
+	public long getMaxWaitMicros(){ return this._maxWaitNanos.get() / 1000L; }
+
+	/**
+	 * Method to return the average time callers waited for a permit.
+	 *
+	 * @return average wait in microseconds
+	 */
+	public long getAverageWaitMicros(){
+		long n = this._borrowCount.get();
+		return n == 0 ? 0 : this._waitNanos.get() / n / 1000L;
+	}
+
+	public String toString(){
+		return "pool[open=" + getOpenCount()
+		     + ", idle=" + getIdleCount()
+		     + ", active=" + getActiveCount()
+		     + ", borrows=" + getBorrowCount()
+		     + ", avgWaitUs=" + getAverageWaitMicros()
+		     + ", maxWaitUs=" + getMaxWaitMicros()
+		     + ", timeouts=" + getTimeoutCount()
+		     + ", evicted=" + getEvictedCount()
+		     + ", invalid=" + getInvalidCount()
+		     + "]";
+	}
+
+	/**
+	 * Method to open a connection to the pool's database that the pool does
+	 * not manage, for a session that stays open, such as a LISTEN.  The
+	 * caller closes it.
+	 *
+	 * @return the connection
+	 * @throws java.sql.SQLException when the connection could not be opened
+	 */
+	public Connection openDedicated() throws SQLException {
+		return DriverManager.getConnection(this._url, this._user, this._passwd);
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection c = DriverManager.getConnection(this._url, this._user, this._passwd);
+		this._open.incrementAndGet();
+		return new PooledConnection(c, this._statementCacheSize);
+	}
+
+	private void discard(PooledConnection pc){
+		this._open.decrementAndGet();
+		pc.close();
+	}
+
+	private boolean isUsable(PooledConnection pc){
+		if(pc.idleMillis() < this._validateAfterMillis){
+			return true;
+		}
+		try{
+			return pc.getConnection().isValid(5);
+		}catch (SQLException e){
+			return false;
+		}
+	}
+
+	private void recordWait(long nanos){
+		this._borrowCount.incrementAndGet();
+		this._waitNanos.addAndGet(nanos);
+		long max;
+		while(nanos > (max = this._maxWaitNanos.get())){
+			if(this._maxWaitNanos.compareAndSet(max, nanos)){
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Method to close connections that have been idle longer than the idle
+	 * timeout, keeping at least minSize connections open.
+	 */
+	private void evictIdle(){
+		Iterator<PooledConnection> it = this._idle.descendingIterator();
+		while(it.hasNext() && this._open.get() > this._minSize){
+			PooledConnection pc = it.next();
+			if(pc.idleMillis() >= this._idleTimeoutMillis && this._idle.removeLastOccurrence(pc)){
+				this._evictedCount.incrementAndGet();
+				discard(pc);
+			}
+		}
+	}
+}
@@ -14,17 +14,23 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -33,20 +39,106 @@ import java.util.LinkedList;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by all helpers
+	private ConnectionPool _pool = null;
+	//connection of the transaction running on the current thread, if any
+	private final ThreadLocal<PooledConnection> _transaction = new ThreadLocal<PooledConnection>();
+	//read replicas for the read-only operations, null when none are configured
+	private ReplicaSet _replicas = null;
+	//set on a thread while its readOnly() work runs on a replica
+	private final ThreadLocal<Boolean> _onReplica = new ThreadLocal<Boolean>();
+	//System.nanoTime() of the last write of each thread, so it reads its own writes
+	private final ThreadLocal<Long> _lastWrite = new ThreadLocal<Long>();
+	private final long _stickyNanos = Long.getLong("dbproject.replicas.stickyMillis", 2000L) * 1000000L;
+	//hands out primary keys for inserts
+	private final IdAllocator _ids = new IdAllocator(this, Integer.getInteger("dbproject.ids.blockSize", 50));
+	//available seats per flight and departure date
+	private final SeatCache _seats = new SeatCache(Integer.getInteger("dbproject.seatCache.maxEntries", 10000));
+	//books reservations atomically
+	private final BookingEngine _booking = new BookingEngine(this, Integer.getInteger("dbproject.booking.maxRetries", 5));
+	//books reservations in batches with group commit, created on first use
+	private BookingQueue _bookingQueue = null;
+	//cancels reservations and promotes the waitlist
+	private final WaitlistPromoter _waitlist = new WaitlistPromoter(this,
+		Integer.getInteger("dbproject.waitlist.batchSize", 500), Integer.getInteger("dbproject.booking.maxRetries", 5));
+	//flights by airport, for the route search
+	private final RouteIndex _routes = new RouteIndex(this,
+		Integer.getInteger("dbproject.routes.threads", Runtime.getRuntime().availableProcessors()));
+	//answers whether ids exist, from memory for the small reference tables
+	private final ExistenceChecker _exists = new ExistenceChecker(this);
+	//Plane, Pilot and Technician in memory, kept current by change notifications
+	private final ReferenceCache _references = new ReferenceCache(this, Long.getLong("dbproject.referenceCache.retryMillis", 1000L));
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-	
+	//rows fetched per round trip by the streaming helpers
+	private int _fetchSize = Integer.getInteger("dbproject.fetchSize", 1000);
+	//latency histograms and counters per statement shape and operation
+	private final Metrics _metrics = new Metrics();
+	//file the metrics are dumped to
+	private final File _metricsFile = new File(System.getProperty("dbproject.metrics.file", "dbproject-metrics.prom"));
+	//how executeQueryAndPrintResult and the reports write their rows
+	private final ResultRenderer.Format _outputFormat = ResultRenderer.Format.configured();
+	//results of the read helpers, null unless dbproject.queryCache.maxEntries is set
+	private QueryCache _queryCache = null;
+	//tables written by the transaction running on the current thread
+	private final ThreadLocal<Set<String>> _txWrites = new ThreadLocal<Set<String>>();
+	//cache updates to apply once the transaction on the current thread commits
+	private final ThreadLocal<List<Runnable>> _afterCommit = new ThreadLocal<List<Runnable>>();
+
+	/**
+	 * Callback invoked once per row by the streaming query helpers.  The
+	 * result set is positioned on the current row and must not be advanced.
+	 */
+	public interface RowHandler{
+		void handle (ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Maps the current row of a result set to a typed value.  The result set
+	 * must not be advanced.
+	 */
+	public interface RowMapper<T>{
+		T map (ResultSet rs) throws SQLException;
+	}
+
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			// prepareThreshold=1 makes the driver use named server-side statements
+			// from the first execution of a cached PreparedStatement
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?prepareThreshold=1";
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// opens the pool of physical connections
+			this._pool = new ConnectionPool(url, user, passwd,
+				Integer.getInteger("dbproject.pool.minSize", 1),
+				Integer.getInteger("dbproject.pool.maxSize", 10),
+				Long.getLong("dbproject.pool.idleTimeoutMillis", 60000L),
+				Long.getLong("dbproject.pool.borrowTimeoutMillis", 30000L),
+				Long.getLong("dbproject.pool.validateAfterMillis", 1000L),
+				Integer.getInteger("dbproject.pool.statementCacheSize", 64));
 	        System.out.println("Done");
+			
+			// read-only operations go to the replicas when any are given
+			String replicas = System.getProperty("dbproject.replicas", "").trim();
+			if (replicas.length() > 0){
+				this._replicas = new ReplicaSet(replicas, dbname, user, passwd,
+					Integer.getInteger("dbproject.replicas.pool.maxSize", Integer.getInteger("dbproject.pool.maxSize", 10)),
+					Long.getLong("dbproject.replicas.retryMillis", 5000L));
+				System.out.println("Reading from replicas " + replicas);
+			}
+			
+			// caches the results of the read helpers when a size is given
+			int cached = Integer.getInteger("dbproject.queryCache.maxEntries", 0);
+			if (cached > 0){
+				this._queryCache = new QueryCache(cached, Long.getLong("dbproject.queryCache.maxBytes", 16L << 20));
+				this._metrics.addCollector(this._queryCache);
+			}
+			
+			// dumps the metrics periodically when an interval is given
+			long interval = Long.getLong("dbproject.metrics.intervalSeconds", 0L);
+			if (interval > 0)
+				this._metrics.startDumping(this._metricsFile, interval * 1000L);
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
 	        System.out.println("Make sure you started postgres on this machine");
@@ -54,6 +146,341 @@ public class DBproject{
 		}
 	}
 	
+	/**
+	 * Method to return the cache of available seats per flight and date.
+	 * 
+	 * @return the seat cache
+	 */
+	public SeatCache getSeatCache(){
+		return this._seats;
+	}
+	
+	/**
+	 * Method to return the engine that books reservations.
+	 * 
+	 * @return the booking engine
+	 */
+	public BookingEngine getBookingEngine(){
+		return this._booking;
+	}
+	
+	/**
+	 * Method to return the asynchronous booking queue, starting its writer
+	 * thread on first use.
+	 * 
+	 * @return the booking queue
+	 */
+	public synchronized BookingQueue getBookingQueue(){
+		if (this._bookingQueue == null)
+			this._bookingQueue = new BookingQueue(this,
+				Integer.getInteger("dbproject.bookingQueue.capacity", 4096),
+				Integer.getInteger("dbproject.bookingQueue.batchSize", 256),
+				Long.getLong("dbproject.bookingQueue.lingerMillis", 2L),
+				Long.getLong("dbproject.bookingQueue.offerTimeoutMillis", 30000L),
+				Integer.getInteger("dbproject.booking.maxRetries", 5));
+		return this._bookingQueue;
+	}
+	
+	/**
+	 * Method to return the engine that cancels reservations and promotes the
+	 * waitlist.
+	 * 
+	 * @return the waitlist promoter
+	 */
+	public WaitlistPromoter getWaitlistPromoter(){
+		return this._waitlist;
+	}
+	
+	/**
+	 * Method to return the in-memory index of flights by airport.
+	 * 
+	 * @return the route index
+	 */
+	public RouteIndex getRouteIndex(){
+		return this._routes;
+	}
+	
+	/**
+	 * Method to return the in-memory copy of Plane, Pilot and Technician.
+	 * It answers nothing until started.
+	 * 
+	 * @return the reference cache
+	 */
+	public ReferenceCache getReferenceCache(){
+		return this._references;
+	}
+	
+	/**
+	 * Method to return the checker for ids referenced by new rows.
+	 * 
+	 * @return the existence checker
+	 */
+	public ExistenceChecker getExistenceChecker(){
+		return this._exists;
+	}
+	
+	/**
+	 * Method to return the format query results are printed in.
+	 * 
+	 * @return the output format
+	 */
+	public ResultRenderer.Format getOutputFormat(){
+		return this._outputFormat;
+	}
+	
+	/**
+	 * Method to return the statement and operation metrics.
+	 * 
+	 * @return the metrics
+	 */
+	public Metrics getMetrics(){
+		return this._metrics;
+	}
+	
+	/**
+	 * Method to return the allocator for new primary keys.
+	 * 
+	 * @return the id allocator
+	 */
+	public IdAllocator getIdAllocator(){
+		return this._ids;
+	}
+	
+	/**
+	 * Method to return the connection pool backing this object.
+	 * 
+	 * @return the connection pool
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+	
+	/**
+	 * Unit of work run by inTransaction().
+	 */
+	public interface TransactionWork<T>{
+		T run () throws SQLException;
+	}
+	
+	/**
+	 * Method to run several helper calls as one transaction.  While the work
+	 * runs, every helper called on this thread uses the same pooled
+	 * connection with autocommit off.  The transaction commits when the work
+	 * returns and rolls back when it throws.  A nested call joins the outer
+	 * transaction.  Work passed to afterCommit() meanwhile runs after the
+	 * commit, and not at all after a rollback.
+	 * 
+	 * @param work the statements to run
+	 * @return the value returned by the work
+	 * @throws java.sql.SQLException when the work or the commit failed
+	 */
+	public <T> T inTransaction (TransactionWork<T> work) throws SQLException {
+		if (isInTransaction ())
+			return work.run ();
+		
+		PooledConnection pc = this._pool.borrow ();
+		boolean committed = false;
+		try{
+			pc.getConnection ().setAutoCommit (false);
+			this._transaction.set (pc);
+			this._afterCommit.set (new ArrayList<Runnable>());
+			if (this._queryCache != null)
+				this._txWrites.set (new HashSet<String>());
+			T result = work.run ();
+			pc.getConnection ().commit ();
+			committed = true;
+			wrote ();
+			return result;
+		}finally{
+			this._transaction.remove ();
+			// rolls back when the commit was not reached
+			this._pool.release (pc);
+			// once the outcome is visible to other connections
+			Set<String> written = this._txWrites.get ();
+			this._txWrites.remove ();
+			if (written != null && !written.isEmpty ())
+				this._queryCache.invalidate (written);
+			List<Runnable> pending = this._afterCommit.get ();
+			this._afterCommit.remove ();
+			if (committed)
+				for (Runnable r : pending)
+					r.run ();
+		}
+	}
+	
+	/**
+	 * Method to apply a change to an in-memory structure (seat counts, known
+	 * ids, the route index) once the write it reflects is visible to other
+	 * connections: when the transaction on this thread commits, or right away
+	 * outside a transaction.  The change is dropped if the transaction rolls
+	 * back, so the structure never holds rows that do not exist.
+	 * 
+	 * @param change the update to apply
+	 */
+	public void afterCommit (Runnable change){
+		List<Runnable> pending = this._afterCommit.get ();
+		if (pending == null)
+			change.run ();
+		else
+			pending.add (change);
+	}
+	
+	/**
+	 * Method to run read-only helper calls on a read replica.  The work runs
+	 * as one read-only transaction on a replica picked round robin, with
+	 * every helper on this thread using that connection.  It runs on the
+	 * primary instead when no replica is configured or reachable, inside
+	 * inTransaction(), and for a while (dbproject.replicas.stickyMillis)
+	 * after this thread wrote, so a thread always reads its own writes.  A
+	 * read the replica drops is repeated on the next replica or the primary,
+	 * so the work must not write.
+	 * 
+	 * @param work the queries to run
+	 * @return the value returned by the work
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	public <T> T readOnly (TransactionWork<T> work) throws SQLException {
+		if (this._replicas == null || isInTransaction () || wroteRecently ())
+			return work.run ();
+		
+		for (int r = this._replicas.next (); r >= 0; r = this._replicas.next ()){
+			ConnectionPool replica = this._replicas.getPool (r);
+			PooledConnection pc;
+			try{
+				pc = replica.borrow ();
+			}catch (SQLException e){
+				this._replicas.markDown (r, e);
+				continue;
+			}
+			try{
+				pc.getConnection ().setAutoCommit (false);
+				this._transaction.set (pc);
+				this._onReplica.set (Boolean.TRUE);
+				T result = work.run ();
+				pc.getConnection ().commit ();
+				return result;
+			}catch (SQLException e){
+				if (!ReplicaSet.isReplicaFailure (e))
+					throw e;
+				this._replicas.markDown (r, e);
+			}finally{
+				this._transaction.remove ();
+				this._onReplica.remove ();
+				replica.release (pc);
+			}
+		}
+		return work.run ();
+	}
+	
+	/**
+	 * Method to tell whether this thread is inside readOnly() on a replica.
+	 * Results read there may lag behind the primary and should not be
+	 * cached.
+	 * 
+	 * @return true when helpers on this thread read from a replica
+	 */
+	public boolean isOnReplica (){
+		return this._onReplica.get () != null;
+	}
+	
+	/**
+	 * Method to note that this thread wrote, so its reads stay on the
+	 * primary until the replicas have likely caught up.
+	 */
+	void wrote (){
+		if (this._replicas != null)
+			this._lastWrite.set (System.nanoTime ());
+	}
+	
+	/**
+	 * Method to note that this thread ran a write statement: the cached
+	 * results reading a table it writes are dropped, inside a transaction
+	 * again when the transaction ends.
+	 * 
+	 * @param sql the statement
+	 */
+	void wrote (String sql){
+		wrote ();
+		if (this._queryCache == null)
+			return;
+		Set<String> tables = this._queryCache.writtenTables (sql);
+		this._queryCache.invalidate (tables);
+		Set<String> written = this._txWrites.get ();
+		if (written != null)
+			written.addAll (tables);
+	}
+	
+	/**
+	 * Method to drop every cached query result, after tables were changed
+	 * other than through the helpers (COPY, another program).
+	 */
+	public void invalidateQueryCache (){
+		if (this._queryCache != null)
+			this._queryCache.invalidate (Collections.singleton (QueryCache.ALL));
+	}
+	
+	/**
+	 * Method to return the query result cache.
+	 * 
+	 * @return the cache, or null when it is disabled
+	 */
+	public QueryCache getQueryCache (){
+		return this._queryCache;
+	}
+	
+	/**
+	 * Method to look a read up in the query cache.  Reads inside a
+	 * transaction on the primary bypass the cache, since they may see the
+	 * transaction's own uncommitted writes.
+	 * 
+	 * @param kind what the result is, e.g. the helper and row mapper it comes from
+	 * @param query the query
+	 * @param params the values bound to its placeholders
+	 * @return the lookup, or null when the read is not to be cached
+	 */
+	private QueryCache.Lookup cacheLookup (Object kind, String query, Object[] params){
+		if (this._queryCache == null || (isInTransaction () && !isOnReplica ()))
+			return null;
+		return this._queryCache.lookup (kind, query, params, isOnReplica () ? this._stickyNanos : 0L);
+	}
+	
+	private boolean wroteRecently (){
+		Long last = this._lastWrite.get ();
+		return last != null && System.nanoTime () - last.longValue () < this._stickyNanos;
+	}
+	
+	/**
+	 * Method to tell whether this thread is inside inTransaction().
+	 * 
+	 * @return true when helpers on this thread share a transaction
+	 */
+	public boolean isInTransaction (){
+		return this._transaction.get () != null;
+	}
+	
+	/**
+	 * Method to get a connection for one helper call: the thread's
+	 * transaction connection if there is one, otherwise a pooled connection.
+	 * Must be paired with releaseConnection().
+	 * 
+	 * @return the connection to run statements on
+	 * @throws java.sql.SQLException when no pooled connection became available
+	 */
+	PooledConnection acquireConnection () throws SQLException {
+		PooledConnection pc = this._transaction.get ();
+		return pc != null ? pc : this._pool.borrow ();
+	}
+	
+	/**
+	 * Method to give back a connection obtained from acquireConnection().
+	 * 
+	 * @param pc the connection
+	 */
+	void releaseConnection (PooledConnection pc){
+		if (pc != this._transaction.get ())
+			this._pool.release (pc);
+	}
+	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -62,14 +489,28 @@ public class DBproject{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+		Metrics.Series m = this._metrics.statement (sql);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			// creates a statement object
+			Statement stmt = pc.getConnection().createStatement ();
+			int rows;
+			try{
+				// issues the update instruction
+				rows = stmt.executeUpdate (sql);
+			}finally{
+				// close the instruction
+				stmt.close ();
+			}
+			wrote (sql);
+			m.record (System.nanoTime () - start, rows, 0);
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
 	}//end executeUpdate
 
 	/**
@@ -82,38 +523,51 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		QueryCache.Lookup cached = cacheLookup ("PrintResult", query, null);
+		if (cached != null && cached.isHit ())
+			return printCached ((QueryCache.Printed) cached.value);
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			//rows are fetched through a server-side cursor, which needs a transaction
+			Connection conn = pc.getConnection ();
+			boolean ownTransaction = !isInTransaction ();
+			if (ownTransaction)
+				conn.setAutoCommit (false);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//creates a statement object
+			Statement stmt = conn.createStatement ();
+			ResultRenderer printer = new ResultRenderer (this._outputFormat, System.out);
+			QueryCache.Printed copy = cached == null ? null : new QueryCache.Printed (this._queryCache.getMaxBytes () / 8);
+			int rowCount;
+			try{
+				stmt.setFetchSize (this._fetchSize);
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+				//issues the query instruction
+				ResultSet rs = stmt.executeQuery (query);
+
+				//iterates through the result set and output them to standard out.
+				rowCount = forEachRow (rs, copy == null ? printer : tee (printer, copy));
+			}finally{
+				printer.finish ();
+				stmt.close ();
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		
-		return rowCount;
+			if (ownTransaction)
+				conn.commit ();
+			
+			if (copy != null && copy.isComplete ()){
+				copy.trimToSize ();
+				cached.store (copy);
+			}
+			m.record (System.nanoTime () - start, rowCount, printer.bytes);
+			return rowCount;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
 	}
 	
 	/**
@@ -122,35 +576,41 @@ public class DBproject{
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
 	 * @param query the input query string
-	 * @return the query result as a list of records
+	 * @return the query result as a read-only list of records, kept as CompactRows
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
+	@SuppressWarnings("unchecked")
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+		QueryCache.Lookup cached = cacheLookup ("ReturnResult", query, null);
+		if (cached != null && cached.isHit ())
+			return (List<List<String>>) cached.value;
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection (); 
+		try{
+			//creates a statement object 
+			Statement stmt = pc.getConnection().createStatement (); 
+			CompactRows result = new CompactRows (); 
+			try{
+				//issues the query instruction 
+				ResultSet rs = stmt.executeQuery (query); 
+			 
+				//iterates through the result set and saves the data returned by the query. 
+				forEachRow (rs, result);
+			}finally{
+				stmt.close (); 
+			}
+			result.trimToSize ();
+			m.record (System.nanoTime () - start, result.size (), result.getByteSize ());
+			if (cached != null)
+				cached.store (result);
+			return result; 
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
 	}//end executeQueryAndReturnResult
 	
 	/**
@@ -162,22 +622,451 @@ public class DBproject{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			//creates a statement object
+			Statement stmt = pc.getConnection().createStatement ();
+			int rowCount = 0;
+			try{
+				//issues the query instruction
+				ResultSet rs = stmt.executeQuery (query);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+				//iterates through the result set and count nuber of results.
+				while(rs.next()){
+					rowCount++;
+				}//end while
+			}finally{
+				stmt.close ();
+			}
+			m.record (System.nanoTime () - start, rowCount, 0);
+			return rowCount;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}
+	
+	/**
+	 * Method to execute a parameterized update SQL statement.  The statement
+	 * is prepared once per pooled connection and reused from its statement
+	 * cache, and the values are bound to the ? placeholders in order.
+	 *
+	 * @param sql the input SQL string with ? placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		Metrics.Series m = this._metrics.statement (sql);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			PreparedStatement stmt = bind (pc.prepare (sql), params);
+			int rows = stmt.executeUpdate ();
+			wrote (sql);
+			m.record (System.nanoTime () - start, rows, 0);
+			return rows;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}//end executeUpdate
 
-		int rowCount = 0;
+	/**
+	 * Method to execute a parameterized write with a RETURNING clause and
+	 * map the row it returns.  Unlike queryForObject() it never goes through
+	 * the query cache.
+	 *
+	 * @param sql the input SQL string with ? placeholders
+	 * @param mapper maps the returned row to a value
+	 * @param params the values bound to the placeholders
+	 * @return the mapped first returned row, or null when no row was written
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public <T> T executeUpdateReturning (String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+		Metrics.Series m = this._metrics.statement (sql);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			ResultSet rs = bind (pc.prepare (sql), params).executeQuery ();
+			boolean found = rs.next ();
+			T value = found ? mapper.map (rs) : null;
+			rs.close ();
+			wrote (sql);
+			m.record (System.nanoTime () - start, found ? 1 : 0, 0);
+			return value;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}//end executeUpdateReturning
+
+	/**
+	 * Method to execute a parameterized query and output the results to
+	 * standard out.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		QueryCache.Lookup cached = cacheLookup ("PrintResult", query, params);
+		if (cached != null && cached.isHit ())
+			return printCached ((QueryCache.Printed) cached.value);
+		ResultRenderer printer = new ResultRenderer (this._outputFormat, System.out);
+		QueryCache.Printed copy = cached == null ? null : new QueryCache.Printed (this._queryCache.getMaxBytes () / 8);
+		int rowCount;
+		try{
+			rowCount = streamQuery (query, copy == null ? printer : tee (printer, copy), params);
+		}finally{
+			printer.finish ();
+		}
+		if (copy != null && copy.isComplete ()){
+			copy.trimToSize ();
+			cached.store (copy);
+		}
+		this._metrics.statement (query).addBytes (printer.bytes);
+		return rowCount;
+	}
+
+	/**
+	 * Method to execute a parameterized query and hand each row to a
+	 * callback as it arrives.  The query runs in its own transaction with
+	 * the configured fetch size, so the driver reads the rows through a
+	 * server-side cursor and memory use does not grow with the result.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param handler the callback invoked once per row
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int streamQuery (String query, RowHandler handler, Object... params) throws SQLException {
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			Connection conn = pc.getConnection ();
+			boolean ownTransaction = !isInTransaction ();
+			if (ownTransaction)
+				conn.setAutoCommit (false);
+			PreparedStatement stmt = bind (pc.prepare (query), params);
+			stmt.setFetchSize (this._fetchSize);
+			int rowCount;
+			try{
+				ResultSet rs = stmt.executeQuery ();
+				try{
+					rowCount = forEachRow (rs, handler);
+				}finally{
+					rs.close ();
+				}
+			}finally{
+				//the statement stays in the connection's cache
+				stmt.setFetchSize (0);
+			}
+			if (ownTransaction)
+				conn.commit ();
+			m.record (System.nanoTime () - start, rowCount, 0);
+			return rowCount;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}
+
+	/**
+	 * Method to open a cursor over a parameterized query.  The rows are read
+	 * through a server-side cursor with the configured fetch size; the cursor
+	 * keeps its pooled connection until it is exhausted or closed.  Inside
+	 * inTransaction() the cursor reads on the transaction's connection and
+	 * leaves committing to the transaction.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders
+	 * @return an iterator over the records of the query
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryCursor openCursor (String query, Object... params) throws SQLException {
+		//only the time to the first batch of rows is recorded
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			boolean ownTransaction = !isInTransaction ();
+			if (ownTransaction)
+				pc.getConnection ().setAutoCommit (false);
+			PreparedStatement stmt = bind (pc.prepare (query), params);
+			stmt.setFetchSize (this._fetchSize);
+			QueryCursor cursor = new QueryCursor (ownTransaction ? this._pool : null, pc, stmt, stmt.executeQuery ());
+			m.record (System.nanoTime () - start, 0, 0);
+			return cursor;
+		}catch (SQLException e){
+			m.error ();
+			releaseConnection (pc);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to execute a parameterized query and map every row to a typed
+	 * value, reading the columns with the typed ResultSet getters.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param mapper maps one row to a value; part of the query cache key, so
+	 *               pass a constant rather than a new instance per call
+	 * @param params the values bound to the placeholders
+	 * @return the mapped rows in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> queryForList (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		QueryCache.Lookup cached = cacheLookup (Arrays.asList ("list", mapper), query, params);
+		if (cached != null && cached.isHit ())
+			return (List<T>) cached.value;
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			ResultSet rs = bind (pc.prepare (query), params).executeQuery ();
+			List<T> result = new ArrayList<T>();
+			while (rs.next())
+				result.add (mapper.map (rs));
+			rs.close ();
+			m.record (System.nanoTime () - start, result.size (), 0);
+			return store (cached, result);
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}
+
+	/**
+	 * Method to execute a parameterized query and map its first row.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param mapper maps the row to a value; part of the query cache key, so
+	 *               pass a constant rather than a new instance per call
+	 * @param params the values bound to the placeholders
+	 * @return the mapped first row, or null when the query returned no rows
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T queryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		QueryCache.Lookup cached = cacheLookup (Arrays.asList ("object", mapper), query, params);
+		if (cached != null && cached.isHit ())
+			return (T) cached.value;
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			ResultSet rs = bind (pc.prepare (query), params).executeQuery ();
+			boolean found = rs.next();
+			T value = found ? mapper.map (rs) : null;
+			rs.close ();
+			m.record (System.nanoTime () - start, found ? 1 : 0, 0);
+			if (cached != null)
+				cached.store (value);
+			return value;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}
 
-		//iterates through the result set and count nuber of results.
-		while(rs.next()){
-			rowCount++;
+	/**
+	 * Method to execute a parameterized query whose columns are all numeric
+	 * and collect the result column by column into primitive arrays.
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the columnar result
+	 * @throws java.sql.SQLException when failed to execute the query or a column is not numeric
+	 */
+	public ColumnarResult queryColumns (String query, Object... params) throws SQLException {
+		QueryCache.Lookup cached = cacheLookup ("Columns", query, params);
+		if (cached != null && cached.isHit ())
+			return (ColumnarResult) cached.value;
+		ColumnarResult result = new ColumnarResult ();
+		streamQuery (query, result, params);
+		this._metrics.statement (query).addBytes (result.getByteSize ());
+		if (cached != null)
+			cached.store (result);
+		return result;
+	}
+
+	/**
+	 * Method to set how many rows the driver fetches per round trip when
+	 * streaming a query.
+	 *
+	 * @param fetchSize rows per fetch, must be positive
+	 */
+	public void setFetchSize (int fetchSize){
+		if (fetchSize < 1)
+			throw new IllegalArgumentException ("Fetch size must be positive: " + fetchSize);
+		this._fetchSize = fetchSize;
+	}
+
+	/**
+	 * Method to call a handler for every remaining row of a result set.
+	 *
+	 * @param rs the result set
+	 * @param handler the callback invoked once per row
+	 * @return the number of rows handled
+	 * @throws java.sql.SQLException when reading a row failed
+	 */
+	private static int forEachRow (ResultSet rs, RowHandler handler) throws SQLException {
+		int rowCount = 0;
+		while (rs.next()){
+			handler.handle (rs);
+			++rowCount;
 		}//end while
-		stmt.close ();
 		return rowCount;
 	}
-	
+
+	/**
+	 * Method to cache a list result.  The list is cached and returned
+	 * unmodifiable, since every hit hands out the same instance.
+	 *
+	 * @param cached the lookup of the read, or null when it is not cached
+	 * @param result the result
+	 * @return the result to hand to the caller
+	 */
+	private static <T> List<T> store (QueryCache.Lookup cached, List<T> result){
+		if (cached == null)
+			return result;
+		List<T> shared = Collections.unmodifiableList (result);
+		cached.store (shared);
+		return shared;
+	}
+
+	/**
+	 * Method to print a result from the query cache.
+	 *
+	 * @param printed the cached result
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when the output could not be written
+	 */
+	private int printCached (QueryCache.Printed printed) throws SQLException {
+		ResultRenderer printer = new ResultRenderer (this._outputFormat, System.out);
+		try{
+			printed.replay (printer);
+		}finally{
+			printer.finish ();
+		}
+		return printed.rows.size ();
+	}
+
+	/**
+	 * Method to hand every row to two handlers.
+	 */
+	private static RowHandler tee (final RowHandler first, final RowHandler second){
+		return new RowHandler (){
+			public void handle (ResultSet rs) throws SQLException {
+				first.handle (rs);
+				second.handle (rs);
+			}
+		};
+	}
+
+	/**
+	 * Method to execute a parameterized query and return the results as a
+	 * list of records. Each record in turn is a list of attribute values
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the query result as a read-only list of records, kept as CompactRows
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	@SuppressWarnings("unchecked")
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		QueryCache.Lookup cached = cacheLookup ("ReturnResult", query, params);
+		if (cached != null && cached.isHit ())
+			return (List<List<String>>) cached.value;
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			ResultSet rs = bind (pc.prepare (query), params).executeQuery ();
+
+			//iterates through the result set and saves the data returned by the query.
+			CompactRows result = new CompactRows ();
+			forEachRow (rs, result);
+			rs.close ();
+			result.trimToSize ();
+			m.record (System.nanoTime () - start, result.size (), result.getByteSize ());
+			if (cached != null)
+				cached.store (result);
+			return result;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute a parameterized query and return the number of results
+	 *
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		Metrics.Series m = this._metrics.statement (query);
+		long start = System.nanoTime ();
+		PooledConnection pc = acquireConnection ();
+		try{
+			ResultSet rs = bind (pc.prepare (query), params).executeQuery ();
+			int rowCount = 0;
+			while(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			m.record (System.nanoTime () - start, rowCount, 0);
+			return rowCount;
+		}catch (SQLException e){
+			m.error ();
+			throw e;
+		}finally{
+			releaseConnection (pc);
+		}
+	}
+
+	/**
+	 * Method to bind values to the placeholders of a prepared statement.
+	 *
+	 * @param stmt the prepared statement
+	 * @param params the values, in placeholder order
+	 * @return the same statement
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	static PreparedStatement bind (PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null)
+				stmt.setNull (i + 1, Types.NULL);
+			else
+				stmt.setObject (i + 1, params[i]);
+		}
+		return stmt;
+	}
+
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
@@ -189,24 +1078,55 @@ public class DBproject{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		PooledConnection pc = acquireConnection ();
+		try{
+			Statement stmt = pc.getConnection().createStatement ();
+			try{
+				ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+				return rs.next() ? rs.getInt(1) : -1;
+			}finally{
+				stmt.close ();
+			}
+		}finally{
+			releaseConnection (pc);
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to write the metrics to the metrics file (dbproject.metrics.file,
+	 * by default dbproject-metrics.prom) in the Prometheus text format.
 	 */
-	public void cleanup(){
+	public void dumpMetrics(){
 		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+			this._metrics.dump (this._metricsFile);
+			System.out.println ("Metrics written to " + this._metricsFile.getPath ());
+		}catch (IOException e){
+			System.err.println (e.getMessage ());
+		}
+	}
+
+	/**
+	 * Method to close the pooled physical connections.
+	 */
+	public void cleanup(){
+		this._metrics.stopDumping ();
+		this._waitlist.stopSweeping ();
+		this._routes.close ();
+		this._references.close ();
+		synchronized (this){
+			// books what was already submitted
+			if (this._bookingQueue != null)
+				this._bookingQueue.close ();
+		}
+		this._ids.close ();
+		if (System.getProperty ("dbproject.metrics.file") != null)
+			dumpMetrics ();
+		if (this._replicas != null){
+			this._replicas.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -215,14 +1135,13 @@ public class DBproject{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
-			System.err.println (
-				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		if (args.length < 3) {
+			usage ();
 			return;
 		}//end if
 		
 		DBproject esql = null;
+		int exitStatus = 0;
 		
 		try{
 			System.out.println("(1)");
@@ -243,9 +1162,82 @@ public class DBproject{
 			
 			esql = new DBproject (dbname, dbport, user, "");
 			
+			String mode = args.length > 3 ? args[3] : "menu";
+			if (mode.equals("migrate")) {
+				// brings the schema up to date, e.g. from ../sql/migrations
+				int applied = new MigrationRunner(esql, new File(args.length > 4 ? args[4] : "../sql/migrations")).migrate();
+				System.out.println(applied + " migration(s) applied");
+				return;
+			}
+			
 			initIDs(esql);
+			initRepairStats(esql);
+			
+			// serves plane, pilot and technician lookups from memory in the long-running modes
+			if (Boolean.parseBoolean(System.getProperty("dbproject.referenceCache", "true"))
+			    && (mode.equals("menu") || mode.equals("serve") || mode.equals("batch"))) {
+				// the lookups still work without it, from the database
+				try{
+					esql.getReferenceCache().start();
+				}catch (SQLException e){
+					System.err.println("Reference cache off: " + e.getMessage());
+				}
+			}
+			
+			// promotes waitlisted reservations in the background when an interval is given
+			long sweep = Long.getLong("dbproject.waitlist.sweepSeconds", 0L);
+			if (sweep > 0 && (mode.equals("menu") || mode.equals("serve")))
+				esql.getWaitlistPromoter().startSweeping(sweep * 1000L);
+			
+			if (mode.equals("check-plans")) {
+				// fails when an operation's plan scans a large table
+				int failed = new PlanCheck(esql, Long.getLong("dbproject.plancheck.minRows", 1000L)).run();
+				System.out.println(failed + " plan(s) failed");
+				exitStatus = failed > 0 ? 1 : 0;
+			}
+			else if (mode.equals("promote-waitlist")) {
+				// gives the free seats of every flight to its waitlist
+				long start = System.nanoTime();
+				int promoted = esql.getWaitlistPromoter().sweep();
+				System.out.println(promoted + " waitlisted reservation(s) promoted in " + (System.nanoTime() - start) / 1000000L + " ms");
+				return;
+			}
+			else if (mode.equals("load")) {
+				// reloads every table from the CSV files, e.g. ../data
+				new BulkLoader(esql).load(new File(args.length > 4 ? args[4] : "../data"));
+				return;
+			}
+			else if (mode.equals("batch")) {
+				// runs the operations listed in a file, or standard input for "-"
+				String file = args.length > 4 ? args[4] : "-";
+				BufferedReader input = file.equals("-") ? in : new BufferedReader(new FileReader(file), 1 << 16);
+				try{
+					new BatchRunner(esql, Integer.getInteger("dbproject.batch.size", 100), System.out).run(input);
+				}finally{
+					input.close();
+				}
+				return;
+			}
+			else if (mode.equals("serve")) {
+				// serves the operations over HTTP until the process is stopped
+				final HttpService service = new HttpService(esql, System.getProperty("dbproject.http.host", "127.0.0.1"),
+				                                            args.length > 4 ? Integer.parseInt(args[4]) : 8080);
+				Runtime.getRuntime().addShutdownHook(new Thread(){
+					public void run(){
+						service.stop();
+					}
+				});
+				service.start();
+				service.await();
+				return;
+			}
+			else if (!mode.equals("menu")) {
+				usage ();
+				return;
+			}
 			
-			boolean keepon = true;
+			// check-plans gets here too, to exit with its status
+			boolean keepon = mode.equals("menu");
 			while(keepon){
 				System.out.println("MAIN MENU");
 				System.out.println("---------");
@@ -258,7 +1250,11 @@ public class DBproject{
 				System.out.println("7. List total number of repairs per plane in descending order");
 				System.out.println("8. List total number of repairs per year in ascending order");
 				System.out.println("9. Find total number of passengers with a given status");
-				System.out.println("10. < EXIT");
+				System.out.println("10. Dump metrics");
+				System.out.println("11. Cancel Reservation");
+				System.out.println("12. Promote waitlisted reservations");
+				System.out.println("13. Search flights between airports");
+				System.out.println("14. < EXIT");
 				
 				switch (readChoice()){
 					case 1: AddPlane(esql); break;
@@ -270,11 +1266,16 @@ public class DBproject{
 					case 7: ListsTotalNumberOfRepairsPerPlane(esql); break;
 					case 8: ListTotalNumberOfRepairsPerYear(esql); break;
 					case 9: FindPassengersCountWithStatus(esql); break;
-					case 10: keepon = false; break;
+					case 10: esql.dumpMetrics(); break;
+					case 11: CancelReservation(esql); break;
+					case 12: PromoteWaitlist(esql); break;
+					case 13: SearchFlights(esql); break;
+					case 14: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
+			exitStatus = 1;
 		}finally{
 			try{
 				if(esql != null) {
@@ -286,6 +1287,25 @@ public class DBproject{
 				// ignored.
 			}
 		}
+		if (exitStatus != 0)
+			System.exit (exitStatus);
+	}
+
+	/**
+	 * Method to print the command line usage.
+	 */
+	private static void usage () {
+		System.err.println (
+			"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
+	            " <dbname> <port> <user> [mode]\n" +
+	            "Modes:\n" +
+	            "  menu               interactive main menu (default)\n" +
+	            "  load [csv dir]     reload all tables from CSV files (default ../data); the old rows stay if any file fails\n" +
+	            "  batch [file]       run the operations listed in a file, one CSV line each (default -, standard input)\n" +
+	            "  serve [port]       serve the operations as HTTP/JSON endpoints (default 8080)\n" +
+	            "  migrate [dir]      apply the pending schema migrations (default ../sql/migrations)\n" +
+	            "  check-plans        fail when an operation's query plan scans a large table\n" +
+	            "  promote-waitlist   give the free seats of every flight to its waitlisted reservations");
 	}
 
 	public static int readChoice() {
@@ -304,220 +1324,128 @@ public class DBproject{
 		return input;
 	}//end readChoice
 	
-	private static int FlightID;
-	private static int PilotID;
-	private static int PlaneID;
-	private static int RepairID;
-	private static int TechnicianID;
-	private static int CustomerID;
-	private static int FlightInfoID;
-	private static int ReservationID;
-	private static int ScheduleID;
-	static Queue<Integer> FlightIDQ = new LinkedList<Integer>();
-	static Queue<Integer> PilotIDQ = new LinkedList<Integer>();
-	static Queue<Integer> PlaneIDQ = new LinkedList<Integer>();
-	static Queue<Integer> RepairIDQ = new LinkedList<Integer>();
-	static Queue<Integer> TechnicianIDQ = new LinkedList<Integer>();
-	static Queue<Integer> CustomerIDQ = new LinkedList<Integer>();
-	static Queue<Integer> FlightInfoIDQ = new LinkedList<Integer>();
-	static Queue<Integer> ReservationIDQ = new LinkedList<Integer>();
-	static Queue<Integer> ScheduleIDQ = new LinkedList<Integer>();
-	
-	/**
-	 * Method to assign the ids.
-	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
-	 */
-	private static void initIDs(DBproject esql) {
-		try {
-		   FlightID = esql.executeQuery("SELECT * FROM Flight;") -1;
-		} catch (SQLException e) {
-			System.err.println (e.getMessage());
-		}
-		
-		try {
-		   PilotID = esql.executeQuery("SELECT * FROM Pilot;") -1;
-		} catch (SQLException e) {
-			System.err.println (e.getMessage());
-		}
-		
-		try {
-		   PlaneID = esql.executeQuery("SELECT * FROM Plane;") -1;
-		} catch (SQLException e) {
-			System.err.println (e.getMessage());
-		}
-		
-		try {
-		   RepairID = esql.executeQuery("SELECT * FROM Repairs;") -1;
-		} catch (SQLException e) {
-			System.err.println (e.getMessage());
-		}
-		
-		try {
-		   TechnicianID = esql.executeQuery("SELECT * FROM Technician;") -1;
-		} catch (SQLException e) {
-			System.err.println (e.getMessage());
-		}
-		
-		try {
-		   CustomerID = esql.executeQuery("SELECT * FROM Customer;") -1;
-		} catch (SQLException e) {
-			System.err.println (e.getMessage());
-		}
-		
-		try {
-		   FlightInfoID = esql.executeQuery("SELECT * FROM FlightInfo;") -1;
-		} catch (SQLException e) {
-			System.err.println (e.getMessage());
-		}
-		
+	/**
+	 * Method to prepare the id allocators.  This reserves nothing yet; it only
+	 * brings the allocator table in line with the current keys of each table.
+	 * 
+	 * @return void
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private static void initIDs(DBproject esql) {
 		try {
-		   ReservationID = esql.executeQuery("SELECT * FROM Reservation;") -1;
+		   esql.getIdAllocator().init();
 		} catch (SQLException e) {
 			System.err.println (e.getMessage());
+			if ("42P01".equals (e.getSQLState ()))
+				System.err.println ("Run the migrate mode to create the tables of the app.");
 		}
-		
+	}
+	
+	/**
+	 * Method to check that the repair summary used by the repair reports is
+	 * kept current by its triggers.
+	 * 
+	 * @return void
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private static void initRepairStats(DBproject esql) {
 		try {
-		   ScheduleID = esql.executeQuery("SELECT * FROM Schedule;") -1;
+		   RepairStats.init(esql);
 		} catch (SQLException e) {
 			System.err.println (e.getMessage());
+			if ("42P01".equals (e.getSQLState ()))
+				System.err.println ("Run the migrate mode to create the tables of the app.");
 		}
 	}
 	
 	/**
-	 * Method to retrun the next Flight id and increment the value for an insert.
+	 * Method to return the next unused Flight id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Flight id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getFlightID(DBproject esql) {
-		if(FlightIDQ.isEmpty()){
-			return ++FlightID;
-		}
-		else{
-			return FlightIDQ.remove();
-		}
+	private static int getFlightID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Flight");
 	}
 	
 	/**
-	 * Method to retrun the next Pilot id and increment the value for an insert.
+	 * Method to return the next unused Pilot id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Pilot id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getPilotID(DBproject esql) {
-		if(PilotIDQ.isEmpty()){
-			return ++PilotID;
-		}
-		else{
-			return PilotIDQ.remove();
-		}
+	private static int getPilotID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Pilot");
 	}
 	
 	/**
-	 * Method to retrun the next Plane id and increment the value for an insert.
+	 * Method to return the next unused Plane id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Plane id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getPlaneID(DBproject esql) {
-		if(PlaneIDQ.isEmpty()){
-			return ++PlaneID;
-		}
-		else{
-			return PlaneIDQ.remove();
-		}
+	private static int getPlaneID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Plane");
 	}
 	
 	/**
-	 * Method to retrun the next Repair id and increment the value for an insert.
+	 * Method to return the next unused Repair id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Repair id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getRepairID(DBproject esql) {
-		if(RepairIDQ.isEmpty()){
-			return ++RepairID;
-		}
-		else{
-			return RepairIDQ.remove();
-		}
+	private static int getRepairID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Repairs");
 	}
 	
 	/**
-	 * Method to retrun the next Technician id and increment the value for an insert.
+	 * Method to return the next unused Technician id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Technician id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getTechnicianID(DBproject esql) {
-		if(TechnicianIDQ.isEmpty()){
-			return ++TechnicianID;
-		}
-		else{
-			return TechnicianIDQ.remove();
-		}
+	private static int getTechnicianID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Technician");
 	}
 	
 	/**
-	 * Method to retrun the next Customer id and increment the value for an insert.
+	 * Method to return the next unused Customer id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Customer id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getCustomerID(DBproject esql) {
-		if(CustomerIDQ.isEmpty()){
-			return ++CustomerID;
-		}
-		else{
-			return CustomerIDQ.remove();
-		}
+	private static int getCustomerID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Customer");
 	}
 	
 	/**
-	 * Method to retrun the next FlightInfo id and increment the value for an insert.
+	 * Method to return the next unused FlightInfo id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return FlightInfo id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getFlightInfoID(DBproject esql) {
-		if(FlightInfoIDQ.isEmpty()){
-			return ++FlightInfoID;
-		}
-		else{
-			return FlightInfoIDQ.remove();
-		}
+	private static int getFlightInfoID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("FlightInfo");
 	}
 	
 	/**
-	 * Method to retrun the next Reservation id and increment the value for an insert.
+	 * Method to return the next unused Reservation id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Reservation id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getReservationID(DBproject esql) {
-		if(ReservationIDQ.isEmpty()){
-			return ++ReservationID;
-		}
-		else{
-			return ReservationIDQ.remove();
-		}
+	private static int getReservationID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Reservation");
 	}
 	
 	/**
-	 * Method to retrun the next Schedule id and increment the value for an insert.
+	 * Method to return the next unused Schedule id for an insert.
 	 * 
-	 * @return void
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return Schedule id
+	 * @throws java.sql.SQLException when failed to reserve more ids
 	 */
-	private static int getScheduleID(DBproject esql) {
-		if(ScheduleIDQ.isEmpty()){
-			return ++ScheduleID;
-		}
-		else{
-			return ScheduleIDQ.remove();
-		}
+	private static int getScheduleID(DBproject esql) throws SQLException {
+		return esql.getIdAllocator().next("Schedule");
 	}
 	
 	/**
@@ -581,7 +1509,7 @@ public class DBproject{
 			}//end try
 		}while (true);
 		
-		if(month < 11){
+		if(month < 10){
 		   if(day < 10){
 		      return String.valueOf(year) + "-0" + String.valueOf(month) + "-0" + String.valueOf(day);
 		   }
@@ -598,7 +1526,7 @@ public class DBproject{
 	}
 	
 	/**
-	 * Method to get flight ID from user and print the entry information if it exists.
+	 * Method to get flight ID from user and check that it exists.
 	 * 
 	 * @param DBproject
 	 * @return flight ID
@@ -619,7 +1547,7 @@ public class DBproject{
 			System.out.println("\n");
 			
 			try {
-			   if(esql.executeQueryAndPrintResult("SELECT * FROM Flight WHERE fnum = " + String.valueOf(fid) + ";") < 1){
+			   if(!esql.getExistenceChecker().exists(ExistenceChecker.Table.FLIGHT, fid)){
 				   System.out.println("Please re-enter. There is no flight with ID " + String.valueOf(fid) + ".");
 				}
 				else{
@@ -635,7 +1563,7 @@ public class DBproject{
 	}
 
 	/**
-	 * Method to get pilot ID from user and print the entry information if it exists.
+	 * Method to get pilot ID from user and check that it exists.
 	 * 
 	 * @param DBproject
 	 * @return pilot ID
@@ -656,7 +1584,7 @@ public class DBproject{
 			System.out.println("\n");
 			
 			try {
-			   if(esql.executeQueryAndPrintResult("SELECT * FROM Pilot WHERE id = " + String.valueOf(pid) + ";") < 1){
+			   if(!esql.getExistenceChecker().exists(ExistenceChecker.Table.PILOT, pid)){
 				   System.out.println("Please re-enter. There is no pilot with ID " + String.valueOf(pid) + ".");
 				}
 				else{
@@ -672,7 +1600,7 @@ public class DBproject{
 	}
 	
 	/**
-	 * Method to get plane ID from user and print the entry information if it exists.
+	 * Method to get plane ID from user and check that it exists.
 	 * 
 	 * @param DBproject
 	 * @return plane ID
@@ -693,7 +1621,7 @@ public class DBproject{
 			System.out.println("\n");
 			
 			try {
-			   if(esql.executeQueryAndPrintResult("SELECT * FROM Plane WHERE id = " + String.valueOf(pid) + ";") < 1){
+			   if(!esql.getExistenceChecker().exists(ExistenceChecker.Table.PLANE, pid)){
 				   System.out.println("Please re-enter. There is no plane with ID " + String.valueOf(pid) + ".");
 				}
 				else{
@@ -710,7 +1638,7 @@ public class DBproject{
     }
     
     /**
-	 * Method to get technician ID from user and print the entry information if it exists.
+	 * Method to get technician ID from user and check that it exists.
 	 * 
 	 * @param DBproject
 	 * @return technician ID
@@ -731,7 +1659,7 @@ public class DBproject{
 			System.out.println("\n");
 			
 			try {
-			   if(esql.executeQueryAndPrintResult("SELECT * FROM Technician WHERE id = " + String.valueOf(techid) + ";") < 1){
+			   if(!esql.getExistenceChecker().exists(ExistenceChecker.Table.TECHNICIAN, techid)){
 				   System.out.println("Please re-enter. There is no technician with ID " + String.valueOf(techid) + ".");
 				}
 				else{
@@ -755,7 +1683,6 @@ public class DBproject{
 	 * @throws Exception when user input is not an integer
 	 */
 	public static void AddRepair(DBproject esql) {
-	   int rid = getRepairID(esql);
 	   String repair_date;
 	   String repair_code; // must be 'MJ', 'MN', or 'SV'
 	   int pilot_id;
@@ -786,22 +1713,15 @@ public class DBproject{
 		technician_id = findTechnician(esql);
 		
 		try {
-			esql.executeUpdate("INSERT INTO Repairs (rid, repair_date, repair_code, pilot_id, plane_id, technician_id) VALUES ("
-			                 + String.valueOf(rid) + ", \'"
-			                 + repair_date + "\', \'"
-			                 + repair_code + "\', "
-			                 + String.valueOf(pilot_id) + ", "
-			                 + String.valueOf(plane_id) + ", "
-			                 + String.valueOf(technician_id)
-			                 + ");");
+			Rows.Repairs repair = insertRepair(esql, Date.valueOf(repair_date), repair_code, pilot_id, plane_id, technician_id);
 			
 			System.out.println("\n\nYour entry has been added to the database.\n\n"
-		                     + "New Repair with ID " + String.valueOf(rid)
-		                     + "\nDate of Repair: " + repair_date
-		                     + "\nRepair Code: " + repair_code
-		                     + "\nPilot ID: " + String.valueOf(pilot_id)
-		                     + "\nPlane ID: " + String.valueOf(plane_id)
-		                     + "\nTechnician ID: " + String.valueOf(technician_id)
+		                     + "New Repair with ID " + String.valueOf(repair.rid)
+		                     + "\nDate of Repair: " + repair.repairDate
+		                     + "\nRepair Code: " + repair.repairCode
+		                     + "\nPilot ID: " + String.valueOf(repair.pilotId)
+		                     + "\nPlane ID: " + String.valueOf(repair.planeId)
+		                     + "\nTechnician ID: " + String.valueOf(repair.technicianId)
 		                     + "\n\n");
 		} catch (SQLException e) {
 			System.err.println (e.getMessage());
@@ -817,7 +1737,7 @@ public class DBproject{
 	 * @throws Exception when user input is not an integer
 	 */
 	public static void AddPlane(DBproject esql) {//1
-	   int id = getPlaneID(esql); // must be unique
+	   int id; // must be unique
 	   String make; // must be 32 chars or less
 	   String model; // must be 64 chars or less
 	   int age; // must be a year value
@@ -897,13 +1817,7 @@ public class DBproject{
 		}while (true);
 		
 		try {
-			esql.executeUpdate("INSERT INTO Plane (id, make, model, age, seats) VALUES ("
-							+ String.valueOf(id) +  ", \'"
-			                 + make + "\', \'"
-			                 + model + "\', "
-			                 + String.valueOf(age) + ", "
-			                 + String.valueOf(seats)
-			                 + ");");
+			id = insertPlane(esql, make, model, age, seats);
 			
 			System.out.println("\n\nYour entry has been added to the database.\n\n"
 		                     + "New Plane with ID " + String.valueOf(id)
@@ -926,7 +1840,7 @@ public class DBproject{
 	 * @throws Exception when user input is not an integer
 	 */
 	public static void AddPilot(DBproject esql) {//2
-	   int id = getPilotID(esql); // must be unique
+	   int id; // must be unique
 	   String fullname; // must be 128 chars or less
 	   String nationality; // must be 24 chars or less
 
@@ -963,11 +1877,7 @@ public class DBproject{
 		}while (true);
 		
 		try {
-			esql.executeUpdate("INSERT INTO Pilot(id, fullname, nationality) VALUES ("
-			               + String.valueOf(id) + ", \'"
-			               + fullname + "\', \'"
-			               + nationality
-			               + "\');");
+			id = insertPilot(esql, fullname, nationality);
                
          System.out.println("\n\nYour entry has been added to the database.\n\n"
                + "New Pilot with ID " + String.valueOf(id)
@@ -989,7 +1899,7 @@ public class DBproject{
 	 */
 	public static void AddFlight(DBproject esql) {//3
 		// Given a pilot, plane and flight, adds a flight in the DB
-		int fnum = getFlightID(esql);
+		int fnum;
 		int cost; // must be >= 0
 		int numsold; // must be > 0
 		int numstops; // must be > 0
@@ -999,8 +1909,8 @@ public class DBproject{
 	   String departureairport; // must be 5 chars or less
 	   int pilotid;
 	   int planeid;
-	   int fiid = getFlightInfoID(esql); //flight info id
-	   int id = getScheduleID(esql); //schedule id
+	   int fiid; //flight info id
+	   int id; //schedule id
 		
 		do {
 			System.out.print("Please enter the cost of the flight: ");
@@ -1098,35 +2008,16 @@ public class DBproject{
 		pilotid = findPilot(esql);
 	   planeid = findPlane(esql);
 		
-		//no statement to get fiid
 		try {
-		   //Insert values into tables
-			esql.executeUpdate("INSERT INTO Flight(fnum, cost, num_sold, num_stops,  actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES ("
-			                  + String.valueOf(fnum) + ", "
-			                  + String.valueOf(cost) + ", "
-			                  + String.valueOf(numsold) + ", "
-			                  + String.valueOf(numstops) + ", \'"
-			                  + departureDate + "\', \'"
-			                  + arrivalDate + "\', \'"
-			                  + arrivalairport + "\', \'"
-			                  + departureairport
-                           + "\');");
-                              
-         esql.executeUpdate("INSERT INTO FlightInfo(fiid, flight_id, pilot_id, plane_id) VALUES ("
-                           + String.valueOf(fiid) + ", "
-                           + String.valueOf(fnum) + ", "
-                           + String.valueOf(pilotid) + ", "
-                           + String.valueOf(planeid)
-                           + ");");
-                           
-         String tmpQuery = "INSERT INTO Schedule(id, flightNum, departure_time, arrival_time) VALUES ("
-                           + String.valueOf(id) + ", "
-                           + String.valueOf(fnum) + ", \'"
-                           + departureDate + "\', \'"
-			               + arrivalDate
-                           + "\');";
-         esql.executeUpdate(tmpQuery);
-         
+		   //Flight, FlightInfo and Schedule rows go in together or not at all
+		   FlightBatch.NewFlight flight = new FlightBatch.NewFlight(cost, numsold, numstops,
+		                                  Date.valueOf(departureDate), Date.valueOf(arrivalDate),
+		                                  arrivalairport, departureairport, pilotid, planeid);
+		   FlightBatch.insert(esql, flight);
+		   fnum = flight.fnum;
+		   fiid = flight.fiid;
+		   id = flight.scheduleId;
+		   
          //Print information for user
          System.out.println("The following entries been added to the database.\n\n"
 		                     + "New Flight with ID " + String.valueOf(fnum)
@@ -1162,7 +2053,7 @@ public class DBproject{
 	 * @throws Exception when user input is not an integer
 	 */
 	public static void AddTechnician(DBproject esql) {//4
-	   int id = getTechnicianID(esql); // must be unique
+	   int id; // must be unique
 	   String fullname; // must be 128 chars or less
 	   String nationality; // must be 24 chars or less
 		
@@ -1187,7 +2078,7 @@ public class DBproject{
 		}while (true);
 		
 		try {
-			esql.executeUpdate("INSERT INTO Technician(id, full_name) VALUES (" + String.valueOf(id) + ", \'" + fullname + "\');");
+			id = insertTechnician(esql, fullname);
                
          System.out.println("\n\nYour entry has been added to the database.\n\n"
             + "New Technician with ID " + String.valueOf(id)
@@ -1200,6 +2091,7 @@ public class DBproject{
 	
    /**
 	 * Method to ask the user for details of a customer and flight and add it to the database. This inserts an entry into Reservation and updates the entry in Flight.
+	 * The seat check, the update and the insert run atomically through the BookingEngine, which waitlists the reservation if the flight filled up in the meantime.
 	 * 
 	 * @param DBproject
 	 * @return void
@@ -1208,17 +2100,16 @@ public class DBproject{
 	 */
 	public static void BookFlight(DBproject esql) {//5
 		// Given a customer and a flight that he/she wants to book, add a reservation to the DB
-		int rnum = getReservationID(esql); // reservation number
 		int cid; // customer id
 		int fid; // flight id
-		String status; // 'W', 'C', or 'R'
+		boolean confirmed = false;
 		
 		do {
 			System.out.print("Please enter the customer ID: ");
 			try { // read the integer, parse it and break.
 				cid = Integer.parseInt(in.readLine());
 	
-				if(esql.executeQueryAndPrintResult("SELECT id FROM Customer WHERE id = " + String.valueOf(cid) + ";") < 1){
+				if(!esql.getExistenceChecker().exists(ExistenceChecker.Table.CUSTOMER, cid)){
 				   System.out.println("Please re-enter. There is no customer with ID " + String.valueOf(cid) + ".");
 				}
 				else{
@@ -1236,7 +2127,6 @@ public class DBproject{
 		
 		if(flightisfull){
 		   System.out.println("Flight " + String.valueOf(fid) + " is full. The reservation will be placed on the waitlist.");
-		   status = "W";
 		}
 		else{
 		   do {
@@ -1246,11 +2136,11 @@ public class DBproject{
    			try {
       			input = in.readLine();
       			if(input.equals("y")){
-      			   status = "C";
+      			   confirmed = true;
       			   break;
       			}
       			else if(input.equals("n")){
-      			   status = "R";
+      			   confirmed = false;
       			   break;
       			}
       			else{
@@ -1261,28 +2151,22 @@ public class DBproject{
    				continue;
    			}
    		}while (true);
-   		
-   		try {
-   			esql.executeUpdate("UPDATE Flight SET num_sold = num_sold + 1 WHERE fnum = " + String.valueOf(fid) + ";");
-   			System.out.println("The ticket has been sold to customer " + String.valueOf(cid));
-         } catch (SQLException e) {
-   			System.err.println (e.getMessage());
-         }
 		}
 		
 		try {
-			esql.executeUpdate("INSERT INTO Reservation(rnum, cid, fid, status) VALUES ("
-			      + String.valueOf(rnum) + ", "
-			      + String.valueOf(cid)+ ", "
-			      + String.valueOf(fid) + ", \'"
-			      + status
-			      + "\');");
+			BookingEngine.Result booking = esql.getBookingEngine().book(cid, fid, confirmed);
+			if(!booking.isWaitlisted()){
+   			System.out.println("The ticket has been sold to customer " + String.valueOf(cid));
+			}
+			else if(!flightisfull){
+			   System.out.println("Flight " + String.valueOf(fid) + " filled up in the meantime. The reservation has been placed on the waitlist.");
+			}
             
 			System.out.println("\n\nYour entry has been added to the database.\n\n"
-               + "New Reservation with ID " + String.valueOf(rnum)
+               + "New Reservation with ID " + String.valueOf(booking.rnum)
                + "\nCustomer ID: " + cid
                + "\nFlight ID: " + fid
-               + "\nReservation Status: " + status
+               + "\nReservation Status: " + booking.status
                + "\n\n");
       } catch (SQLException e) {
 			System.err.println (e.getMessage());
@@ -1302,7 +2186,6 @@ public class DBproject{
 		
 		int fid = fnum;
 		int available = -1;
-		List<List<String>> result;
 		
 		if(fnum == -1){
 			fid = findFlight(esql);
@@ -1312,29 +2195,15 @@ public class DBproject{
 			System.out.println("Please enture the departure date of the flight.");
 			String date = getDate();
 			
-			String query = "SELECT (CAST(seats AS int4) - CAST(num_sold AS int4)) FROM Plane P, FlightInfo FI, Schedule S, Flight F WHERE"
-				+ " FI.plane_id = P.id"
-				+ " AND FI.flight_id = " + String.valueOf(fid)
-				+ " AND S.departure_time = \'" + date + "\'"
-				+ " AND S.flightNum = " + String.valueOf(fid)
-				+ " AND F.fnum = " + String.valueOf(fid)
-				+ ";";
-						
 			try {
-				if(esql.executeQuery(query) < 1){
+				Integer seats = getAvailableSeats(esql, fid, Date.valueOf(date));
+				if(seats == null){
 					System.out.println("This flight is not scheduled on that date. Please re-enter.");
 					continue;
 				}
-			   result = esql.executeQueryAndReturnResult(query);
-	
-				try {
-				   available = Integer.parseInt(result.get(0).get(0));
-				   System.out.println("\nThe number of available seats for flight " + String.valueOf(fid) + " on " + date + " is " + String.valueOf(available) + ".\n\n");
-				   break;
-				}catch (Exception e) {
-					System.out.println("Internal error in ListNumberOfAvailableSeats().");
-				}
-				
+				available = seats.intValue();
+				System.out.println("\nThe number of available seats for flight " + String.valueOf(fid) + " on " + date + " is " + String.valueOf(available) + ".\n\n");
+				break;
 			  } catch (SQLException e) {
 					System.err.println (e.getMessage());
 			  }
@@ -1343,6 +2212,60 @@ public class DBproject{
 		
 		return available;
 	}
+	
+	/**
+	 * Method to return the number of available seats of a flight on a departure date.  Answers from the
+	 * seat cache when it can, otherwise runs the seat query once and caches the result.
+	 * 
+	 * @param DBproject
+	 * @param fid the flight number
+	 * @param departure the departure date
+	 * @return seats available, or null when the flight is not scheduled on that date
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static Integer getAvailableSeats(final DBproject esql, final int fid, final Date departure) throws SQLException {
+		Metrics.Series m = esql.getMetrics().operation("ListNumberOfAvailableSeats");
+		long start = System.nanoTime();
+		Integer seats = esql.getSeatCache().get(fid, departure);
+		if(seats != null){
+			m.record(System.nanoTime() - start, 1, 0);
+			return seats;
+		}
+		
+		//a booking that changes the flight while the count is read drops the fill
+		final long stamp = esql.getSeatCache().stamp(fid);
+		try{
+			seats = esql.readOnly(new TransactionWork<Integer>(){
+				public Integer run() throws SQLException {
+					Integer seats = null;
+					if(esql.getReferenceCache().isActive()){
+						//the plane's capacity from memory, only num_sold from the database
+						int[] sold = esql.queryForObject(SOLD_SQL, PLANE_SOLD, fid, departure, fid, fid);
+						if(sold == null){
+							return null;
+						}
+						Rows.Plane plane = esql.getReferenceCache().plane(sold[0]);
+						if(plane != null){
+							seats = plane.seats - sold[1];
+						}
+					}
+					if(seats == null){
+						seats = esql.queryForObject(SEATS_SQL, Rows.INT, fid, departure, fid, fid);
+					}
+					//a replica may lag, and the cache would keep its answer
+					if(seats != null && !esql.isOnReplica()){
+						esql.getSeatCache().put(fid, departure, seats.intValue(), stamp);
+					}
+					return seats;
+				}
+			});
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}
+		m.record(System.nanoTime() - start, seats == null ? 0 : 1, 0);
+		return seats;
+	}
 
 
    /**
@@ -1354,13 +2277,7 @@ public class DBproject{
 	 */
 	public static void ListsTotalNumberOfRepairsPerPlane(DBproject esql) {//7
       try {
-		   esql.executeQueryAndPrintResult(
-   		   "SELECT P.id, COUNT(R.rid)"
-   		   + " FROM Plane P, Repairs R"
-   		   + " WHERE P.id = R.plane_id"
-   		   + " GROUP BY P.id"
-   		   + " ORDER BY COUNT(R.rid) DESC"
-   		   + ";");
+		   repairsPerPlane(esql).print(System.out, esql.getOutputFormat());
       } catch (SQLException e) {
 			System.err.println (e.getMessage());
       }
@@ -1379,12 +2296,7 @@ public class DBproject{
 		System.out.println("\n");
 		
 		  try {
-			   esql.executeQueryAndPrintResult(
-			   "SELECT EXTRACT(YEAR FROM repair_date) AS Year, COUNT(rid)"
-			   + " FROM Repairs"
-			   + " GROUP BY Year"
-			   + " ORDER BY COUNT(rid)"
-			   + ";");
+			   repairsPerYear(esql).print(System.out, esql.getOutputFormat());
 		  } catch (SQLException e) {
 				System.err.println (e.getMessage());
 		  }
@@ -1420,18 +2332,379 @@ public class DBproject{
 		}while (true);
 		
 		try {
-		   esql.executeQueryAndPrintResult(
-   		   "SELECT COUNT(rnum)"
-   		   + " FROM Reservation R"
-   		   + " WHERE R.fid = "
-   		   + String.valueOf(fid)
-   		   + " AND R.status = \'"
-   		   + passengerStatus
-   		   + "\';");
+		   long count = countPassengersWithStatus(esql, fid, passengerStatus);
+		   System.out.println("\nThe number of passengers on flight " + String.valueOf(fid) + " with status " + passengerStatus + " is " + String.valueOf(count) + ".");
 		  } catch (SQLException e) {
 				System.err.println (e.getMessage());
 		  }
 		  
 		System.out.println("\n");
 	}
+	
+	/**
+	 * Method to cancel a reservation and give its seat to the oldest waitlisted reservation of the flight.
+	 * 
+	 * @param DBproject
+	 * @return void
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static void CancelReservation(DBproject esql) {//11
+		int rnum;
+		
+		do {
+			System.out.print("Please enter the reservation number: ");
+			try { // read the integer, parse it and break.
+				rnum = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Please re-enter. The reservation number is an integer.");
+				continue;
+			}//end try
+		}while (true);
+		
+		try {
+			int promoted = esql.getWaitlistPromoter().cancel(rnum);
+			System.out.println("\nReservation " + String.valueOf(rnum) + " has been cancelled.");
+			if(promoted > 0){
+				System.out.println(String.valueOf(promoted) + " waitlisted reservation(s) moved up to status R.");
+			}
+		} catch (SQLException e) {
+			System.err.println (e.getMessage());
+		}
+		
+		System.out.println("\n");
+	}
+	
+	/**
+	 * Method to move waitlisted reservations up to status R on every flight with free seats.
+	 * 
+	 * @param DBproject
+	 * @return void
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static void PromoteWaitlist(DBproject esql) {//12
+		try {
+			long start = System.nanoTime();
+			int promoted = esql.getWaitlistPromoter().sweep();
+			System.out.println("\n" + String.valueOf(promoted) + " waitlisted reservation(s) moved up to status R in "
+				+ String.valueOf((System.nanoTime() - start) / 1000000L) + " ms.");
+		} catch (SQLException e) {
+			System.err.println (e.getMessage());
+		}
+		
+		System.out.println("\n");
+	}
+
+	/**
+	 * Method to find direct flights and connecting trips between two airports in a range of departure dates.
+	 * 
+	 * @param DBproject
+	 * @return void
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static void SearchFlights(DBproject esql) {//13
+		String from = getAirport("departure");
+		String to = getAirport("arrival");
+		System.out.println("Please enter the earliest departure date.");
+		Date first = Date.valueOf(getDate());
+		System.out.println("Please enter the latest departure date.");
+		Date last = Date.valueOf(getDate());
+		int maxLegs;
+		
+		do {
+			System.out.print("Please enter the most flights per trip (1 for direct flights only): ");
+			try { // read the integer, parse it and break.
+				maxLegs = Integer.parseInt(in.readLine());
+				if(maxLegs < 1 || maxLegs > 4){
+				   System.out.println("Please re-enter. A trip has 1 to 4 flights.");
+				}
+				else{
+				   break;
+				}
+			}catch (Exception e) {
+				System.out.println("Please re-enter. The number of flights is an integer.");
+				continue;
+			}//end try
+		}while (true);
+		
+		try {
+			List<RouteIndex.Itinerary> trips = esql.getRouteIndex().search(from, to, first, last, maxLegs,
+				Integer.getInteger("dbproject.routes.minConnectionDays", 0),
+				Integer.getInteger("dbproject.routes.maxConnectionDays", 1),
+				Integer.getInteger("dbproject.routes.maxResults", 20));
+			if(trips.isEmpty()){
+				System.out.println("\nThere are no flights from " + from + " to " + to + " in these dates.");
+			}
+			for(RouteIndex.Itinerary trip : trips){
+				System.out.println("\n" + String.valueOf(trip.legs.size()) + " flight(s), arriving " + trip.last().getArrival()
+				                   + ", cost " + String.valueOf(trip.cost));
+				for(RouteIndex.Leg leg : trip.legs){
+					System.out.println("   Flight " + String.valueOf(leg.fnum) + ": " + leg.from + " " + leg.getDeparture()
+					                   + " -> " + leg.to + " " + leg.getArrival());
+				}
+			}
+		} catch (SQLException e) {
+			System.err.println (e.getMessage());
+		} catch (IllegalArgumentException e) {
+			// a bad dbproject.routes.* setting
+			System.err.println (e.getMessage());
+		}
+		
+		System.out.println("\n");
+	}
+	
+	/**
+	 * Method to ask the user for an airport code.
+	 * 
+	 * @param which "departure" or "arrival"
+	 * @return the airport code
+	 */
+	private static String getAirport(String which) {
+		String airport;
+		
+		do{
+			System.out.print("Please enter the code of the " + which + " airport: ");
+			try {
+   			airport = in.readLine().trim();
+   			if(airport.length() > 5){
+   			   System.out.println("Please re-enter. The " + which + " airport code must be 5 characters or less.");
+   			}
+   			else if(airport.length() == 0){
+   			   System.out.println("Please re-enter. The " + which + " airport code cannot be null.");
+   			}
+   			else{
+   			   break;
+   			}
+			} catch (Exception e) {
+				System.out.println("Please re-enter. There was an error in reading the line.");
+				continue;
+			}
+		}while (true);
+		return airport;
+	}
+
+	/*
+	 * Non-interactive versions of the menu operations.  The menu methods above
+	 * read and check their input and then call these; BatchRunner and
+	 * HttpService call them directly.  Each records its latency under the
+	 * name of its menu operation.
+	 */
+
+	static final String SEATS_SQL =
+		"SELECT (CAST(seats AS int4) - CAST(num_sold AS int4)) FROM Plane P, FlightInfo FI, Schedule S, Flight F WHERE"
+		+ " FI.plane_id = P.id"
+		+ " AND FI.flight_id = ?"
+		+ " AND S.departure_time = ?"
+		+ " AND S.flightNum = ?"
+		+ " AND F.fnum = ?";
+
+	/** SEATS_SQL without Plane, for when the ReferenceCache knows the plane's seats. */
+	static final String SOLD_SQL =
+		"SELECT FI.plane_id, CAST(num_sold AS int4) FROM FlightInfo FI, Schedule S, Flight F WHERE"
+		+ " FI.flight_id = ?"
+		+ " AND S.departure_time = ?"
+		+ " AND S.flightNum = ?"
+		+ " AND F.fnum = ?";
+
+	/** Maps a SOLD_SQL row to {plane id, seats sold}. */
+	static final RowMapper<int[]> PLANE_SOLD = new RowMapper<int[]>(){
+		public int[] map(ResultSet rs) throws SQLException {
+			return new int[]{rs.getInt(1), rs.getInt(2)};
+		}
+	};
+
+	static final String PASSENGERS_WITH_STATUS_SQL =
+		"SELECT COUNT(rnum)"
+		+ " FROM Reservation R"
+		+ " WHERE R.fid = ?"
+		+ " AND R.status = ?";
+
+	/**
+	 * Method to insert a plane.
+	 * 
+	 * @param DBproject
+	 * @return the new plane's id
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static int insertPlane(final DBproject esql, String make, String model, int age, int seats) throws SQLException {
+		Metrics.Series m = esql.getMetrics().operation("AddPlane");
+		long start = System.nanoTime();
+		try{
+			int id = getPlaneID(esql);
+			esql.executeUpdate("INSERT INTO Plane (id, make, model, age, seats) VALUES (?, ?, ?, ?, ?)",
+			                 id, make, model, age, seats);
+			final Rows.Plane plane = new Rows.Plane(id, make, model, age, seats);
+			// known in memory only once the insert commits
+			esql.afterCommit(new Runnable(){
+				public void run(){
+					esql.getExistenceChecker().added(ExistenceChecker.Table.PLANE, plane.id);
+					esql.getReferenceCache().added(plane);
+				}
+			});
+			m.record(System.nanoTime() - start, 1, 0);
+			return id;
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to insert a pilot.
+	 * 
+	 * @param DBproject
+	 * @return the new pilot's id
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static int insertPilot(final DBproject esql, String fullname, String nationality) throws SQLException {
+		Metrics.Series m = esql.getMetrics().operation("AddPilot");
+		long start = System.nanoTime();
+		try{
+			int id = getPilotID(esql);
+			esql.executeUpdate("INSERT INTO Pilot(id, fullname, nationality) VALUES (?, ?, ?)",
+			               id, fullname, nationality);
+			final Rows.Pilot pilot = new Rows.Pilot(id, fullname, nationality);
+			// known in memory only once the insert commits
+			esql.afterCommit(new Runnable(){
+				public void run(){
+					esql.getExistenceChecker().added(ExistenceChecker.Table.PILOT, pilot.id);
+					esql.getReferenceCache().added(pilot);
+				}
+			});
+			m.record(System.nanoTime() - start, 1, 0);
+			return id;
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to insert a technician.
+	 * 
+	 * @param DBproject
+	 * @return the new technician's id
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static int insertTechnician(final DBproject esql, String fullname) throws SQLException {
+		Metrics.Series m = esql.getMetrics().operation("AddTechnician");
+		long start = System.nanoTime();
+		try{
+			int id = getTechnicianID(esql);
+			esql.executeUpdate("INSERT INTO Technician(id, full_name) VALUES (?, ?)", id, fullname);
+			final Rows.Technician technician = new Rows.Technician(id, fullname);
+			// known in memory only once the insert commits
+			esql.afterCommit(new Runnable(){
+				public void run(){
+					esql.getExistenceChecker().added(ExistenceChecker.Table.TECHNICIAN, technician.id);
+					esql.getReferenceCache().added(technician);
+				}
+			});
+			m.record(System.nanoTime() - start, 1, 0);
+			return id;
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to insert a repair.  The triggers of migration V006 count it in repair_stats.
+	 * 
+	 * @param DBproject
+	 * @return the new repair, as stored
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static Rows.Repairs insertRepair(DBproject esql, Date repairDate, String repairCode, int pilotId, int planeId, int technicianId) throws SQLException {
+		Metrics.Series m = esql.getMetrics().operation("AddRepair");
+		long start = System.nanoTime();
+		try{
+			int rid = getRepairID(esql);
+			Rows.Repairs repair = esql.executeUpdateReturning(
+				"INSERT INTO Repairs (rid, repair_date, repair_code, pilot_id, plane_id, technician_id) VALUES (?, ?, ?, ?, ?, ?)"
+				+ " RETURNING " + Rows.Repairs.COLUMNS, Rows.Repairs.MAPPER,
+				rid, repairDate, repairCode, pilotId, planeId, technicianId);
+			m.record(System.nanoTime() - start, 1, 0);
+			return repair;
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to count the repairs of every plane that had any, most repaired first.
+	 * Reads one row per group from repair_stats.
+	 * 
+	 * @param DBproject
+	 * @return plane id and repair count per plane
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static ColumnarResult repairsPerPlane(DBproject esql) throws SQLException {
+		return report(esql, "ListsTotalNumberOfRepairsPerPlane", RepairStats.PER_PLANE_SQL);
+	}
+
+	/**
+	 * Method to count the repairs of every year, fewest first.
+	 * Reads one row per group from repair_stats.
+	 * 
+	 * @param DBproject
+	 * @return year and repair count per year
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static ColumnarResult repairsPerYear(DBproject esql) throws SQLException {
+		return report(esql, "ListTotalNumberOfRepairsPerYear", RepairStats.PER_YEAR_SQL);
+	}
+
+	/**
+	 * Method to count the repairs of every plane per year.
+	 * 
+	 * @param DBproject
+	 * @return plane id, year and repair count, by plane and year
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static ColumnarResult repairsPerPlaneAndYear(DBproject esql) throws SQLException {
+		return report(esql, "RepairsPerPlaneAndYear", RepairStats.PER_PLANE_AND_YEAR_SQL);
+	}
+
+	private static ColumnarResult report(final DBproject esql, String operation, final String query) throws SQLException {
+		Metrics.Series m = esql.getMetrics().operation(operation);
+		long start = System.nanoTime();
+		try{
+			ColumnarResult result = esql.readOnly(new TransactionWork<ColumnarResult>(){
+				public ColumnarResult run() throws SQLException {
+					return esql.queryColumns(query);
+				}
+			});
+			m.record(System.nanoTime() - start, result.size(), result.getByteSize());
+			return result;
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to count the reservations of a flight with a status (W, C or R).
+	 * 
+	 * @param DBproject
+	 * @return the number of reservations
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static long countPassengersWithStatus(final DBproject esql, final int fid, final String status) throws SQLException {
+		Metrics.Series m = esql.getMetrics().operation("FindPassengersCountWithStatus");
+		long start = System.nanoTime();
+		try{
+			Long count = esql.readOnly(new TransactionWork<Long>(){
+				public Long run() throws SQLException {
+					return esql.queryForObject(PASSENGERS_WITH_STATUS_SQL, Rows.LONG, fid, status);
+				}
+			});
+			m.record(System.nanoTime() - start, 1, 0);
+			return count == null ? 0L : count.longValue();
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}
+	}
 }
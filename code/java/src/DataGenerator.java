@@ -0,0 +1,465 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic airline data set in the CSV layout of
+ * code/data (and of the COPY statements in create.sql), scaled by a factor:
+ * scale 1 has as many rows as code/data, scale 1000 a thousand times as many.
+ * The output can be loaded with the "load" mode.
+ *
+ * Every row is computed from the seed, its table and its key alone, so the
+ * output is the same for a given seed and scale no matter how many threads
+ * produce it, and rows that depend on each other (a flight's num_sold and
+ * its plane's seats, a schedule and its flight's dates) agree without either
+ * table being kept in memory.  Each table is cut into chunks of rows that
+ * are generated in parallel and written out in order, so memory use does
+ * not grow with the scale.
+ *
+ * Skew: departure and arrival airports, the flights reservations are made
+ * on and the planes that get repaired are drawn from a power law, so a few
+ * routes, flights and planes are much hotter than the rest.
+ *
+ * Usage: java -cp bin/ DataGenerator <out dir> [scale] [seed]
+ *
+ */
+
+public class DataGenerator{
+	//rows per table at scale 1, matching code/data
+	static final long CUSTOMERS = 250;
+	static final long PILOTS = 250;
+	static final long PLANES = 67;
+	static final long TECHNICIANS = 250;
+	static final long FLIGHTS = 2000;
+	static final long RESERVATIONS = 10000;
+	static final long REPAIRS = 550;
+
+	//rows generated by one task
+	private static final int CHUNK_ROWS = 16384;
+
+	//per-table salts, so tables draw independent random streams
+	private static final long CUSTOMER = 1, PILOT = 2, PLANE = 3, TECHNICIAN = 4, FLIGHT = 5,
+	                          REPAIR = 6, RESERVATION = 7, FLIGHTINFO = 8, SCHEDULE = 9;
+
+	private static final String[] FIRST_NAMES = {"Armand", "Alberto", "Wyatt", "Mimi", "Grace", "Omar", "Lena", "Kenji",
+		"Priya", "Mateo", "Chloe", "Tomas", "Aisha", "Noah", "Ingrid", "Ravi", "Sofia", "Dmitri", "Hana", "Lucas"};
+	private static final String[] LAST_NAMES = {"Enderle", "Scarlett", "Ruoff", "Stelle", "Okafor", "Nguyen", "Silva",
+		"Kowalski", "Haddad", "Tanaka", "Moreau", "Fischer", "Patel", "Garcia", "Olsen", "Rossi", "Kim", "Novak"};
+	private static final String[] COUNTRIES = {"Australia", "Morocco", "India", "Croatia", "Brazil", "Canada", "Japan",
+		"Kenya", "Mexico", "Norway", "Peru", "Spain", "Turkey", "United States", "Vietnam"};
+	private static final String[][] PLANE_MODELS = {{"Airbus", "AirbusA300"}, {"Airbus", "AirbusA320"}, {"Airbus", "AirbusA350"},
+		{"Boeing", "Boeing737-800"}, {"Boeing", "Boeing767"}, {"Boeing", "Boeing787"}, {"Bombadier", "CRJ900"},
+		{"Embraer", "EmbraerE175"}, {"Yak", "YakovlevYak-40"}};
+	private static final String[] STREETS = {"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Lyme St.", "Oak Lane",
+		"Mill Road", "Sunset Blvd.", "Lake Street"};
+	private static final String[][] CITIES = {{"Melbourne", "FL"}, {"Baton Rouge", "LA"}, {"Cockeysville", "MD"},
+		{"Duarte", "CA"}, {"Riverside", "CA"}, {"Austin", "TX"}, {"Dayton", "OH"}, {"Tacoma", "WA"}};
+	private static final String[] REPAIR_CODES = {"SV", "SV", "SV", "MN", "MN", "MJ"};
+	private static final String[] STATUSES = {"W", "C", "R"};
+
+	//first departure: 2014-04-15 00:00 UTC, in minutes since the epoch
+	private static final long FIRST_DEPARTURE_MINUTE = 16175L * 1440L;
+
+	private final long _seed;
+	private final long _customers, _pilots, _planes, _technicians, _flights, _reservations, _repairs;
+	private final int _airports;
+	private final int _days;
+	private final double _skew;
+
+	/**
+	 * @param scale the scale factor, 1 for the size of code/data
+	 * @param seed the seed; equal seeds give equal output
+	 * @param skew power-law exponent for hot items, 1 for uniform
+	 */
+	public DataGenerator(double scale, long seed, double skew){
+		if(scale <= 0){
+			throw new IllegalArgumentException("Scale must be positive: " + scale);
+		}
+		this._seed = seed;
+		this._skew = skew;
+		this._customers = scaled(CUSTOMERS, scale);
+		this._pilots = scaled(PILOTS, scale);
+		this._planes = scaled(PLANES, scale);
+		this._technicians = scaled(TECHNICIANS, scale);
+		this._flights = scaled(FLIGHTS, scale);
+		this._reservations = scaled(RESERVATIONS, scale);
+		this._repairs = scaled(REPAIRS, scale);
+		//more airports and days as the schedule grows, but slower than the flights
+		this._airports = (int) Math.max(50, Math.round(200 * Math.sqrt(scale)));
+		this._days = (int) Math.max(30, Math.round(60 * Math.sqrt(scale)));
+	}
+
+	private static long scaled(long rows, double scale){
+		return Math.max(1L, Math.round(rows * scale));
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1){
+			System.err.println("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName() + " <out dir> [scale] [seed]");
+			return;
+		}
+		File dir = new File(args[0]);
+		double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1L;
+		double skew = Double.parseDouble(System.getProperty("dbproject.gen.skew", "2.5"));
+		int threads = Integer.getInteger("dbproject.gen.threads", Runtime.getRuntime().availableProcessors());
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Cannot create " + dir.getPath());
+		}
+		new DataGenerator(scale, seed, skew).generate(dir, threads);
+	}
+
+	/**
+	 * Method to write every table into a directory.  Prints rows and rows per
+	 * second for each file.
+	 *
+	 * @param dir the output directory
+	 * @param threads number of generating threads
+	 * @throws java.io.IOException when a file could not be written
+	 */
+	public void generate(File dir, int threads) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long begin = System.nanoTime();
+		long total = 0;
+		try{
+			total += write(pool, threads, new File(dir, "customer.csv"), CUSTOMER, this._customers);
+			total += write(pool, threads, new File(dir, "pilots.csv"), PILOT, this._pilots);
+			total += write(pool, threads, new File(dir, "planes.csv"), PLANE, this._planes);
+			total += write(pool, threads, new File(dir, "technician.csv"), TECHNICIAN, this._technicians);
+			total += write(pool, threads, new File(dir, "flights.csv"), FLIGHT, this._flights);
+			total += write(pool, threads, new File(dir, "flightinfo.csv"), FLIGHTINFO, this._flights);
+			total += write(pool, threads, new File(dir, "schedule.csv"), SCHEDULE, this._flights);
+			total += write(pool, threads, new File(dir, "reservation.csv"), RESERVATION, this._reservations);
+			total += write(pool, threads, new File(dir, "repairs.csv"), REPAIR, this._repairs);
+		}finally{
+			pool.shutdownNow();
+		}
+		long elapsed = Math.max(1L, System.nanoTime() - begin);
+		System.out.println(String.format("Wrote %d rows in %d ms (%.0f rows/s)", total, elapsed / 1000000L, total * 1e9 / elapsed));
+	}
+
+	/**
+	 * Method to write one table.  Chunks are generated by the pool and
+	 * written in key order; at most 2 * threads chunks are in memory.
+	 */
+	private long write(ExecutorService pool, int threads, File file, final long table, final long rows) throws IOException {
+		long start = System.nanoTime();
+		Deque<Future<byte[]>> window = new ArrayDeque<Future<byte[]>>();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try{
+			for(long from = 0; from < rows; from += CHUNK_ROWS){
+				final long lo = from;
+				final long hi = Math.min(rows, from + CHUNK_ROWS);
+				if(window.size() >= 2 * threads){
+					out.write(await(window.removeFirst()));
+				}
+				window.addLast(pool.submit(new Callable<byte[]>(){
+					public byte[] call(){
+						return chunk(table, lo, hi);
+					}
+				}));
+			}
+			while(!window.isEmpty()){
+				out.write(await(window.removeFirst()));
+			}
+		}finally{
+			for(Future<byte[]> f : window){
+				f.cancel(true);
+			}
+			out.close();
+		}
+		long elapsed = Math.max(1L, System.nanoTime() - start);
+		System.out.println(String.format("%-16s %12d rows %8d ms %12.0f rows/s", file.getName(), rows, elapsed / 1000000L, rows * 1e9 / elapsed));
+		return rows;
+	}
+
+	private static byte[] await(Future<byte[]> chunk) throws IOException {
+		try{
+			return chunk.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while generating");
+		}catch (ExecutionException e){
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Method to generate rows [lo, hi) of a table as CSV.
+	 */
+	byte[] chunk(long table, long lo, long hi){
+		StringBuilder sb = new StringBuilder((int) (hi - lo) * 48);
+		Rng r = new Rng();
+		for(long id = lo; id < hi; id++){
+			r.seed(this._seed, table, id);
+			if(table == CUSTOMER) customer(id, r, sb);
+			else if(table == PILOT) pilot(id, r, sb);
+			else if(table == PLANE) plane(id, r, sb);
+			else if(table == TECHNICIAN) technician(id, r, sb);
+			else if(table == FLIGHT) flight(id, r, sb);
+			else if(table == FLIGHTINFO) flightInfo(id, r, sb);
+			else if(table == SCHEDULE) schedule(id, sb);
+			else if(table == RESERVATION) reservation(id, r, sb);
+			else if(table == REPAIR) repair(id, r, sb);
+			sb.append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	//id, fname, lname, gtype, dob, address, phone, zipcode
+	private void customer(long id, Rng r, StringBuilder sb){
+		String[] city = CITIES[r.nextInt(CITIES.length)];
+		sb.append(id).append(',')
+		  .append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)]).append(',')
+		  .append(LAST_NAMES[r.nextInt(LAST_NAMES.length)]).append(',')
+		  .append(r.nextInt(2) == 0 ? 'M' : 'F').append(',')
+		  .append(1 + r.nextInt(12)).append('/').append(1 + r.nextInt(28)).append('/').append(1940 + r.nextInt(60)).append(',')
+		  .append(1 + r.nextInt(9999)).append(' ').append(STREETS[r.nextInt(STREETS.length)]).append(' ').append(city[0]).append(',');
+		for(int i = 0; i < 10; i++){
+			sb.append((char) ('0' + r.nextInt(10)));
+		}
+		sb.append(", ").append(city[1]).append(' ');
+		pad(sb, 10000 + r.nextInt(90000), 5);
+	}
+
+	//id, fullname, nationality
+	private void pilot(long id, Rng r, StringBuilder sb){
+		sb.append(id).append(',');
+		fullName(r, sb);
+		sb.append(',').append(COUNTRIES[r.nextInt(COUNTRIES.length)]);
+	}
+
+	//id, make, model, age, seats
+	private void plane(long id, Rng r, StringBuilder sb){
+		int seats = planeSeats(id);
+		String[] model = PLANE_MODELS[r.nextInt(PLANE_MODELS.length)];
+		sb.append(id).append(',').append(model[0]).append(',').append(model[1]).append(',')
+		  .append(1 + r.nextInt(30)).append(',').append(seats);
+	}
+
+	//id, full_name
+	private void technician(long id, Rng r, StringBuilder sb){
+		sb.append(id).append(',');
+		fullName(r, sb);
+	}
+
+	//fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport
+	private void flight(long fnum, Rng r, StringBuilder sb){
+		long departure = departureMinute(fnum);
+		long arrival = arrivalMinute(fnum);
+		int[] route = route(fnum);
+		//never more sold than the plane the flight is assigned to can seat
+		int seats = planeSeats(flightPlane(fnum));
+		sb.append(fnum).append(',')
+		  .append(100 + r.nextInt(900)).append(',')
+		  .append(r.nextInt(seats + 1)).append(',')
+		  .append(r.nextInt(4)).append(',');
+		timestamp(sb, departure);
+		sb.append(',');
+		timestamp(sb, arrival);
+		sb.append(',');
+		airport(sb, route[1]);
+		sb.append(',');
+		airport(sb, route[0]);
+	}
+
+	//fiid, flight_id, pilot_id, plane_id; one per flight, fiid = flight_id
+	private void flightInfo(long fnum, Rng r, StringBuilder sb){
+		long plane = flightPlane(fnum);
+		sb.append(fnum).append(',').append(fnum).append(',').append(r.nextLong(this._pilots)).append(',').append(plane);
+	}
+
+	//id, flightNum, departure_time, arrival_time; one per flight, id = flightNum
+	private void schedule(long fnum, StringBuilder sb){
+		sb.append(fnum).append(',').append(fnum).append(',');
+		timestamp(sb, departureMinute(fnum));
+		sb.append(',');
+		timestamp(sb, arrivalMinute(fnum));
+	}
+
+	//rnum, cid, fid, status
+	private void reservation(long rnum, Rng r, StringBuilder sb){
+		sb.append(rnum).append(',')
+		  .append(r.nextLong(this._customers)).append(',')
+		  .append(skewed(r, this._flights)).append(',')
+		  .append(STATUSES[r.nextInt(STATUSES.length)]);
+	}
+
+	//rid, repair_date, repair_code, pilot_id, plane_id, technician_id
+	private void repair(long rid, Rng r, StringBuilder sb){
+		sb.append(rid).append(',');
+		date(sb, 14610 + r.nextInt(6 * 365)); //2010-01-01 onwards
+		sb.append(',').append(REPAIR_CODES[r.nextInt(REPAIR_CODES.length)]).append(',')
+		  .append(r.nextLong(this._pilots)).append(',')
+		  .append(skewed(r, this._planes)).append(',')
+		  .append(r.nextLong(this._technicians));
+	}
+
+	/*
+	 * Values shared between tables.  Each is a pure function of the seed and
+	 * a key, drawn from a stream of its own.
+	 */
+
+	private int planeSeats(long plane){
+		Rng r = new Rng();
+		r.seed(this._seed, PLANE + 100, plane);
+		return 50 + r.nextInt(449);
+	}
+
+	private long flightPlane(long fnum){
+		Rng r = new Rng();
+		r.seed(this._seed, FLIGHTINFO + 100, fnum);
+		return r.nextLong(this._planes);
+	}
+
+	private long departureMinute(long fnum){
+		Rng r = new Rng();
+		r.seed(this._seed, FLIGHT + 100, fnum);
+		return FIRST_DEPARTURE_MINUTE + r.nextLong((long) this._days * 1440L);
+	}
+
+	private long arrivalMinute(long fnum){
+		Rng r = new Rng();
+		r.seed(this._seed, FLIGHT + 200, fnum);
+		return departureMinute(fnum) + 60 + r.nextInt(17 * 60);
+	}
+
+	/**
+	 * Method to pick the departure and arrival airports of a flight.  Both
+	 * ends are skewed, so the busiest airport pairs form the hot routes.
+	 */
+	private int[] route(long fnum){
+		Rng r = new Rng();
+		r.seed(this._seed, FLIGHT + 300, fnum);
+		int from = (int) skewed(r, this._airports);
+		int to = (int) skewed(r, this._airports - 1);
+		if(to >= from){
+			to++;
+		}
+		return new int[]{from, to};
+	}
+
+	/**
+	 * Method to draw from [0, n) with a power law: low values are the most
+	 * likely, the more so the larger the skew exponent.
+	 */
+	private long skewed(Rng r, long n){
+		return Math.min(n - 1, (long) (n * Math.pow(r.nextDouble(), this._skew)));
+	}
+
+	private static void fullName(Rng r, StringBuilder sb){
+		sb.append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)]).append(' ').append(LAST_NAMES[r.nextInt(LAST_NAMES.length)]);
+	}
+
+	/**
+	 * Method to write a 5 letter airport code.  Codes are a bijection of the
+	 * airport index, scrambled so popular airports do not share a prefix.
+	 */
+	private static void airport(StringBuilder sb, int index){
+		long code = (index * 7368787L + 1234567L) % 11881376L; //26^5
+		char[] c = new char[5];
+		for(int i = 4; i >= 0; i--){
+			c[i] = (char) ('A' + code % 26);
+			code /= 26;
+		}
+		sb.append(c);
+	}
+
+	private static void timestamp(StringBuilder sb, long minute){
+		date(sb, minute / 1440L);
+		sb.append(' ');
+		pad(sb, (minute % 1440L) / 60L, 2);
+		sb.append(':');
+		pad(sb, minute % 60L, 2);
+	}
+
+	/**
+	 * Method to write an epoch day as yyyy-mm-dd.
+	 */
+	private static void date(StringBuilder sb, long epochDay){
+		//civil-from-days, proleptic Gregorian
+		long z = epochDay + 719468L;
+		long era = (z >= 0 ? z : z - 146096L) / 146097L;
+		long doe = z - era * 146097L;
+		long yoe = (doe - doe / 1460L + doe / 36524L - doe / 146096L) / 365L;
+		long doy = doe - (365L * yoe + yoe / 4L - yoe / 100L);
+		long mp = (5L * doy + 2L) / 153L;
+		long day = doy - (153L * mp + 2L) / 5L + 1L;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400L + (month <= 2 ? 1 : 0);
+		sb.append(year).append('-');
+		pad(sb, month, 2);
+		sb.append('-');
+		pad(sb, day, 2);
+	}
+
+	private static void pad(StringBuilder sb, long value, int width){
+		String s = Long.toString(value);
+		for(int i = s.length(); i < width; i++){
+			sb.append('0');
+		}
+		sb.append(s);
+	}
+
+	/**
+	 * SplitMix64 generator, reseeded per row from (seed, table, key).
+	 */
+	static final class Rng{
+		private long _state;
+
+		void seed(long seed, long table, long key){
+			this._state = mix(seed ^ mix(table * 0x9E3779B97F4A7C15L ^ mix(key)));
+		}
+
+		long nextLong(){
+			return mix(this._state += 0x9E3779B97F4A7C15L);
+		}
+
+		/**
+		 * @return a value in [0, n)
+		 */
+		long nextLong(long n){
+			return (nextLong() >>> 1) % n;
+		}
+
+		int nextInt(int n){
+			return (int) nextLong(n);
+		}
+
+		/**
+		 * @return a value in [0, 1)
+		 */
+		double nextDouble(){
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+
+		private static long mix(long z){
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+}
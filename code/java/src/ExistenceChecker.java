@@ -0,0 +1,215 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class tells which of a set of ids exist in a table, in at most one
+ * round trip: the ids go to the server as one array and only the missing
+ * ones come back.  The small reference tables (Plane, Pilot, Technician) are
+ * also kept in memory as a bit set of their ids, loaded on first use and
+ * extended by the inserts of this process, so checking them usually costs no
+ * round trip at all.  An id not in the bit set is still looked up in the
+ * database, since another client may have added it.
+ *
+ * A positive answer from the bit set can be stale (a rolled back insert, a
+ * row deleted with psql); the foreign keys still reject such an id when it
+ * is used.
+ *
+ * While the ReferenceCache is active, its rows answer instead of the bit
+ * sets, since it also sees the rows other clients add and delete.
+ *
+ */
+
+public class ExistenceChecker{
+	public enum Table{
+		CUSTOMER("Customer", "id", false),
+		FLIGHT("Flight", "fnum", false),
+		PILOT("Pilot", "id", true),
+		PLANE("Plane", "id", true),
+		TECHNICIAN("Technician", "id", true);
+
+		final String name;
+		final String key;
+		final boolean cached;
+		final String missingSql;
+
+		Table(String name, String key, boolean cached){
+			this.name = name;
+			this.key = key;
+			this.cached = cached;
+			this.missingSql = "SELECT x FROM unnest(CAST(? AS int4[])) AS x"
+				+ " WHERE NOT EXISTS (SELECT 1 FROM " + name + " WHERE " + key + " = x)";
+		}
+	}
+
+	private final DBproject _esql;
+	//ids known to exist, per cached table; absent until first use
+	private final Map<Table, BitSet> _known = new EnumMap<Table, BitSet>(Table.class);
+
+	public ExistenceChecker(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to check that one id exists.
+	 *
+	 * @param table the table
+	 * @param id the id
+	 * @return true when the table has a row with this id
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists(Table table, int id) throws SQLException {
+		return missing(table, Collections.singleton(id)).isEmpty();
+	}
+
+	/**
+	 * Method to find the ids that do not exist in a table.
+	 *
+	 * @param table the table
+	 * @param ids the ids to check
+	 * @return the missing ids, in the order given, without duplicates
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Set<Integer> missing(Table table, Collection<Integer> ids) throws SQLException {
+		Set<Integer> unknown = new LinkedHashSet<Integer>(ids);
+		ReferenceCache refs = this._esql.getReferenceCache();
+		if(table.cached && refs != null && refs.isActive()){
+			for(Integer id : ids){
+				if(refs.contains(table, id.intValue())){
+					unknown.remove(id);
+				}
+			}
+		}
+		else if(table.cached){
+			BitSet known = known(table);
+			synchronized(known){
+				for(Integer id : ids){
+					if(id.intValue() >= 0 && known.get(id.intValue())){
+						unknown.remove(id);
+					}
+				}
+			}
+		}
+		if(unknown.isEmpty()){
+			return unknown;
+		}
+
+		StringBuilder array = new StringBuilder("{");
+		for(Integer id : unknown){
+			if(array.length() > 1){
+				array.append(',');
+			}
+			array.append(id.intValue());
+		}
+		array.append('}');
+		Set<Integer> absent = new HashSet<Integer>(this._esql.queryForList(table.missingSql, Rows.INT, array.toString()));
+		Set<Integer> missing = new LinkedHashSet<Integer>();
+		for(Integer id : unknown){
+			if(absent.contains(id)){
+				missing.add(id);
+			}
+			else if(table.cached){
+				added(table, id.intValue());
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Method to record an id inserted by this process, once the insert has
+	 * committed (see DBproject.afterCommit()).
+	 *
+	 * @param table the table
+	 * @param id the new id
+	 */
+	public void added(Table table, int id){
+		if(!table.cached || id < 0){
+			return;
+		}
+		BitSet known;
+		synchronized(this._known){
+			known = this._known.get(table);
+		}
+		if(known != null){
+			synchronized(known){
+				known.set(id);
+			}
+		}
+	}
+
+	/**
+	 * Method to forget the cached ids, e.g. after the tables were reloaded.
+	 */
+	public void clear(){
+		synchronized(this._known){
+			this._known.clear();
+		}
+	}
+
+	/**
+	 * Method to return the id set of a cached table, loading it on first use.
+	 */
+	private BitSet known(Table table) throws SQLException {
+		synchronized(this._known){
+			BitSet known = this._known.get(table);
+			if(known != null){
+				return known;
+			}
+		}
+		final BitSet loaded = new BitSet();
+		this._esql.streamQuery("SELECT " + table.key + " FROM " + table.name, new DBproject.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				int id = rs.getInt(1);
+				if(id >= 0){
+					loaded.set(id);
+				}
+			}
+		});
+		synchronized(this._known){
+			BitSet known = this._known.get(table);
+			if(known == null){
+				this._known.put(table, loaded);
+				known = loaded;
+			}
+			return known;
+		}
+	}
+
+	/**
+	 * Method to list the ids of a collection that are missing, as text for
+	 * an error message.
+	 *
+	 * @param table the table
+	 * @param missing the missing ids
+	 * @return e.g. "no Plane with id 3, 9"
+	 */
+	static String describe(Table table, Collection<Integer> missing){
+		List<String> ids = new ArrayList<String>(missing.size());
+		for(Integer id : missing){
+			ids.add(String.valueOf(id));
+		}
+		return "no " + table.name + " with id " + String.join(", ", ids);
+	}
+}
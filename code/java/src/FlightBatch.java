@@ -0,0 +1,180 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class creates flights.  Each flight is a Flight row plus its
+ * FlightInfo and Schedule rows, inserted by one statement (a data-modifying
+ * WITH), so a flight is never left half created.  Several flights are sent
+ * as a single JDBC batch in one transaction: the driver pipelines the
+ * statements and the whole timetable costs one commit.
+ *
+ */
+
+public class FlightBatch{
+	static final String INSERT_SQL =
+		"WITH f AS ("
+		+ " INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport)"
+		+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?) RETURNING fnum),"
+		+ " fi AS ("
+		+ " INSERT INTO FlightInfo (fiid, flight_id, pilot_id, plane_id) SELECT ?, fnum, ?, ? FROM f)"
+		+ " INSERT INTO Schedule (id, flightNum, departure_time, arrival_time) SELECT ?, fnum, ?, ? FROM f";
+
+	/**
+	 * A flight to create.  The ids are assigned by insert().
+	 */
+	public static final class NewFlight{
+		public final int cost;
+		public final int numSold;
+		public final int numStops;
+		public final Date departureDate;
+		public final Date arrivalDate;
+		public final String arrivalAirport;
+		public final String departureAirport;
+		public final int pilotId;
+		public final int planeId;
+		//assigned on insert
+		public int fnum = -1;
+		public int fiid = -1;
+		public int scheduleId = -1;
+
+		public NewFlight(int cost, int numSold, int numStops, Date departureDate, Date arrivalDate,
+		                 String arrivalAirport, String departureAirport, int pilotId, int planeId){
+			this.cost = cost;
+			this.numSold = numSold;
+			this.numStops = numStops;
+			this.departureDate = departureDate;
+			this.arrivalDate = arrivalDate;
+			this.arrivalAirport = arrivalAirport;
+			this.departureAirport = departureAirport;
+			this.pilotId = pilotId;
+			this.planeId = planeId;
+		}
+	}
+
+	private FlightBatch(){}
+
+	/**
+	 * Method to create one flight with its FlightInfo and Schedule rows.
+	 *
+	 * @param esql the database
+	 * @param flight the flight; its ids are filled in
+	 * @throws java.sql.SQLException when the insert failed; nothing is inserted then
+	 */
+	public static void insert(DBproject esql, NewFlight flight) throws SQLException {
+		insert(esql, Collections.singletonList(flight));
+	}
+
+	/**
+	 * Method to create many flights, each with its FlightInfo and Schedule
+	 * rows, as one batch in one transaction.
+	 *
+	 * @param esql the database
+	 * @param flights the flights; their ids are filled in
+	 * @throws java.sql.SQLException when an insert failed; nothing is inserted then
+	 */
+	public static void insert(final DBproject esql, final List<NewFlight> flights) throws SQLException {
+		if(flights.isEmpty()){
+			return;
+		}
+		final Metrics.Series m = esql.getMetrics().statement(INSERT_SQL);
+		Metrics.Series op = esql.getMetrics().operation("AddFlight");
+		long begin = System.nanoTime();
+		try{
+			checkReferences(esql, flights);
+		}catch (SQLException e){
+			op.error();
+			throw e;
+		}
+		//ids are reserved up front, outside the transaction
+		IdAllocator ids = esql.getIdAllocator();
+		for(NewFlight f : flights){
+			f.fnum = ids.next("Flight");
+			f.fiid = ids.next("FlightInfo");
+			f.scheduleId = ids.next("Schedule");
+		}
+
+		try{
+			esql.inTransaction(new DBproject.TransactionWork<Void>(){
+				public Void run() throws SQLException {
+					long start = System.nanoTime();
+					PooledConnection pc = esql.acquireConnection();
+					try{
+						PreparedStatement stmt = pc.prepare(INSERT_SQL);
+						for(NewFlight f : flights){
+							DBproject.bind(stmt, new Object[]{
+								f.fnum, f.cost, f.numSold, f.numStops, f.departureDate, f.arrivalDate, f.arrivalAirport, f.departureAirport,
+								f.fiid, f.pilotId, f.planeId,
+								f.scheduleId, f.departureDate, f.arrivalDate});
+							stmt.addBatch();
+						}
+						stmt.executeBatch();
+						esql.wrote(INSERT_SQL);
+						m.record(System.nanoTime() - start, 3 * flights.size(), 0);
+					}catch (SQLException e){
+						m.error();
+						throw e;
+					}finally{
+						esql.releaseConnection(pc);
+					}
+					return null;
+				}
+			});
+			op.record(System.nanoTime() - begin, flights.size(), 0);
+			//searchable only once the flights commit, with an enclosing transaction too
+			esql.afterCommit(new Runnable(){
+				public void run(){
+					esql.getRouteIndex().added(flights);
+				}
+			});
+		}catch (SQLException e){
+			op.error();
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to check the pilots and planes of all flights at once, before
+	 * any id is reserved or any row is written.
+	 *
+	 * @param esql the database
+	 * @param flights the flights
+	 * @throws java.sql.SQLException (SQLState 23503) naming the missing pilots and planes
+	 */
+	private static void checkReferences(DBproject esql, List<NewFlight> flights) throws SQLException {
+		List<Integer> pilots = new ArrayList<Integer>(flights.size());
+		List<Integer> planes = new ArrayList<Integer>(flights.size());
+		for(NewFlight f : flights){
+			pilots.add(f.pilotId);
+			planes.add(f.planeId);
+		}
+		ExistenceChecker exists = esql.getExistenceChecker();
+		Set<Integer> missingPilots = exists.missing(ExistenceChecker.Table.PILOT, pilots);
+		Set<Integer> missingPlanes = exists.missing(ExistenceChecker.Table.PLANE, planes);
+		if(missingPilots.isEmpty() && missingPlanes.isEmpty()){
+			return;
+		}
+		String message = missingPilots.isEmpty() ? "" : ExistenceChecker.describe(ExistenceChecker.Table.PILOT, missingPilots);
+		if(!missingPlanes.isEmpty()){
+			message += (message.isEmpty() ? "" : "; ") + ExistenceChecker.describe(ExistenceChecker.Table.PLANE, missingPlanes);
+		}
+		throw new SQLException(message, "23503");
+	}
+}
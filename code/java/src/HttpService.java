@@ -0,0 +1,376 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the menu operations over HTTP with JSON bodies, using
+ * the HTTP server built into the JDK.  Every endpoint takes a JSON object
+ * with the values the menu would prompt for and answers with a JSON object:
+ *
+ *   POST /planes                       {"make","model","age","seats"}
+ *   POST /pilots                       {"fullname","nationality"}
+ *   POST /technicians                  {"full_name"}
+ *   POST /flights                      {"cost","num_sold","num_stops","departure_date","arrival_date",
+ *                                       "arrival_airport","departure_airport","pilot_id","plane_id"}
+ *   POST /repairs                      {"repair_date","repair_code","pilot_id","plane_id","technician_id"}
+ *   POST /bookings                     {"customer_id","flight_id","confirmed"}
+ *   POST /seats                        {"flight_id","departure_date"}
+ *   POST /passengers                   {"flight_id","status"}
+ *   GET  /reports/repairs-per-plane
+ *   GET  /reports/repairs-per-year
+ *   GET  /reports/repairs-per-plane-year
+ *   GET  /reports/repairs-per-code
+ *   GET  /health
+ *   GET  /metrics                      metrics in the Prometheus text format
+ *
+ * Each request runs on a thread of its own, a virtual thread when the JVM
+ * has them, and uses the shared connection pool.  Bookings go through the
+ * BookingQueue, so concurrent ones share a commit, unless
+ * dbproject.http.bookingQueue is false.  Bad input is answered
+ * with 400 and {"error": ...}, a known path asked with the wrong method with
+ * 405, database failures with 500.
+ *
+ */
+
+public class HttpService{
+	//the method each path answers to
+	private static final Map<String, String> METHODS = new HashMap<String, String>();
+	static{
+		for(String path : new String[]{"/planes", "/pilots", "/technicians", "/flights", "/repairs",
+		                               "/bookings", "/seats", "/passengers"}){
+			METHODS.put(path, "POST");
+		}
+		for(String path : new String[]{"/reports/repairs-per-plane", "/reports/repairs-per-year",
+		                               "/reports/repairs-per-plane-year", "/reports/repairs-per-code",
+		                               "/health", "/metrics"}){
+			METHODS.put(path, "GET");
+		}
+	}
+
+	private final DBproject _esql;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final CountDownLatch _stopped = new CountDownLatch(1);
+	private final boolean _queueBookings = Boolean.parseBoolean(System.getProperty("dbproject.http.bookingQueue", "true"));
+
+	/**
+	 * @param esql the database
+	 * @param host the address to listen on, e.g. 127.0.0.1
+	 * @param port the port to listen on
+	 * @throws java.io.IOException when the port could not be bound
+	 */
+	public HttpService(DBproject esql, String host, int port) throws IOException {
+		this._esql = esql;
+		this._server = HttpServer.create(new InetSocketAddress(host, port), Integer.getInteger("dbproject.http.backlog", 128));
+		this._executor = newExecutor();
+		this._server.setExecutor(this._executor);
+		this._server.createContext("/", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException {
+				dispatch(exchange);
+			}
+		});
+	}
+
+	/**
+	 * Method to create the request executor: one virtual thread per request
+	 * when the JVM supports it (Java 21+), otherwise a fixed pool of
+	 * dbproject.http.threads platform threads.
+	 */
+	private static ExecutorService newExecutor(){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (ReflectiveOperationException e){
+			return Executors.newFixedThreadPool(Integer.getInteger("dbproject.http.threads", 64));
+		}
+	}
+
+	public void start(){
+		this._server.start();
+		System.out.println("Listening on http://" + this._server.getAddress().getHostString() + ":" + this._server.getAddress().getPort() + "/");
+	}
+
+	/**
+	 * Method to stop accepting requests, wait up to a second for the running
+	 * ones and release await().
+	 */
+	public void stop(){
+		this._server.stop(1);
+		this._executor.shutdown();
+		this._stopped.countDown();
+	}
+
+	/**
+	 * Method to block until stop() is called.
+	 *
+	 * @throws InterruptedException when the waiting thread was interrupted
+	 */
+	public void await() throws InterruptedException {
+		this._stopped.await();
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String method = METHODS.get(path);
+		boolean allowed = method != null && method.equals(exchange.getRequestMethod());
+		if(allowed && path.equals("/metrics")){
+			metrics(exchange);
+			return;
+		}
+		int status = 200;
+		Object response;
+		try{
+			if(method == null){
+				status = 404;
+				response = error("No such endpoint: " + path);
+			}
+			else if(!allowed){
+				status = 405;
+				exchange.getResponseHeaders().set("Allow", method);
+				response = error(path + " only answers " + method);
+			}
+			else{
+				response = route(path, readBody(exchange));
+			}
+		}catch (IllegalArgumentException e){
+			status = 400;
+			response = error(e.getMessage());
+		}catch (SQLException e){
+			//class 22 (data exception) and 23 (integrity violation) are the caller's fault
+			String state = e.getSQLState();
+			status = state != null && (state.startsWith("22") || state.startsWith("23")) ? 400 : 500;
+			response = error(e.getMessage());
+		}catch (RuntimeException e){
+			status = 500;
+			response = error(String.valueOf(e.getMessage()));
+		}
+		byte[] bytes = Json.write(response).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try{
+			out.write(bytes);
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Method to answer with the metrics in the Prometheus text format.
+	 */
+	private void metrics(HttpExchange exchange) throws IOException {
+		StringWriter text = new StringWriter();
+		this._esql.getMetrics().write(text);
+		byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try{
+			out.write(bytes);
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Method to run the operation behind a path, once dispatch() checked
+	 * the method.
+	 *
+	 * @return the response object, or null for an unknown path
+	 */
+	private Object route(String path, Map<String, Object> in) throws SQLException {
+		Map<String, Object> out = new LinkedHashMap<String, Object>();
+		switch(path){
+			case "/health":
+				out.put("status", "ok");
+				return out;
+			case "/planes":
+				out.put("id", DBproject.insertPlane(this._esql, str(in, "make"), str(in, "model"), num(in, "age"), num(in, "seats")));
+				return out;
+			case "/pilots":
+				out.put("id", DBproject.insertPilot(this._esql, str(in, "fullname"), str(in, "nationality")));
+				return out;
+			case "/technicians":
+				out.put("id", DBproject.insertTechnician(this._esql, str(in, "full_name")));
+				return out;
+			case "/flights":{
+				FlightBatch.NewFlight f = new FlightBatch.NewFlight(num(in, "cost"), num(in, "num_sold"), num(in, "num_stops"),
+				                                                    date(in, "departure_date"), date(in, "arrival_date"),
+				                                                    str(in, "arrival_airport"), str(in, "departure_airport"),
+				                                                    num(in, "pilot_id"), num(in, "plane_id"));
+				FlightBatch.insert(this._esql, f);
+				out.put("fnum", f.fnum);
+				out.put("fiid", f.fiid);
+				out.put("schedule_id", f.scheduleId);
+				return out;
+			}
+			case "/repairs":
+				out.put("rid", DBproject.insertRepair(this._esql, date(in, "repair_date"), str(in, "repair_code"),
+				                                      num(in, "pilot_id"), num(in, "plane_id"), num(in, "technician_id")).rid);
+				return out;
+			case "/bookings":{
+				int cid = num(in, "customer_id");
+				int fid = num(in, "flight_id");
+				boolean confirmed = bool(in, "confirmed");
+				//concurrent requests share a commit through the queue
+				BookingEngine.Result r = this._queueBookings ? this._esql.getBookingQueue().book(cid, fid, confirmed)
+				                                             : this._esql.getBookingEngine().book(cid, fid, confirmed);
+				out.put("rnum", r.rnum);
+				out.put("status", String.valueOf(r.status));
+				out.put("seats_left", r.isWaitlisted() ? null : Integer.valueOf(r.seatsLeft));
+				return out;
+			}
+			case "/seats":{
+				int fid = num(in, "flight_id");
+				Integer seats = DBproject.getAvailableSeats(this._esql, fid, date(in, "departure_date"));
+				if(seats == null){
+					throw new IllegalArgumentException("Flight " + fid + " is not scheduled on " + str(in, "departure_date"));
+				}
+				out.put("available", seats);
+				return out;
+			}
+			case "/passengers":
+				out.put("count", DBproject.countPassengersWithStatus(this._esql, num(in, "flight_id"), str(in, "status")));
+				return out;
+			case "/reports/repairs-per-plane":
+				return rows(DBproject.repairsPerPlane(this._esql));
+			case "/reports/repairs-per-year":
+				return rows(DBproject.repairsPerYear(this._esql));
+			case "/reports/repairs-per-plane-year":
+				return rows(DBproject.repairsPerPlaneAndYear(this._esql));
+			case "/reports/repairs-per-code":
+				return RepairStats.perCode(this._esql);
+			default:
+				return null;
+		}
+	}
+
+	private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try{
+			byte[] chunk = new byte[4096];
+			int n;
+			while((n = in.read(chunk)) > 0){
+				buf.write(chunk, 0, n);
+			}
+		}finally{
+			in.close();
+		}
+		String text = new String(buf.toByteArray(), StandardCharsets.UTF_8).trim();
+		if(text.length() == 0){
+			return new LinkedHashMap<String, Object>();
+		}
+		Object body = Json.parse(text);
+		if(!(body instanceof Map)){
+			throw new IllegalArgumentException("The request body must be a JSON object");
+		}
+		@SuppressWarnings("unchecked")
+		Map<String, Object> map = (Map<String, Object>) body;
+		return map;
+	}
+
+	/**
+	 * Method to turn a report into {"columns": [...], "rows": [[...], ...]}.
+	 */
+	private static Map<String, Object> rows(ColumnarResult result){
+		List<Object> columns = new ArrayList<Object>();
+		for(int c = 0; c < result.getColumnCount(); c++){
+			columns.add(result.getColumnName(c));
+		}
+		List<Object> rows = new ArrayList<Object>(result.size());
+		for(int r = 0; r < result.size(); r++){
+			List<Object> row = new ArrayList<Object>(columns.size());
+			for(int c = 0; c < columns.size(); c++){
+				row.add(result.getValue(r, c));
+			}
+			rows.add(row);
+		}
+		Map<String, Object> out = new LinkedHashMap<String, Object>();
+		out.put("columns", columns);
+		out.put("rows", rows);
+		return out;
+	}
+
+	private static Map<String, Object> error(String message){
+		Map<String, Object> out = new LinkedHashMap<String, Object>();
+		out.put("error", message);
+		return out;
+	}
+
+	private static Object field(Map<String, Object> in, String name){
+		Object v = in.get(name);
+		if(v == null){
+			throw new IllegalArgumentException("Missing field " + name);
+		}
+		return v;
+	}
+
+	private static String str(Map<String, Object> in, String name){
+		return field(in, name).toString();
+	}
+
+	private static int num(Map<String, Object> in, String name){
+		Object v = field(in, name);
+		if(v instanceof Number){
+			//Json reads integral numbers as Long; 12.7 or 2^31 would not fit
+			double d = ((Number) v).doubleValue();
+			long l = ((Number) v).longValue();
+			if(d != l || l < Integer.MIN_VALUE || l > Integer.MAX_VALUE){
+				throw new IllegalArgumentException("Field " + name + " must be an integer");
+			}
+			return (int) l;
+		}
+		try{
+			return Integer.parseInt(v.toString());
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException("Field " + name + " must be an integer");
+		}
+	}
+
+	private static boolean bool(Map<String, Object> in, String name){
+		Object v = field(in, name);
+		if(v instanceof Boolean){
+			return ((Boolean) v).booleanValue();
+		}
+		throw new IllegalArgumentException("Field " + name + " must be true or false");
+	}
+
+	private static Date date(Map<String, Object> in, String name){
+		try{
+			return Date.valueOf(str(in, name));
+		}catch (IllegalArgumentException e){
+			throw new IllegalArgumentException("Field " + name + " must be a date (yyyy-mm-dd)");
+		}
+	}
+}
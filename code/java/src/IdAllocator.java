@@ -0,0 +1,210 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hands out primary keys for the airline tables, hi/lo style.
+ * Ranges of blockSize ids are reserved atomically in the id_allocator table
+ * (one row per table holding the next unreserved id), so several processes
+ * can allocate from the same table without colliding.  Within a process ids
+ * are handed out from the current range with a lock-free increment; only
+ * reserving the next range takes a lock and a round trip.
+ *
+ * Ranges are reserved on a connection of the allocator's own, outside the
+ * pool: callers often hold a pooled connection already (inside
+ * inTransaction), and waiting for a second one from a saturated pool would
+ * deadlock.
+ *
+ */
+
+public class IdAllocator{
+	static final String RESERVE_SQL = "UPDATE id_allocator SET next_id = next_id + ? WHERE name = ? RETURNING next_id - ?";
+
+	//allocator name -> "table.column" whose keys it hands out
+	private static final String[][] KEYS = {
+		{"Flight", "Flight", "fnum"},
+		{"Pilot", "Pilot", "id"},
+		{"Plane", "Plane", "id"},
+		{"Repairs", "Repairs", "rid"},
+		{"Technician", "Technician", "id"},
+		{"Customer", "Customer", "id"},
+		{"FlightInfo", "FlightInfo", "fiid"},
+		{"Reservation", "Reservation", "rnum"},
+		{"Schedule", "Schedule", "id"},
+	};
+
+	private final DBproject _esql;
+	private final int _blockSize;
+	private final Map<String, Sequence> _sequences = new LinkedHashMap<String, Sequence>();
+	//opened on the first reservation, reopened after an error
+	private Connection _connection = null;
+	private PreparedStatement _reserve = null;
+
+	public IdAllocator(DBproject esql, int blockSize){
+		if(blockSize < 1){
+			throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+		}
+		this._esql = esql;
+		this._blockSize = blockSize;
+		for(String[] key : KEYS){
+			this._sequences.put(key[0], new Sequence(key[0]));
+		}
+	}
+
+	/**
+	 * Method to bring every allocator up to the current maximum key of its
+	 * table.  Costs one round trip; MAX over a primary key is an index
+	 * lookup.  The id_allocator table comes from migration V005.
+	 *
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public void init() throws SQLException {
+		StringBuilder seed = new StringBuilder("INSERT INTO id_allocator (name, next_id) ");
+		for(int i = 0; i < KEYS.length; i++){
+			if(i > 0){
+				seed.append(" UNION ALL ");
+			}
+			seed.append("SELECT '").append(KEYS[i][0]).append("', COALESCE(MAX(").append(KEYS[i][2])
+			    .append("), -1) + 1 FROM ").append(KEYS[i][1]);
+		}
+		// rows added behind the allocator's back (e.g. COPY) move it forward
+		seed.append(" ON CONFLICT (name) DO UPDATE SET next_id = GREATEST(id_allocator.next_id, EXCLUDED.next_id)");
+		this._esql.executeUpdate(seed.toString());
+	}
+
+	/**
+	 * Method to return the next unused id for a table.
+	 *
+	 * @param name the table name, e.g. "Flight"
+	 * @return a key no other caller or process has been given
+	 * @throws java.sql.SQLException when a new range could not be reserved
+	 */
+	public int next(String name) throws SQLException {
+		Sequence seq = this._sequences.get(name);
+		if(seq == null){
+			throw new IllegalArgumentException("No id allocator for table " + name);
+		}
+		return seq.next();
+	}
+
+	/**
+	 * Method to drop every range reserved by this process, e.g. after the
+	 * tables were reloaded.  The next call to next() reserves a fresh range.
+	 */
+	public void reset(){
+		for(Sequence seq : this._sequences.values()){
+			seq.block = null;
+		}
+	}
+
+	/**
+	 * Method to close the allocator's connection.  A later reservation
+	 * opens a new one.
+	 */
+	public synchronized void close(){
+		if(this._connection != null){
+			try{
+				this._connection.close();
+			}catch (SQLException e){
+				System.err.println(e.getMessage());
+			}
+			this._connection = null;
+			this._reserve = null;
+		}
+	}
+
+	/**
+	 * Method to reserve the next range of a table on the allocator's own
+	 * connection.  Runs in autocommit, so a range stays reserved even if a
+	 * transaction running on the calling thread rolls back.
+	 *
+	 * @param name the allocator name
+	 * @return the first id of the range, or null when the allocator has no row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private synchronized Integer reserve(String name) throws SQLException {
+		try{
+			if(this._connection == null){
+				this._connection = this._esql.getPool().openDedicated();
+				this._reserve = this._connection.prepareStatement(RESERVE_SQL);
+			}
+			ResultSet rs = DBproject.bind(this._reserve, new Object[]{this._blockSize, name, this._blockSize}).executeQuery();
+			try{
+				return rs.next() ? Integer.valueOf(rs.getInt(1)) : null;
+			}finally{
+				rs.close();
+			}
+		}catch (SQLException e){
+			//the connection may be broken; start over on the next call
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * A reserved range [next, limit) of ids.
+	 */
+	private static final class Block{
+		final AtomicInteger next;
+		final int limit;
+
+		Block(int start, int limit){
+			this.next = new AtomicInteger(start);
+			this.limit = limit;
+		}
+	}
+
+	private final class Sequence{
+		private final String _name;
+		private volatile Block block = null;
+
+		Sequence(String name){
+			this._name = name;
+		}
+
+		int next() throws SQLException {
+			while(true){
+				Block b = this.block;
+				if(b != null){
+					int id = b.next.getAndIncrement();
+					if(id < b.limit){
+						return id;
+					}
+				}
+				refill(b);
+			}
+		}
+
+		/**
+		 * Reserves the next range unless another thread already replaced the
+		 * exhausted one.
+		 */
+		private synchronized void refill(Block exhausted) throws SQLException {
+			if(this.block != exhausted){
+				return;
+			}
+			Integer start = reserve(this._name);
+			if(start == null){
+				throw new SQLException("id_allocator has no row for " + this._name + "; run init() first");
+			}
+			this.block = new Block(start.intValue(), start.intValue() + _blockSize);
+		}
+	}
+}
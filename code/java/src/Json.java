@@ -0,0 +1,297 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small JSON documents of the HTTP service.
+ * Objects become LinkedHashMaps, arrays ArrayLists, integral numbers Longs
+ * and other numbers Doubles.  Writing accepts the same types plus any other
+ * Number and CharSequence.
+ *
+ */
+
+public final class Json{
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text){
+		this._text = text;
+	}
+
+	/**
+	 * Method to parse a JSON document.
+	 *
+	 * @param text the document
+	 * @return the value it holds
+	 * @throws IllegalArgumentException when the text is not valid JSON
+	 */
+	public static Object parse(String text){
+		Json p = new Json(text);
+		Object value = p.value();
+		p.skipSpace();
+		if(p._pos != text.length()){
+			throw p.error("Unexpected data after the value");
+		}
+		return value;
+	}
+
+	/**
+	 * Method to write a value as JSON.
+	 *
+	 * @param value a Map, Collection, CharSequence, Number, Boolean or null
+	 * @return the JSON text
+	 */
+	public static String write(Object value){
+		StringBuilder out = new StringBuilder();
+		write(value, out);
+		return out.toString();
+	}
+
+	public static void write(Object value, StringBuilder out){
+		if(value == null){
+			out.append("null");
+		}
+		else if(value instanceof CharSequence || value instanceof Character){
+			quote(value.toString(), out);
+		}
+		else if(value instanceof Double || value instanceof Float){
+			double d = ((Number) value).doubleValue();
+			if(Double.isNaN(d) || Double.isInfinite(d)){
+				out.append("null");
+			}
+			else{
+				out.append(d);
+			}
+		}
+		else if(value instanceof Number || value instanceof Boolean){
+			out.append(value);
+		}
+		else if(value instanceof Map){
+			out.append('{');
+			boolean first = true;
+			for(Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()){
+				if(!first){
+					out.append(',');
+				}
+				first = false;
+				quote(String.valueOf(e.getKey()), out);
+				out.append(':');
+				write(e.getValue(), out);
+			}
+			out.append('}');
+		}
+		else if(value instanceof Collection){
+			out.append('[');
+			boolean first = true;
+			for(Object v : (Collection<?>) value){
+				if(!first){
+					out.append(',');
+				}
+				first = false;
+				write(v, out);
+			}
+			out.append(']');
+		}
+		else{
+			throw new IllegalArgumentException("Cannot write " + value.getClass().getName() + " as JSON");
+		}
+	}
+
+	static void quote(String s, StringBuilder out){
+		out.append('"');
+		for(int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			switch(c){
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if(c < 0x20){
+						out.append(String.format("\\u%04x", (int) c));
+					}
+					else{
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+
+	private Object value(){
+		skipSpace();
+		if(this._pos >= this._text.length()){
+			throw error("Unexpected end of input");
+		}
+		char c = this._text.charAt(this._pos);
+		switch(c){
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			case 't': return literal("true", Boolean.TRUE);
+			case 'f': return literal("false", Boolean.FALSE);
+			case 'n': return literal("null", null);
+			default: return number();
+		}
+	}
+
+	private Map<String, Object> object(){
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		this._pos++;
+		skipSpace();
+		if(peek() == '}'){
+			this._pos++;
+			return map;
+		}
+		while(true){
+			skipSpace();
+			if(peek() != '"'){
+				throw error("Expected a member name");
+			}
+			String name = string();
+			skipSpace();
+			expect(':');
+			map.put(name, value());
+			skipSpace();
+			if(peek() == ','){
+				this._pos++;
+				continue;
+			}
+			expect('}');
+			return map;
+		}
+	}
+
+	private List<Object> array(){
+		List<Object> list = new ArrayList<Object>();
+		this._pos++;
+		skipSpace();
+		if(peek() == ']'){
+			this._pos++;
+			return list;
+		}
+		while(true){
+			list.add(value());
+			skipSpace();
+			if(peek() == ','){
+				this._pos++;
+				continue;
+			}
+			expect(']');
+			return list;
+		}
+	}
+
+	private String string(){
+		StringBuilder s = new StringBuilder();
+		this._pos++;
+		while(true){
+			if(this._pos >= this._text.length()){
+				throw error("Unterminated string");
+			}
+			char c = this._text.charAt(this._pos++);
+			if(c == '"'){
+				return s.toString();
+			}
+			if(c != '\\'){
+				s.append(c);
+				continue;
+			}
+			if(this._pos >= this._text.length()){
+				throw error("Unterminated string");
+			}
+			char e = this._text.charAt(this._pos++);
+			switch(e){
+				case '"': case '\\': case '/': s.append(e); break;
+				case 'b': s.append('\b'); break;
+				case 'f': s.append('\f'); break;
+				case 'n': s.append('\n'); break;
+				case 'r': s.append('\r'); break;
+				case 't': s.append('\t'); break;
+				case 'u':
+					if(this._pos + 4 > this._text.length()){
+						throw error("Bad unicode escape");
+					}
+					try{
+						s.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+					}catch (NumberFormatException ex){
+						throw error("Bad unicode escape");
+					}
+					this._pos += 4;
+					break;
+				default:
+					throw error("Bad escape \\" + e);
+			}
+		}
+	}
+
+	private Object number(){
+		int start = this._pos;
+		boolean integral = true;
+		while(this._pos < this._text.length()){
+			char c = this._text.charAt(this._pos);
+			if(c == '.' || c == 'e' || c == 'E'){
+				integral = false;
+			}
+			else if(!(c == '-' || c == '+' || (c >= '0' && c <= '9'))){
+				break;
+			}
+			this._pos++;
+		}
+		String n = this._text.substring(start, this._pos);
+		try{
+			if(integral){
+				return Long.valueOf(n);
+			}
+			return Double.valueOf(n);
+		}catch (NumberFormatException e){
+			this._pos = start;
+			throw error("Expected a value");
+		}
+	}
+
+	private Object literal(String word, Object value){
+		if(!this._text.startsWith(word, this._pos)){
+			throw error("Expected a value");
+		}
+		this._pos += word.length();
+		return value;
+	}
+
+	private void skipSpace(){
+		while(this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos))){
+			this._pos++;
+		}
+	}
+
+	private char peek(){
+		return this._pos < this._text.length() ? this._text.charAt(this._pos) : 0;
+	}
+
+	private void expect(char c){
+		if(peek() != c){
+			throw error("Expected '" + c + "'");
+		}
+		this._pos++;
+	}
+
+	private IllegalArgumentException error(String message){
+		return new IllegalArgumentException(message + " at offset " + this._pos);
+	}
+}
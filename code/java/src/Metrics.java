@@ -0,0 +1,413 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects latency histograms, row, byte and error counts for
+ * every statement shape run by the DBproject helpers and for every
+ * operation.  A statement shape is the SQL with its literals replaced by ?
+ * and its whitespace collapsed, so ad-hoc statements that differ only in
+ * their values share one series.
+ *
+ * Recording is allocation free: a series is a fixed array of counters that
+ * is updated with atomic increments.  Latencies go into log-linear buckets
+ * (8 per power of two, so quantiles are within 12.5%) that count from the
+ * start of the process.
+ *
+ * The metrics can be written in the Prometheus text exposition format, on
+ * demand with dump() or every few seconds with startDumping().
+ *
+ */
+
+public class Metrics{
+	//distinct statement shapes tracked; later ones are counted under OTHER
+	static final int MAX_STATEMENTS = 1000;
+	static final String OTHER = "(other)";
+
+	private final ConcurrentHashMap<String, Series> _statements = new ConcurrentHashMap<String, Series>();
+	private final ConcurrentHashMap<String, Series> _operations = new ConcurrentHashMap<String, Series>();
+	//sql text -> statement series, so a known statement is not normalized again
+	private final ConcurrentHashMap<String, Series> _bySql = new ConcurrentHashMap<String, Series>();
+	private ScheduledExecutorService _dumper = null;
+	//other sources of metrics written after the series
+	private final List<Collector> _collectors = new CopyOnWriteArrayList<Collector>();
+
+	/**
+	 * Source of further metrics, e.g. a cache, written in the Prometheus
+	 * text format along with the series.
+	 */
+	public interface Collector{
+		void write(Writer out) throws IOException;
+	}
+
+	/**
+	 * Method to add a source of metrics to write().
+	 *
+	 * @param collector the source
+	 */
+	public void addCollector(Collector collector){
+		this._collectors.add(collector);
+	}
+
+	/**
+	 * Method to return the series of a statement.
+	 *
+	 * @param sql the statement as run
+	 * @return the series of its shape
+	 */
+	public Series statement(String sql){
+		Series s = this._bySql.get(sql);
+		if(s != null){
+			return s;
+		}
+		String shape = normalize(sql);
+		if(this._statements.size() >= MAX_STATEMENTS && !this._statements.containsKey(shape)){
+			shape = OTHER;
+		}
+		s = series(this._statements, shape);
+		if(this._bySql.size() < MAX_STATEMENTS){
+			this._bySql.put(sql, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Method to return the series of an operation, e.g. "BookFlight".
+	 *
+	 * @param name the operation name
+	 * @return its series
+	 */
+	public Series operation(String name){
+		Series s = this._operations.get(name);
+		return s != null ? s : series(this._operations, name);
+	}
+
+	private static Series series(ConcurrentHashMap<String, Series> map, String key){
+		Series s = map.get(key);
+		if(s == null){
+			Series created = new Series();
+			s = map.putIfAbsent(key, created);
+			if(s == null){
+				s = created;
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Method to reduce a statement to its shape: string and numeric literals
+	 * become ?, runs of whitespace a single blank.
+	 *
+	 * @param sql the statement
+	 * @return its shape
+	 */
+	static String normalize(String sql){
+		StringBuilder out = new StringBuilder(sql.length());
+		int n = sql.length();
+		int i = 0;
+		while(i < n){
+			char c = sql.charAt(i);
+			if(c == '\''){
+				//string literal, '' is an escaped quote
+				i++;
+				while(i < n){
+					if(sql.charAt(i) == '\''){
+						if(i + 1 < n && sql.charAt(i + 1) == '\''){
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				i++;
+				out.append('?');
+			}
+			else if(Character.isDigit(c) && (out.length() == 0 || !isIdentifierPart(out.charAt(out.length() - 1)))){
+				while(i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')){
+					i++;
+				}
+				out.append('?');
+			}
+			else if(Character.isWhitespace(c)){
+				while(i < n && Character.isWhitespace(sql.charAt(i))){
+					i++;
+				}
+				if(out.length() > 0){
+					out.append(' ');
+				}
+			}
+			else{
+				out.append(c);
+				i++;
+			}
+		}
+		int end = out.length();
+		while(end > 0 && (out.charAt(end - 1) == ' ' || out.charAt(end - 1) == ';')){
+			end--;
+		}
+		out.setLength(end);
+		return out.toString();
+	}
+
+	private static boolean isIdentifierPart(char c){
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	/**
+	 * Method to write every series in the Prometheus text exposition format.
+	 *
+	 * @param out where to write
+	 * @throws java.io.IOException when writing failed
+	 */
+	public void write(Writer out) throws IOException {
+		write(out, "dbproject_statement", "statement", "statements run by the query helpers", this._statements);
+		write(out, "dbproject_operation", "operation", "menu operations", this._operations);
+		for(Collector c : this._collectors){
+			c.write(out);
+		}
+	}
+
+	private static void write(Writer out, String prefix, String label, String what, Map<String, Series> series) throws IOException {
+		Map<String, Series> sorted = new TreeMap<String, Series>(series);
+		out.write("# HELP " + prefix + "_latency_seconds Latency of " + what + ", since start.\n");
+		out.write("# TYPE " + prefix + "_latency_seconds summary\n");
+		for(Map.Entry<String, Series> e : sorted.entrySet()){
+			Series s = e.getValue();
+			String l = label + "=\"" + escape(e.getKey()) + "\"";
+			long count = s.count();
+			for(double q : new double[]{0.5, 0.99, 0.999}){
+				out.write(prefix + "_latency_seconds{" + l + ",quantile=\"" + q + "\"} " + seconds(s.quantile(q)) + "\n");
+			}
+			out.write(prefix + "_latency_seconds_sum{" + l + "} " + seconds(s._sum.get()) + "\n");
+			out.write(prefix + "_latency_seconds_count{" + l + "} " + count + "\n");
+		}
+		gauge(out, prefix + "_latency_max_seconds", "Slowest of the " + what + ".", label, sorted, 0);
+		counter(out, prefix + "_rows_total", "Rows returned or written by the " + what + ".", label, sorted, 1);
+		counter(out, prefix + "_bytes_total", "Approximate bytes of values materialized by the " + what + ".", label, sorted, 2);
+		counter(out, prefix + "_errors_total", "Failed " + what + ".", label, sorted, 3);
+	}
+
+	private static void gauge(Writer out, String name, String help, String label, Map<String, Series> series, int field) throws IOException {
+		out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " gauge\n");
+		values(out, name, label, series, field);
+	}
+
+	private static void counter(Writer out, String name, String help, String label, Map<String, Series> series, int field) throws IOException {
+		out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " counter\n");
+		values(out, name, label, series, field);
+	}
+
+	private static void values(Writer out, String name, String label, Map<String, Series> series, int field) throws IOException {
+		for(Map.Entry<String, Series> e : series.entrySet()){
+			Series s = e.getValue();
+			String value;
+			switch(field){
+				case 0: value = seconds(s._max.get()); break;
+				case 1: value = String.valueOf(s._rows.sum()); break;
+				case 2: value = String.valueOf(s._bytes.sum()); break;
+				default: value = String.valueOf(s._errors.sum()); break;
+			}
+			out.write(name + "{" + label + "=\"" + escape(e.getKey()) + "\"} " + value + "\n");
+		}
+	}
+
+	private static String seconds(long nanos){
+		return String.valueOf(nanos / 1e9);
+	}
+
+	private static String escape(String s){
+		return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Method to write the metrics to a file.  The file is replaced
+	 * atomically, so a reader never sees half a dump.
+	 *
+	 * @param file the file to write
+	 * @throws java.io.IOException when writing failed
+	 */
+	public void dump(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = new File(dir, file.getName() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+		try{
+			write(out);
+		}finally{
+			out.close();
+		}
+		if(!tmp.renameTo(file)){
+			file.delete();
+			if(!tmp.renameTo(file)){
+				throw new IOException("Cannot replace " + file.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Method to dump the metrics to a file every interval on a daemon thread.
+	 *
+	 * @param file the file to write
+	 * @param intervalMillis time between dumps
+	 */
+	public synchronized void startDumping(final File file, long intervalMillis){
+		stopDumping();
+		this._dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "metrics-dumper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._dumper.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				try{
+					dump(file);
+				}catch (IOException e){
+					System.err.println(e.getMessage());
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopDumping(){
+		if(this._dumper != null){
+			this._dumper.shutdownNow();
+			this._dumper = null;
+		}
+	}
+
+	/**
+	 * Counters of one statement shape or operation.
+	 */
+	public static final class Series{
+		//8 sub-buckets per power of two of nanoseconds
+		private static final int SUB_BITS = 3;
+		private static final int SUB = 1 << SUB_BITS;
+		private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+		private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong _sum = new AtomicLong();
+		private final AtomicLong _max = new AtomicLong();
+		private final LongAdder _rows = new LongAdder();
+		private final LongAdder _bytes = new LongAdder();
+		private final LongAdder _errors = new LongAdder();
+
+		/**
+		 * Method to record one successful execution.
+		 *
+		 * @param nanos its latency
+		 * @param rows rows returned or written
+		 * @param bytes approximate bytes of values materialized
+		 */
+		public void record(long nanos, long rows, long bytes){
+			if(nanos < 0){
+				nanos = 0;
+			}
+			this._buckets.incrementAndGet(bucket(nanos));
+			this._sum.addAndGet(nanos);
+			long max;
+			while(nanos > (max = this._max.get()) && !this._max.compareAndSet(max, nanos)){
+				// another thread raised the maximum; try again.
+			}
+			if(rows != 0){
+				this._rows.add(rows);
+			}
+			if(bytes != 0){
+				this._bytes.add(bytes);
+			}
+		}
+
+		/**
+		 * Method to add bytes materialized after the execution was recorded.
+		 */
+		public void addBytes(long bytes){
+			this._bytes.add(bytes);
+		}
+
+		public void error(){
+			this._errors.increment();
+		}
+
+		public long count(){
+			long n = 0;
+			for(int i = 0; i < BUCKETS; i++){
+				n += this._buckets.get(i);
+			}
+			return n;
+		}
+
+		public long getMaxNanos(){ return this._max.get(); }
+		public long getRowCount(){ return this._rows.sum(); }
+		public long getByteCount(){ return this._bytes.sum(); }
+		public long getErrorCount(){ return this._errors.sum(); }
+
+		/**
+		 * Method to estimate a latency quantile.
+		 *
+		 * @param q the quantile, e.g. 0.99
+		 * @return the upper bound of the bucket holding it, in nanoseconds
+		 */
+		public long quantile(double q){
+			long total = count();
+			if(total == 0){
+				return 0;
+			}
+			long rank = Math.max(1L, (long) Math.ceil(q * total));
+			long seen = 0;
+			for(int i = 0; i < BUCKETS; i++){
+				seen += this._buckets.get(i);
+				if(seen >= rank){
+					return Math.min(upperBound(i), this._max.get());
+				}
+			}
+			return this._max.get();
+		}
+
+		static int bucket(long v){
+			if(v < SUB){
+				return (int) v;
+			}
+			int exp = 63 - Long.numberOfLeadingZeros(v);
+			int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+			return (exp - SUB_BITS + 1) * SUB + sub;
+		}
+
+		static long upperBound(int bucket){
+			if(bucket < SUB){
+				return bucket;
+			}
+			int exp = bucket / SUB + SUB_BITS - 1;
+			long sub = bucket % SUB;
+			return ((SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+		}
+	}
+}
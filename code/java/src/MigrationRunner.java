@@ -0,0 +1,357 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class brings the schema up to date from the numbered SQL files in
+ * code/sql/migrations, named V<version>__<description>.sql.  Each applied
+ * migration is recorded in schema_migrations with the SHA-256 of its file, so
+ * a migration runs once, in version order, and editing one that was already
+ * applied is an error rather than a silent drift.
+ *
+ * A migration runs in one transaction together with its schema_migrations
+ * row, unless it contains CONCURRENTLY: Postgres cannot build an index
+ * concurrently inside a transaction, so such a migration runs statement by
+ * statement and should only use IF NOT EXISTS statements, which can be
+ * rerun after a failure.  An advisory lock keeps two runners from migrating
+ * at the same time.
+ *
+ */
+
+public class MigrationRunner{
+	private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+	private static final Pattern CONCURRENTLY = Pattern.compile("\\bCONCURRENTLY\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern CONCURRENT_INDEX = Pattern.compile(
+		"CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+CONCURRENTLY\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+)", Pattern.CASE_INSENSITIVE);
+	//key of the advisory lock held while migrating ("dbmi")
+	private static final long LOCK_KEY = 0x64626d69L;
+
+	/**
+	 * One migration file.
+	 */
+	public static final class Migration{
+		public final int version;
+		public final String description;
+		public final File file;
+		public final String sql;
+		public final String checksum;
+
+		Migration(int version, String description, File file, String sql){
+			this.version = version;
+			this.description = description;
+			this.file = file;
+			this.sql = sql;
+			this.checksum = sha256(sql);
+		}
+
+		public String toString(){
+			return String.format("V%03d %s", this.version, this.description);
+		}
+	}
+
+	private final DBproject _esql;
+	private final File _dir;
+
+	/**
+	 * @param esql the database
+	 * @param dir the directory holding the V*.sql files
+	 */
+	public MigrationRunner(DBproject esql, File dir){
+		this._esql = esql;
+		this._dir = dir;
+	}
+
+	/**
+	 * Method to read the migration files, in version order.
+	 *
+	 * @return the migrations
+	 * @throws java.io.IOException when a file could not be read or two files share a version
+	 */
+	public List<Migration> load() throws IOException {
+		File[] files = this._dir.listFiles();
+		if(files == null){
+			throw new IOException("No migrations directory " + this._dir.getPath());
+		}
+		List<Migration> migrations = new ArrayList<Migration>();
+		Map<Integer, File> seen = new HashMap<Integer, File>();
+		for(File f : files){
+			Matcher m = FILE_NAME.matcher(f.getName());
+			if(!f.isFile() || !m.matches()){
+				continue;
+			}
+			int version = Integer.parseInt(m.group(1));
+			File other = seen.put(version, f);
+			if(other != null){
+				throw new IOException("Migrations " + other.getName() + " and " + f.getName() + " share version " + version);
+			}
+			//line endings must not change the checksum
+			String sql = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).replace("\r\n", "\n");
+			migrations.add(new Migration(version, m.group(2).replace('_', ' '), f, sql));
+		}
+		Collections.sort(migrations, new Comparator<Migration>(){
+			public int compare(Migration a, Migration b){
+				return Integer.compare(a.version, b.version);
+			}
+		});
+		return migrations;
+	}
+
+	/**
+	 * Method to apply the pending migrations in version order.  Prints one
+	 * line per migration applied.
+	 *
+	 * @return number of migrations applied
+	 * @throws java.sql.SQLException when a migration failed or an applied one was changed
+	 * @throws java.io.IOException when the migration files could not be read
+	 */
+	public int migrate() throws SQLException, IOException {
+		List<Migration> migrations = load();
+		PooledConnection pc = this._esql.getPool().borrow();
+		Connection conn = pc.getConnection();
+		Statement stmt = conn.createStatement();
+		try{
+			stmt.execute(
+				"CREATE TABLE IF NOT EXISTS schema_migrations ("
+				+ "version INTEGER NOT NULL, "
+				+ "description VARCHAR(128) NOT NULL, "
+				+ "checksum CHAR(64) NOT NULL, "
+				+ "applied_at TIMESTAMP NOT NULL DEFAULT now(), "
+				+ "execution_ms INTEGER NOT NULL, "
+				+ "PRIMARY KEY (version))");
+			stmt.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+			try{
+				Map<Integer, String> applied = applied(stmt);
+				int count = 0;
+				for(Migration m : migrations){
+					String checksum = applied.remove(m.version);
+					if(checksum == null){
+						apply(conn, m);
+						count++;
+					}else if(!checksum.equals(m.checksum)){
+						throw new SQLException(m.file.getName() + " was changed after it was applied (checksum " + checksum + ", file " + m.checksum + ")");
+					}
+				}
+				for(Integer version : applied.keySet()){
+					System.err.println(String.format("Migration V%03d is applied but its file is missing", version));
+				}
+				return count;
+			}finally{
+				conn.setAutoCommit(true);
+				stmt.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+			}
+		}finally{
+			stmt.close();
+			this._esql.getPool().release(pc);
+		}
+	}
+
+	private static Map<Integer, String> applied(Statement stmt) throws SQLException {
+		Map<Integer, String> applied = new HashMap<Integer, String>();
+		ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_migrations");
+		try{
+			while(rs.next()){
+				applied.put(rs.getInt(1), rs.getString(2));
+			}
+		}finally{
+			rs.close();
+		}
+		return applied;
+	}
+
+	/**
+	 * Method to run one migration and record it.
+	 *
+	 * @param conn the connection holding the advisory lock
+	 * @param m the migration
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	private void apply(Connection conn, Migration m) throws SQLException {
+		List<String> statements = split(m.sql);
+		boolean transactional = !CONCURRENTLY.matcher(join(statements)).find();
+		long start = System.nanoTime();
+		conn.setAutoCommit(!transactional);
+		Statement stmt = conn.createStatement();
+		try{
+			for(String sql : statements){
+				if(!transactional){
+					dropInvalidIndex(conn, sql);
+				}
+				stmt.execute(sql);
+			}
+			long ms = (System.nanoTime() - start) / 1000000L;
+			PreparedStatement record = conn.prepareStatement(
+				"INSERT INTO schema_migrations (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)");
+			try{
+				DBproject.bind(record, new Object[]{m.version, m.description, m.checksum, (int) ms}).executeUpdate();
+			}finally{
+				record.close();
+			}
+			if(transactional){
+				conn.commit();
+			}
+			System.out.println(String.format("Applied %s in %d ms%s", m, ms, transactional ? "" : " (no transaction)"));
+		}catch (SQLException e){
+			if(transactional){
+				conn.rollback();
+			}
+			throw new SQLException(m.file.getName() + ": " + e.getMessage(), e.getSQLState(), e);
+		}finally{
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Method to drop the index a CREATE INDEX CONCURRENTLY is about to build
+	 * when an earlier, failed build left it INVALID.  IF NOT EXISTS would
+	 * otherwise skip it and leave the invalid index in place for good.
+	 *
+	 * @param conn a connection in autocommit mode
+	 * @param sql the statement about to run
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private static void dropInvalidIndex(Connection conn, String sql) throws SQLException {
+		Matcher m = CONCURRENT_INDEX.matcher(sql);
+		if(!m.lookingAt()){
+			return;
+		}
+		PreparedStatement stmt = conn.prepareStatement(
+			"SELECT 1 FROM pg_class C, pg_index I"
+			+ " WHERE I.indexrelid = C.oid AND C.relname = lower(?) AND NOT I.indisvalid AND pg_table_is_visible(C.oid)");
+		try{
+			stmt.setString(1, m.group(1));
+			ResultSet rs = stmt.executeQuery();
+			if(!rs.next()){
+				return;
+			}
+		}finally{
+			stmt.close();
+		}
+		System.out.println("Dropping invalid index " + m.group(1));
+		Statement drop = conn.createStatement();
+		try{
+			drop.execute("DROP INDEX CONCURRENTLY IF EXISTS " + m.group(1));
+		}finally{
+			drop.close();
+		}
+	}
+
+	/**
+	 * Method to split a script into statements on the semicolons outside
+	 * quotes, dollar quotes and comments.  Comments are dropped.
+	 *
+	 * @param script the SQL script
+	 * @return the non-empty statements, without their semicolons
+	 */
+	static List<String> split(String script){
+		List<String> statements = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		int i = 0;
+		int n = script.length();
+		while(i < n){
+			char c = script.charAt(i);
+			if(c == '-' && i + 1 < n && script.charAt(i + 1) == '-'){
+				while(i < n && script.charAt(i) != '\n'){
+					i++;
+				}
+			}else if(c == '/' && i + 1 < n && script.charAt(i + 1) == '*'){
+				int end = script.indexOf("*/", i + 2);
+				i = end < 0 ? n : end + 2;
+				current.append(' ');
+			}else if(c == '\'' || c == '"'){
+				int end = i + 1;
+				while(end < n && script.charAt(end) != c){
+					end++;
+				}
+				end = Math.min(n, end + 1);
+				current.append(script, i, end);
+				i = end;
+			}else if(c == '$' && dollarTag(script, i) != null){
+				String tag = dollarTag(script, i);
+				int end = script.indexOf(tag, i + tag.length());
+				end = end < 0 ? n : end + tag.length();
+				current.append(script, i, end);
+				i = end;
+			}else if(c == ';'){
+				add(statements, current);
+				i++;
+			}else{
+				current.append(c);
+				i++;
+			}
+		}
+		add(statements, current);
+		return statements;
+	}
+
+	/**
+	 * @return the dollar quote tag ($$ or $name$) starting at i, or null
+	 */
+	private static String dollarTag(String script, int i){
+		int end = i + 1;
+		while(end < script.length() && (Character.isLetterOrDigit(script.charAt(end)) || script.charAt(end) == '_')){
+			end++;
+		}
+		if(end >= script.length() || script.charAt(end) != '$' || (end > i + 1 && Character.isDigit(script.charAt(i + 1)))){
+			return null;
+		}
+		return script.substring(i, end + 1);
+	}
+
+	private static void add(List<String> statements, StringBuilder current){
+		String sql = current.toString().trim();
+		if(sql.length() > 0){
+			statements.add(sql);
+		}
+		current.setLength(0);
+	}
+
+	private static String join(List<String> statements){
+		StringBuilder all = new StringBuilder();
+		for(String sql : statements){
+			all.append(sql).append('\n');
+		}
+		return all.toString();
+	}
+
+	private static String sha256(String text){
+		try{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(64);
+			for(byte b : digest){
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		}catch (NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class measures throughput and latency percentiles of the query
+ * helpers, the id allocators and the SQL behind every menu operation against
+ * a database loaded from code/data.  Each benchmark is warmed up, then run by
+ * a number of threads for a fixed time.  Results go to a tab separated file
+ * (one line per benchmark); given a baseline file from an earlier run, every
+ * benchmark whose throughput dropped by more than the tolerance is reported
+ * and the exit status is 1.
+ *
+ * Bookings run in a transaction that is rolled back, so the benchmark leaves
+ * the data as it found it, apart from gaps in the id sequences.
+ *
+ * Usage: java -cp lib/*:bin/ OperationBenchmark <dbname> <port> <user> [results.tsv] [baseline.tsv]
+ *
+ * Settings (system properties): dbproject.bench.warmupSeconds (2),
+ * dbproject.bench.seconds (5), dbproject.bench.threads (1),
+ * dbproject.bench.tolerance (0.10), dbproject.bench.filter (run only the
+ * benchmarks whose name contains it).
+ *
+ */
+
+public class OperationBenchmark{
+	static final String HEADER = "benchmark\tthreads\toperations\tops_per_sec\tp50_us\tp99_us\tp999_us\tmax_us";
+
+	/**
+	 * One benchmarked operation.  Called concurrently by the benchmark
+	 * threads; each thread passes its own random generator.
+	 */
+	interface Operation{
+		void run(Random rnd) throws Exception;
+	}
+
+	/**
+	 * Thrown to roll a benchmark transaction back.
+	 */
+	private static final class Rollback extends RuntimeException{
+		private static final long serialVersionUID = 1L;
+
+		Rollback(){
+			super(null, null, false, false);
+		}
+	}
+
+	private static final PrintStream NULL_OUT = new PrintStream(new OutputStream(){
+		public void write(int b){}
+		public void write(byte[] b, int off, int len){}
+	});
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + OperationBenchmark.class.getName()
+			                   + " <dbname> <port> <user> [results.tsv] [baseline.tsv]");
+			return;
+		}
+		final int threads = Integer.getInteger("dbproject.bench.threads", 1);
+		final long warmup = Long.getLong("dbproject.bench.warmupSeconds", 2L);
+		final long seconds = Long.getLong("dbproject.bench.seconds", 5L);
+		final String filter = System.getProperty("dbproject.bench.filter", "");
+		File results = new File(args.length > 3 ? args[3] : "benchmark.tsv");
+		File baseline = args.length > 4 ? new File(args[4]) : null;
+
+		if(System.getProperty("dbproject.pool.maxSize") == null){
+			System.setProperty("dbproject.pool.maxSize", String.valueOf(Math.max(threads, 10)));
+		}
+		Class.forName("org.postgresql.Driver");
+		final DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		final PrintStream stdout = System.out;
+		List<String> lines = new ArrayList<String>();
+		try{
+			esql.getIdAllocator().init();
+			Map<String, Operation> benchmarks = benchmarks(esql);
+			stdout.println(HEADER);
+			for(Map.Entry<String, Operation> b : benchmarks.entrySet()){
+				if(!b.getKey().contains(filter)){
+					continue;
+				}
+				//operations that print must not measure the terminal
+				System.setOut(NULL_OUT);
+				try{
+					measure(b.getValue(), threads, warmup * 1000L);
+					esql.getSeatCache().clear();
+					String line = b.getKey() + "\t" + threads + "\t" + measure(b.getValue(), threads, seconds * 1000L);
+					lines.add(line);
+					stdout.println(line);
+				}finally{
+					System.setOut(stdout);
+					esql.getSeatCache().clear();
+				}
+			}
+		}finally{
+			esql.cleanup();
+		}
+
+		PrintWriter out = new PrintWriter(new FileWriter(results));
+		try{
+			out.println(HEADER);
+			for(String line : lines){
+				out.println(line);
+			}
+		}finally{
+			out.close();
+		}
+		System.out.println("Results written to " + results.getPath());
+
+		if(baseline != null && compare(baseline, lines, Double.parseDouble(System.getProperty("dbproject.bench.tolerance", "0.10"))) > 0){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Method to build the benchmarks, keyed by name, in run order.  The
+	 * parameters are drawn from the loaded data.
+	 */
+	static Map<String, Operation> benchmarks(final DBproject esql) throws Exception {
+		final ColumnarResult schedule = esql.queryColumns(
+			"SELECT flightNum, departure_time - DATE '1970-01-01' FROM Schedule ORDER BY id LIMIT 1000");
+		final int[] customers = esql.queryColumns("SELECT id FROM Customer ORDER BY id LIMIT 10000").getIntColumn(0);
+		if(schedule.size() == 0 || customers.length == 0){
+			throw new IllegalStateException("Load the tables from code/data first (mode load).");
+		}
+		final int[] flights = schedule.getIntColumn(0);
+		final int[] departures = schedule.getIntColumn(1);
+		final String[] statuses = {"W", "C", "R"};
+
+		Map<String, Operation> b = new LinkedHashMap<String, Operation>();
+		b.put("helper.executeQuery", new Operation(){
+			public void run(Random rnd) throws Exception {
+				esql.executeQuery("SELECT * FROM Flight WHERE fnum = ?", flights[rnd.nextInt(flights.length)]);
+			}
+		});
+		b.put("helper.executeQueryAndReturnResult", new Operation(){
+			public void run(Random rnd) throws Exception {
+				esql.executeQueryAndReturnResult("SELECT * FROM Flight WHERE fnum = ?", flights[rnd.nextInt(flights.length)]);
+			}
+		});
+		b.put("helper.executeQueryAndPrintResult", new Operation(){
+			public void run(Random rnd) throws Exception {
+				esql.executeQueryAndPrintResult("SELECT * FROM Flight WHERE fnum = ?", flights[rnd.nextInt(flights.length)]);
+			}
+		});
+		b.put("helper.executeQueryAndPrintResult.scan", new Operation(){
+			public void run(Random rnd) throws Exception {
+				esql.executeQueryAndPrintResult("SELECT * FROM Schedule");
+			}
+		});
+		for(final String table : new String[]{"Flight", "Pilot", "Plane", "Repairs", "Technician", "Customer", "FlightInfo", "Reservation", "Schedule"}){
+			b.put("ids.get" + table + "ID", new Operation(){
+				public void run(Random rnd) throws Exception {
+					esql.getIdAllocator().next(table);
+				}
+			});
+		}
+		b.put("op.BookFlight", new Operation(){
+			public void run(Random rnd) throws Exception {
+				final int cid = customers[rnd.nextInt(customers.length)];
+				final int fid = flights[rnd.nextInt(flights.length)];
+				final boolean confirmed = rnd.nextBoolean();
+				try{
+					esql.inTransaction(new DBproject.TransactionWork<Void>(){
+						public Void run() throws java.sql.SQLException {
+							esql.getBookingEngine().book(cid, fid, confirmed);
+							throw new Rollback();
+						}
+					});
+				}catch (Rollback e){
+					// leaves the data unchanged.
+				}
+			}
+		});
+		b.put("op.ListNumberOfAvailableSeats", new Operation(){
+			public void run(Random rnd) throws Exception {
+				int i = rnd.nextInt(flights.length);
+				//measure the query, not the cache
+				esql.getSeatCache().invalidate(flights[i]);
+				DBproject.getAvailableSeats(esql, flights[i], date(departures[i]));
+			}
+		});
+		b.put("op.ListNumberOfAvailableSeats.cached", new Operation(){
+			public void run(Random rnd) throws Exception {
+				int i = rnd.nextInt(flights.length);
+				DBproject.getAvailableSeats(esql, flights[i], date(departures[i]));
+			}
+		});
+		b.put("op.ListsTotalNumberOfRepairsPerPlane", new Operation(){
+			public void run(Random rnd) throws Exception {
+				DBproject.repairsPerPlane(esql).print(System.out, esql.getOutputFormat());
+			}
+		});
+		b.put("op.ListTotalNumberOfRepairsPerYear", new Operation(){
+			public void run(Random rnd) throws Exception {
+				DBproject.repairsPerYear(esql).print(System.out, esql.getOutputFormat());
+			}
+		});
+		b.put("op.FindPassengersCountWithStatus", new Operation(){
+			public void run(Random rnd) throws Exception {
+				DBproject.countPassengersWithStatus(esql, flights[rnd.nextInt(flights.length)], statuses[rnd.nextInt(statuses.length)]);
+			}
+		});
+		return b;
+	}
+
+	private static Date date(int epochDay){
+		return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+	}
+
+	/**
+	 * Method to run an operation on several threads for a while.
+	 *
+	 * @return the tab separated result columns after the benchmark name and thread count
+	 */
+	static String measure(final Operation op, int threads, final long millis) throws Exception {
+		final long[][] latencies = new long[threads][];
+		final Exception[] failure = new Exception[1];
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++){
+			final int id = t;
+			workers[t] = new Thread(new Runnable(){
+				public void run(){
+					Random rnd = new Random(id);
+					long[] mine = new long[1024];
+					int n = 0;
+					try{
+						start.await();
+						long deadline = System.nanoTime() + millis * 1000000L;
+						long now;
+						while((now = System.nanoTime()) < deadline){
+							op.run(rnd);
+							if(n == mine.length){
+								mine = Arrays.copyOf(mine, n * 2);
+							}
+							mine[n++] = System.nanoTime() - now;
+						}
+					}catch (Exception e){
+						synchronized(failure){
+							failure[0] = e;
+						}
+					}
+					latencies[id] = Arrays.copyOf(mine, n);
+				}
+			}, "bench-" + t);
+			workers[t].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for(Thread w : workers){
+			w.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+		if(failure[0] != null){
+			throw failure[0];
+		}
+
+		int total = 0;
+		for(long[] l : latencies){
+			total += l.length;
+		}
+		long[] all = new long[total];
+		int k = 0;
+		for(long[] l : latencies){
+			System.arraycopy(l, 0, all, k, l.length);
+			k += l.length;
+		}
+		Arrays.sort(all);
+		return total + "\t" + String.format("%.1f", total * 1e9 / elapsed)
+		     + "\t" + BookingBenchmark.percentile(all, 0.50) / 1000L
+		     + "\t" + BookingBenchmark.percentile(all, 0.99) / 1000L
+		     + "\t" + BookingBenchmark.percentile(all, 0.999) / 1000L
+		     + "\t" + (all.length == 0 ? 0 : all[all.length - 1] / 1000L);
+	}
+
+	/**
+	 * Method to compare results against a baseline file of the same format.
+	 * Benchmarks missing from either side are skipped.
+	 *
+	 * @param baseline the baseline file
+	 * @param lines the result lines of this run
+	 * @param tolerance the allowed relative drop in throughput, e.g. 0.10
+	 * @return number of regressions
+	 */
+	static int compare(File baseline, List<String> lines, double tolerance) throws IOException {
+		Map<String, Double> before = new HashMap<String, Double>();
+		BufferedReader in = new BufferedReader(new FileReader(baseline));
+		try{
+			String line;
+			while((line = in.readLine()) != null){
+				String[] f = line.split("\t");
+				if(f.length >= 4 && !line.equals(HEADER)){
+					before.put(f[0] + "\t" + f[1], Double.valueOf(f[3]));
+				}
+			}
+		}finally{
+			in.close();
+		}
+		int regressions = 0;
+		for(String line : lines){
+			String[] f = line.split("\t");
+			Double old = before.get(f[0] + "\t" + f[1]);
+			if(old == null || old.doubleValue() <= 0){
+				continue;
+			}
+			double now = Double.parseDouble(f[3]);
+			double change = (now - old.doubleValue()) / old.doubleValue();
+			boolean regressed = change < -tolerance;
+			if(regressed){
+				regressions++;
+			}
+			System.out.println(String.format("%-45s %12.1f -> %12.1f ops/s %+7.1f%%%s", f[0], old, now, change * 100,
+			                                 regressed ? "  REGRESSION" : ""));
+		}
+		System.out.println(regressions + " regression(s) beyond " + Math.round(tolerance * 100) + "%");
+		return regressions;
+	}
+}
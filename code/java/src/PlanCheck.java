@@ -0,0 +1,173 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class guards the query plans of the operations.  It runs EXPLAIN on
+ * the query behind each operation, with parameter values taken from the
+ * data, and fails the operation when the plan reads a table of at least
+ * dbproject.plancheck.minRows rows (1000) with a sequential scan, which is
+ * what a missing or unusable index looks like.  The inserts are not checked:
+ * they only probe primary keys.
+ *
+ */
+
+public class PlanCheck{
+	private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+	//maps a row to {flight number, date}
+	private static final DBproject.RowMapper<Object[]> FLIGHT_DATE = new DBproject.RowMapper<Object[]>(){
+		public Object[] map(ResultSet rs) throws SQLException {
+			return new Object[]{rs.getInt(1), rs.getDate(2)};
+		}
+	};
+
+	private final DBproject _esql;
+	private final long _minRows;
+
+	/**
+	 * @param esql the database
+	 * @param minRows smallest table a sequential scan is reported for
+	 */
+	public PlanCheck(DBproject esql, long minRows){
+		this._esql = esql;
+		this._minRows = minRows;
+	}
+
+	/**
+	 * Method to check every operation's plan.  Prints one line per
+	 * operation, and the plan of each that failed.
+	 *
+	 * @return number of operations whose plan failed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int run() throws SQLException {
+		//fresh statistics, so the planner sees the tables as they are
+		this._esql.executeUpdate("ANALYZE");
+		Map<String, Long> sizes = tableSizes();
+
+		//a scheduled flight and a customer to plan with
+		int fid = 0;
+		Date departure = new Date(System.currentTimeMillis());
+		List<Object[]> scheduled = this._esql.queryForList(
+			"SELECT flightNum, departure_time FROM Schedule ORDER BY id LIMIT 1", FLIGHT_DATE);
+		if(!scheduled.isEmpty()){
+			fid = (Integer) scheduled.get(0)[0];
+			departure = (Date) scheduled.get(0)[1];
+		}
+		Integer cid = this._esql.queryForObject("SELECT MIN(id) FROM Customer", Rows.INT);
+		Integer plane = this._esql.queryForObject("SELECT MIN(id) FROM Plane", Rows.INT);
+
+		int failed = 0;
+		failed += check(sizes, "ListNumberOfAvailableSeats", DBproject.SEATS_SQL, fid, departure, fid, fid);
+		failed += check(sizes, "ListNumberOfAvailableSeats", DBproject.SOLD_SQL, fid, departure, fid, fid);
+		failed += check(sizes, "FindPassengersCountWithStatus", DBproject.PASSENGERS_WITH_STATUS_SQL, fid, "C");
+		failed += check(sizes, "BookFlight", BookingEngine.BOOK_SQL, fid, -1, cid == null ? 0 : cid.intValue(), fid, "R");
+		failed += check(sizes, "BookFlightAsync", BookingQueue.BATCH_SQL, "{-1}", "{" + (cid == null ? 0 : cid.intValue()) + "}", "{" + fid + "}", "{R}");
+		failed += check(sizes, "ListsTotalNumberOfRepairsPerPlane", RepairStats.PER_PLANE_SQL);
+		failed += check(sizes, "ListTotalNumberOfRepairsPerYear", RepairStats.PER_YEAR_SQL);
+		failed += check(sizes, "RepairsPerPlaneAndYear", RepairStats.PER_PLANE_AND_YEAR_SQL);
+		failed += check(sizes, "RepairsPerCode", RepairStats.PER_CODE_SQL);
+		failed += check(sizes, "CancelReservation", WaitlistPromoter.CANCEL_SQL, 0, 0);
+		failed += check(sizes, "PromoteWaitlist", WaitlistPromoter.SWEEP_SQL, Integer.MIN_VALUE, 500);
+		failed += check(sizes, "findFlight", "SELECT * FROM Flight WHERE fnum = ?", fid);
+		failed += check(sizes, "findPlane", "SELECT * FROM Plane WHERE id = ?", plane == null ? 0 : plane.intValue());
+		return failed;
+	}
+
+	/**
+	 * Method to explain one query and report the large tables it scans.
+	 *
+	 * @param sizes estimated rows per table, by lower case name
+	 * @param operation the operation the query belongs to
+	 * @param query the query
+	 * @param params values for the placeholders
+	 * @return 1 when the plan failed, otherwise 0
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private int check(Map<String, Long> sizes, String operation, String query, Object... params) throws SQLException {
+		List<String> plan = explain(query, params);
+		List<String> problems = new ArrayList<String>();
+		for(String line : plan){
+			Matcher m = SEQ_SCAN.matcher(line);
+			while(m.find()){
+				Long rows = sizes.get(m.group(1).toLowerCase());
+				if(rows != null && rows.longValue() >= this._minRows){
+					problems.add(m.group(1) + " (" + rows + " rows)");
+				}
+			}
+		}
+		if(problems.isEmpty()){
+			System.out.println(String.format("ok    %s", operation));
+			return 0;
+		}
+		System.out.println(String.format("FAIL  %s: sequential scan of %s", operation, problems));
+		for(String line : plan){
+			System.out.println("      " + line);
+		}
+		return 1;
+	}
+
+	private List<String> explain(String query, Object[] params) throws SQLException {
+		List<String> plan = new ArrayList<String>();
+		PooledConnection pc = this._esql.acquireConnection();
+		try{
+			//not through the statement cache: these are one-offs
+			PreparedStatement stmt = DBproject.bind(pc.getConnection().prepareStatement("EXPLAIN " + query), params);
+			try{
+				ResultSet rs = stmt.executeQuery();
+				while(rs.next()){
+					plan.add(rs.getString(1));
+				}
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			this._esql.releaseConnection(pc);
+		}
+		return plan;
+	}
+
+	/**
+	 * @return the planner's row estimate of every table on the search path, by lower case name
+	 */
+	private Map<String, Long> tableSizes() throws SQLException {
+		Map<String, Long> sizes = new HashMap<String, Long>();
+		PooledConnection pc = this._esql.acquireConnection();
+		try{
+			Statement stmt = pc.getConnection().createStatement();
+			try{
+				ResultSet rs = stmt.executeQuery(
+					"SELECT relname, CAST(GREATEST(reltuples, 0) AS int8) FROM pg_class WHERE relkind = 'r' AND pg_table_is_visible(oid)");
+				while(rs.next()){
+					sizes.put(rs.getString(1).toLowerCase(), rs.getLong(2));
+				}
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			this._esql.releaseConnection(pc);
+		}
+		return sizes;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class wraps one physical connection owned by a ConnectionPool and
+ * keeps the bookkeeping the pool needs to validate and evict it.  It also
+ * holds an LRU cache of the connection's prepared statements, so a statement
+ * is parsed and planned by the server once per connection instead of once per
+ * call.  A pooled connection is only used by one thread at a time.
+ *
+ */
+
+public class PooledConnection{
+	//reference to physical database connection
+	private final Connection _connection;
+	//last time (System.nanoTime) the connection was handed back to the pool
+	private long _lastUsed;
+	//prepared statements keyed by SQL text, least recently used first
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public PooledConnection(Connection connection, final int statementCacheSize){
+		this._connection = connection;
+		this._lastUsed = System.nanoTime();
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if(size() <= statementCacheSize){
+					return false;
+				}
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to return the physical connection.
+	 *
+	 * @return the underlying JDBC connection
+	 */
+	public Connection getConnection(){
+		return this._connection;
+	}
+
+	/**
+	 * Method to return a prepared statement for the given SQL, reusing the
+	 * cached one when this connection has prepared it before.  Callers must
+	 * not close the returned statement.
+	 *
+	 * @param sql the SQL text with ? placeholders
+	 * @return the prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = this._statements.get(sql);
+		if(ps == null || ps.isClosed()){
+			ps = this._connection.prepareStatement(sql);
+			this._statements.put(sql, ps);
+		}
+		else{
+			ps.clearParameters();
+		}
+		return ps;
+	}
+
+	/**
+	 * Method to return the number of statements currently cached.
+	 *
+	 * @return cached statement count
+	 */
+	public int getCachedStatementCount(){
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to mark the connection as just returned to the pool.
+	 */
+	void touch(){
+		this._lastUsed = System.nanoTime();
+	}
+
+	/**
+	 * Method to return how long the connection has been sitting idle.
+	 *
+	 * @return idle time in milliseconds
+	 */
+	long idleMillis(){
+		return (System.nanoTime() - this._lastUsed) / 1000000L;
+	}
+
+	/**
+	 * Method to close the physical connection, ignoring errors.
+	 */
+	void close(){
+		this._statements.clear();
+		try{
+			this._connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+
+	private static void closeQuietly(PreparedStatement ps){
+		try{
+			ps.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}
@@ -0,0 +1,591 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class caches the results of read queries, keyed by the statement
+ * text, its parameters and the kind of result.  Entries
+ * are evicted least recently used once there are more than maxEntries of
+ * them or they take more than maxBytes (estimated).
+ *
+ * Each entry remembers the tables its query reads, found by scanning the
+ * FROM and JOIN clauses.  A write through DBproject drops every entry
+ * reading a table the write names (INSERT INTO, UPDATE, DELETE FROM, ...)
+ * and bumps that table's version; a result whose tables changed while it
+ * was being read is not stored.  Statements the scan cannot place (DDL,
+ * unparsable SQL) drop everything.  Writes by other programs are not seen,
+ * which is why the cache is off unless dbproject.queryCache.maxEntries is
+ * set.  Queries naming no table or calling volatile functions (now(),
+ * random(), ...) and locking reads are never cached.
+ *
+ */
+
+public class QueryCache implements Metrics.Collector{
+	/** Returned by get() when the key is not cached. */
+	static final Object MISS = new Object();
+	//stands in for a cached null
+	private static final Object NULL = new Object();
+	//table name that stands for every table
+	static final String ALL = "*";
+	//parsed statements remembered; later ones are parsed on every call
+	private static final int MAX_PARSED = 1000;
+
+	private static final Pattern READ = Pattern.compile("\\b(?:FROM|JOIN)\\s+");
+	private static final Pattern WRITE = Pattern.compile(
+		"\\b(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM|TRUNCATE(?:\\s+TABLE)?|COPY)\\s+(?:ONLY\\s+)?([A-Z_][A-Z0-9_$.]*)");
+	private static final Pattern VOLATILE = Pattern.compile(
+		"\\b(?:NOW|RANDOM|NEXTVAL|SETVAL|CLOCK_TIMESTAMP|TIMEOFDAY|TXID_CURRENT|PG_\\w+)\\s*\\(|\\bCURRENT_(?:DATE|TIME|TIMESTAMP)\\b|\\bLOCALTIME|\\bFOR\\s+(?:UPDATE|SHARE|NO\\s+KEY|KEY)\\b");
+	private static final Pattern IDENTIFIER = Pattern.compile("([A-Z_][A-Z0-9_$]*)(?:\\.([A-Z_][A-Z0-9_$]*))?");
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+		"AS", "WHERE", "GROUP", "ORDER", "LIMIT", "OFFSET", "HAVING", "WINDOW", "UNION", "EXCEPT", "INTERSECT",
+		"JOIN", "INNER", "LEFT", "RIGHT", "FULL", "CROSS", "NATURAL", "OUTER", "ON", "USING", "FOR", "RETURNING",
+		"SET", "VALUES", "SELECT", "LATERAL", "ONLY"));
+
+	/**
+	 * Key of one cached result.
+	 */
+	static final class Key{
+		final Object kind;
+		final String sql;
+		final Object[] params;
+		private final int hash;
+
+		/**
+		 * @param kind what the result is, e.g. the helper and row mapper it came from
+		 * @param sql the statement
+		 * @param params the values bound to its placeholders
+		 */
+		Key(Object kind, String sql, Object[] params){
+			this.kind = kind;
+			this.sql = sql;
+			this.params = params == null ? new Object[0] : params.clone();
+			this.hash = 31 * (31 * kind.hashCode() + sql.hashCode()) + Arrays.hashCode(this.params);
+		}
+
+		public int hashCode(){
+			return this.hash;
+		}
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key)){
+				return false;
+			}
+			Key k = (Key) o;
+			return this.hash == k.hash && this.kind.equals(k.kind) && this.sql.equals(k.sql) && Arrays.equals(this.params, k.params);
+		}
+	}
+
+	/**
+	 * A read about to run: either answered from the cache, or to be stored
+	 * with store() once it ran.
+	 */
+	final class Lookup{
+		private final Key _key;
+		private final Set<String> _tables;
+		private final long[] _versions;
+		private final long _lagNanos;
+		/** the cached result, or MISS */
+		final Object value;
+
+		private Lookup(Key key, Set<String> tables, long lagNanos){
+			this._key = key;
+			this._tables = tables;
+			this._lagNanos = lagNanos;
+			this.value = get(key);
+			this._versions = this.value == MISS ? versions(tables) : null;
+		}
+
+		boolean isHit(){
+			return this.value != MISS;
+		}
+
+		/**
+		 * Method to cache the result of the read.
+		 *
+		 * @param result the result
+		 */
+		void store(Object result){
+			put(this._key, this._tables, this._versions, result, this._lagNanos);
+		}
+	}
+
+	private static final class Entry{
+		final Object value;
+		final Set<String> tables;
+		final long bytes;
+
+		Entry(Object value, Set<String> tables, long bytes){
+			this.value = value;
+			this.tables = tables;
+			this.bytes = bytes;
+		}
+	}
+
+	private final int _maxEntries;
+	private final long _maxBytes;
+	private final LinkedHashMap<Key, Entry> _entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	//table -> keys of the entries reading it
+	private final Map<String, Set<Key>> _byTable = new HashMap<String, Set<Key>>();
+	//table -> version, bumped by every write to it
+	private final Map<String, long[]> _versions = new HashMap<String, long[]>();
+	//table -> System.nanoTime() of its last write
+	private final Map<String, long[]> _written = new HashMap<String, long[]>();
+	private long _bytes = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _invalidations = 0;
+
+	//statement -> tables it reads (empty when not cacheable) or writes
+	private final ConcurrentHashMap<String, Set<String>> _reads = new ConcurrentHashMap<String, Set<String>>();
+	private final ConcurrentHashMap<String, Set<String>> _writes = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * @param maxEntries most results kept
+	 * @param maxBytes most estimated bytes kept
+	 */
+	public QueryCache(int maxEntries, long maxBytes){
+		if(maxEntries < 1 || maxBytes < 1){
+			throw new IllegalArgumentException("Invalid query cache size: " + maxEntries + " entries, " + maxBytes + " bytes");
+		}
+		this._maxEntries = maxEntries;
+		this._maxBytes = maxBytes;
+	}
+
+	public long getMaxBytes(){
+		return this._maxBytes;
+	}
+
+	/**
+	 * Method to start a cached read.
+	 *
+	 * @param kind what the result is, e.g. the helper and row mapper it comes from
+	 * @param sql the query
+	 * @param params the values bound to its placeholders
+	 * @param lagNanos how far the source may lag behind the primary, 0 for the primary
+	 * @return the lookup, or null when the query must not be cached
+	 */
+	public Lookup lookup(Object kind, String sql, Object[] params, long lagNanos){
+		Set<String> tables = readTables(sql);
+		return tables == null ? null : new Lookup(new Key(kind, sql, params), tables, lagNanos);
+	}
+
+	/**
+	 * Method to look up a result.
+	 *
+	 * @param key the key
+	 * @return the cached result (possibly null), or MISS
+	 */
+	public synchronized Object get(Key key){
+		Entry e = this._entries.get(key);
+		if(e == null){
+			this._misses++;
+			return MISS;
+		}
+		this._hits++;
+		return e.value == NULL ? null : e.value;
+	}
+
+	/**
+	 * Method to take the versions of tables before reading them, for put().
+	 *
+	 * @param tables the tables a query reads
+	 * @return their versions
+	 */
+	public synchronized long[] versions(Set<String> tables){
+		long[] versions = new long[tables.size()];
+		int i = 0;
+		for(String t : tables){
+			long[] v = this._versions.get(t);
+			if(v == null){
+				//known from now on, so invalidate(ALL) bumps it too
+				v = new long[1];
+				this._versions.put(t, v);
+			}
+			versions[i++] = v[0];
+		}
+		return versions;
+	}
+
+	/**
+	 * Method to store a result, unless one of its tables was written since
+	 * versions() was taken.  A result read from a replica is also dropped
+	 * when one of its tables was written within the last lagNanos, since
+	 * the replica may not have that write yet.
+	 *
+	 * @param key the key
+	 * @param tables the tables the query reads
+	 * @param versions the versions taken before the query ran
+	 * @param value the result
+	 * @param lagNanos how far the source may lag behind the primary, 0 for the primary
+	 */
+	public synchronized void put(Key key, Set<String> tables, long[] versions, Object value, long lagNanos){
+		long now = System.nanoTime();
+		int i = 0;
+		for(String t : tables){
+			if(this._versions.get(t)[0] != versions[i++]){
+				return;
+			}
+			long[] w = this._written.get(t);
+			if(lagNanos > 0 && w != null && now - w[0] < lagNanos){
+				return;
+			}
+		}
+		long bytes = 64 + estimate(key.sql) + estimate(value);
+		if(bytes > this._maxBytes){
+			return;
+		}
+		remove(key);
+		this._entries.put(key, new Entry(value == null ? NULL : value, tables, bytes));
+		this._bytes += bytes;
+		for(String t : tables){
+			Set<Key> keys = this._byTable.get(t);
+			if(keys == null){
+				keys = new HashSet<Key>();
+				this._byTable.put(t, keys);
+			}
+			keys.add(key);
+		}
+		Iterator<Map.Entry<Key, Entry>> it = this._entries.entrySet().iterator();
+		while(it.hasNext() && (this._entries.size() > this._maxEntries || this._bytes > this._maxBytes)){
+			Map.Entry<Key, Entry> eldest = it.next();
+			it.remove();
+			unlink(eldest.getKey(), eldest.getValue());
+			this._evictions++;
+		}
+	}
+
+	/**
+	 * Method to drop the results reading any of some tables.
+	 *
+	 * @param tables the tables written; ALL drops everything
+	 */
+	public synchronized void invalidate(Collection<String> tables){
+		long now = System.nanoTime();
+		if(tables.contains(ALL)){
+			this._invalidations += this._entries.size();
+			this._entries.clear();
+			this._byTable.clear();
+			this._bytes = 0;
+			tables = new ArrayList<String>(this._versions.keySet());
+		}
+		for(String t : tables){
+			bump(t, now);
+			Set<Key> keys = this._byTable.remove(t);
+			if(keys == null){
+				continue;
+			}
+			for(Key k : keys){
+				if(remove(k)){
+					this._invalidations++;
+				}
+			}
+		}
+	}
+
+	private void bump(String table, long now){
+		long[] v = this._versions.get(table);
+		if(v == null){
+			//no reader has taken its version yet
+			v = new long[1];
+			this._versions.put(table, v);
+		}
+		v[0]++;
+		long[] w = this._written.get(table);
+		if(w == null){
+			this._written.put(table, new long[]{now});
+		}else{
+			w[0] = now;
+		}
+	}
+
+	private boolean remove(Key key){
+		Entry e = this._entries.remove(key);
+		if(e == null){
+			return false;
+		}
+		unlink(key, e);
+		return true;
+	}
+
+	private void unlink(Key key, Entry e){
+		this._bytes -= e.bytes;
+		for(String t : e.tables){
+			Set<Key> keys = this._byTable.get(t);
+			if(keys != null){
+				keys.remove(key);
+				if(keys.isEmpty()){
+					this._byTable.remove(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to find the tables a query reads.
+	 *
+	 * @param sql the query
+	 * @return the lower case table names, or null when the query must not be cached
+	 */
+	public Set<String> readTables(String sql){
+		Set<String> tables = this._reads.get(sql);
+		if(tables == null){
+			tables = parseReads(sql);
+			if(this._reads.size() < MAX_PARSED){
+				this._reads.put(sql, tables);
+			}
+		}
+		return tables.isEmpty() ? null : tables;
+	}
+
+	/**
+	 * Method to find the tables a statement writes.
+	 *
+	 * @param sql the statement
+	 * @return the lower case table names, or {ALL} when they cannot be told
+	 */
+	public Set<String> writtenTables(String sql){
+		Set<String> tables = this._writes.get(sql);
+		if(tables == null){
+			tables = parseWrites(sql);
+			if(this._writes.size() < MAX_PARSED){
+				this._writes.put(sql, tables);
+			}
+		}
+		return tables;
+	}
+
+	static Set<String> parseReads(String sql){
+		String text = Metrics.normalize(sql).toUpperCase(Locale.ROOT);
+		if(!(text.startsWith("SELECT") || text.startsWith("WITH")) || VOLATILE.matcher(text).find() || WRITE.matcher(text).find()){
+			return Collections.emptySet();
+		}
+		Set<String> tables = new HashSet<String>();
+		Matcher from = READ.matcher(text);
+		while(from.find()){
+			//a comma separated list: FROM Plane P, FlightInfo FI, ...
+			int pos = from.end();
+			while(true){
+				Matcher id = IDENTIFIER.matcher(text);
+				id.region(pos, text.length());
+				if(!id.lookingAt()){
+					break;
+				}
+				pos = skipBlanks(text, id.end());
+				String name = id.group(2) != null ? id.group(2) : id.group(1);
+				if(KEYWORDS.contains(id.group(1))){
+					break;
+				}
+				if(pos < text.length() && text.charAt(pos) == '('){
+					//a function such as unnest(...): its arguments are scanned on their own
+					break;
+				}
+				tables.add(name.toLowerCase(Locale.ROOT));
+				//optional alias
+				Matcher alias = IDENTIFIER.matcher(text);
+				alias.region(pos, text.length());
+				if(alias.lookingAt() && alias.group(2) == null && (alias.group(1).equals("AS") || !KEYWORDS.contains(alias.group(1)))){
+					pos = skipBlanks(text, alias.end());
+					if(alias.group(1).equals("AS")){
+						alias.region(pos, text.length());
+						if(alias.lookingAt()){
+							pos = skipBlanks(text, alias.end());
+						}
+					}
+				}
+				if(pos < text.length() && text.charAt(pos) == ','){
+					pos = skipBlanks(text, pos + 1);
+					continue;
+				}
+				break;
+			}
+		}
+		return tables;
+	}
+
+	static Set<String> parseWrites(String sql){
+		String text = Metrics.normalize(sql).toUpperCase(Locale.ROOT);
+		Set<String> tables = new HashSet<String>();
+		Matcher m = WRITE.matcher(text);
+		while(m.find()){
+			String name = m.group(1);
+			name = name.substring(name.lastIndexOf('.') + 1);
+			if(!KEYWORDS.contains(name)){
+				tables.add(name.toLowerCase(Locale.ROOT));
+			}
+		}
+		if(tables.isEmpty() || text.startsWith("CREATE") || text.startsWith("DROP") || text.startsWith("ALTER") || text.startsWith("TRUNCATE")){
+			return Collections.singleton(ALL);
+		}
+		return tables;
+	}
+
+	private static int skipBlanks(String text, int pos){
+		while(pos < text.length() && text.charAt(pos) == ' '){
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Method to estimate the memory a cached value takes.
+	 */
+	private static long estimate(Object value){
+		if(value == null){
+			return 8;
+		}
+		if(value instanceof String){
+			return 40 + 2L * ((String) value).length();
+		}
+		if(value instanceof CompactRows){
+			return 64 + ((CompactRows) value).getByteSize();
+		}
+		if(value instanceof ColumnarResult){
+			return 64 + ((ColumnarResult) value).getByteSize();
+		}
+		if(value instanceof Collection){
+			long bytes = 24;
+			for(Object o : (Collection<?>) value){
+				bytes += 8 + estimate(o);
+			}
+			return bytes;
+		}
+		if(value instanceof Object[]){
+			long bytes = 16;
+			for(Object o : (Object[]) value){
+				bytes += 8 + estimate(o);
+			}
+			return bytes;
+		}
+		if(value instanceof Printed){
+			return ((Printed) value).bytes;
+		}
+		return 32;
+	}
+
+	/**
+	 * A result as printed by executeQueryAndPrintResult: column names and
+	 * types, and the rows as CompactRows.
+	 */
+	static final class Printed implements DBproject.RowHandler{
+		String[] names = null;
+		boolean[] numeric = null;
+		CompactRows rows = new CompactRows();
+		long bytes = 64;
+		private final long _limit;
+
+		/**
+		 * @param limit most bytes to record; past it the result is no longer kept
+		 */
+		Printed(long limit){
+			this._limit = limit;
+		}
+
+		boolean isComplete(){
+			return this.bytes <= this._limit;
+		}
+
+		public void handle(ResultSet rs) throws SQLException {
+			if(this.names == null){
+				ResultSetMetaData rsmd = rs.getMetaData();
+				this.names = new String[rsmd.getColumnCount()];
+				this.numeric = new boolean[this.names.length];
+				for(int c = 0; c < this.names.length; c++){
+					this.names[c] = rsmd.getColumnName(c + 1);
+					this.numeric[c] = ResultRenderer.isNumeric(rsmd.getColumnType(c + 1));
+				}
+			}
+			if(!isComplete()){
+				return;
+			}
+			this.rows.handle(rs);
+			//counts the room kept for more rows too, which trimToSize() releases
+			this.bytes = 64 + this.rows.getByteSize();
+			if(!isComplete()){
+				this.rows = new CompactRows();
+			}
+		}
+
+		/**
+		 * Method to release the room kept for more rows, before the result is
+		 * cached.
+		 */
+		void trimToSize(){
+			this.rows.trimToSize();
+			this.bytes = 64 + this.rows.getByteSize();
+		}
+
+		/**
+		 * Method to print the rows again.
+		 *
+		 * @param renderer where to print
+		 * @throws java.sql.SQLException when the output could not be written
+		 */
+		void replay(ResultRenderer renderer) throws SQLException {
+			if(this.rows.isEmpty()){
+				return;
+			}
+			renderer.start(this.names, this.numeric);
+			String[] row = new String[this.names.length];
+			for(int r = 0; r < this.rows.size(); r++){
+				this.rows.row(r, row);
+				renderer.row(row);
+			}
+		}
+	}
+
+	public synchronized void write(Writer out) throws IOException {
+		long lookups = this._hits + this._misses;
+		out.write("# HELP dbproject_query_cache_hits_total Reads answered from the query cache.\n");
+		out.write("# TYPE dbproject_query_cache_hits_total counter\n");
+		out.write("dbproject_query_cache_hits_total " + this._hits + "\n");
+		out.write("# HELP dbproject_query_cache_misses_total Reads the query cache could not answer.\n");
+		out.write("# TYPE dbproject_query_cache_misses_total counter\n");
+		out.write("dbproject_query_cache_misses_total " + this._misses + "\n");
+		out.write("# HELP dbproject_query_cache_hit_ratio Hits over lookups since start.\n");
+		out.write("# TYPE dbproject_query_cache_hit_ratio gauge\n");
+		out.write("dbproject_query_cache_hit_ratio " + (lookups == 0 ? 0.0 : (double) this._hits / lookups) + "\n");
+		out.write("# HELP dbproject_query_cache_evictions_total Results evicted to stay within the size limits.\n");
+		out.write("# TYPE dbproject_query_cache_evictions_total counter\n");
+		out.write("dbproject_query_cache_evictions_total " + this._evictions + "\n");
+		out.write("# HELP dbproject_query_cache_invalidations_total Results dropped because a table they read was written.\n");
+		out.write("# TYPE dbproject_query_cache_invalidations_total counter\n");
+		out.write("dbproject_query_cache_invalidations_total " + this._invalidations + "\n");
+		out.write("# HELP dbproject_query_cache_entries Results cached.\n");
+		out.write("# TYPE dbproject_query_cache_entries gauge\n");
+		out.write("dbproject_query_cache_entries " + this._entries.size() + "\n");
+		out.write("# HELP dbproject_query_cache_bytes Estimated bytes of the results cached.\n");
+		out.write("# TYPE dbproject_query_cache_bytes gauge\n");
+		out.write("dbproject_query_cache_bytes " + this._bytes + "\n");
+	}
+}
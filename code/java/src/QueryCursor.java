@@ -0,0 +1,141 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class iterates over the rows of a query one record at a time.  The
+ * query runs inside a transaction with a fetch size, so the driver reads the
+ * rows through a server-side cursor instead of buffering the whole result.
+ * The cursor holds its pooled connection until the last row has been read or
+ * close() is called, whichever happens first.  A cursor opened inside
+ * DBproject.inTransaction() has no pool; it only closes its result set and
+ * leaves the transaction to its owner.
+ *
+ */
+
+public class QueryCursor implements Iterator<List<String>>, AutoCloseable{
+	private final ConnectionPool _pool;
+	private PooledConnection _pc;
+	private final PreparedStatement _stmt;
+	private final ResultSet _rs;
+	private final int _numCol;
+	//whether _rs is positioned on a row that has not been returned yet
+	private boolean _pending = false;
+	private boolean _done = false;
+
+	QueryCursor(ConnectionPool pool, PooledConnection pc, PreparedStatement stmt, ResultSet rs) throws SQLException {
+		this._pool = pool;
+		this._pc = pc;
+		this._stmt = stmt;
+		this._rs = rs;
+		this._numCol = rs.getMetaData().getColumnCount();
+	}
+
+	/**
+	 * Method to return the underlying result set, e.g. to read column
+	 * metadata or typed values for the current row.
+	 *
+	 * @return the result set being iterated
+	 */
+	public ResultSet getResultSet(){
+		return this._rs;
+	}
+
+	public boolean hasNext(){
+		if(this._pending){
+			return true;
+		}
+		if(this._done){
+			return false;
+		}
+		try{
+			this._pending = this._rs.next();
+		}catch (SQLException e){
+			close();
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		if(!this._pending){
+			close();
+		}
+		return this._pending;
+	}
+
+	public List<String> next(){
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		this._pending = false;
+		try{
+			List<String> record = new ArrayList<String>(this._numCol);
+			for(int i = 1; i <= this._numCol; ++i){
+				record.add(this._rs.getString(i));
+			}
+			return record;
+		}catch (SQLException e){
+			close();
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Method to expose the remaining rows as a sequential stream.  Closing
+	 * the stream closes the cursor.
+	 *
+	 * @return a stream of records
+	 */
+	public Stream<List<String>> stream(){
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+		                    .onClose(new Runnable(){
+		                    	public void run(){
+		                    		close();
+		                    	}
+		                    });
+	}
+
+	/**
+	 * Method to end the cursor's transaction and return its connection to
+	 * the pool.  Safe to call more than once.
+	 */
+	public void close(){
+		if(this._pc == null){
+			return;
+		}
+		this._done = true;
+		this._pending = false;
+		try{
+			this._rs.close();
+			this._stmt.setFetchSize(0);
+			if(this._pool != null){
+				this._pc.getConnection().commit();
+			}
+		}catch (SQLException e){
+			// the pool rolls the transaction back on release.
+		}finally{
+			if(this._pool != null){
+				this._pool.release(this._pc);
+			}
+			this._pc = null;
+		}
+	}
+}
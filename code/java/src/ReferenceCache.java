@@ -0,0 +1,419 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class keeps Plane, Pilot and Technician in memory, so the existence
+ * checks of AddFlight and AddRepair and the seat count of a plane are a hash
+ * probe instead of a round trip.  The tables are loaded by start(), and the
+ * triggers of migration V004 keep them current: every change sends
+ * "<table>:<id>" on the reference_changed channel, which a listener thread
+ * receives on a connection of its own and answers by reloading that row
+ * (or the whole table for "<table>:*", sent by TRUNCATE).  The query cache
+ * entries reading the table are dropped along with it, so changes made by
+ * other instances reach those too.
+ *
+ * Notifications arrive after the writing transaction committed, so another
+ * instance's change can be missed for a few milliseconds; a lookup that
+ * misses is then answered by the database.  When the listener loses its
+ * connection it reconnects and reloads everything, since notifications
+ * sent in between are lost.
+ *
+ * Plane makes and models and pilot nationalities repeat a lot, so the rows
+ * share one instance of each through a CompactRows.Dictionary.
+ *
+ */
+
+public class ReferenceCache implements Metrics.Collector{
+	static final String CHANNEL = "reference_changed";
+	//notifications received at once above which the tables are reloaded whole
+	static final int RELOAD_AFTER = 256;
+	static final String TRIGGERS_SQL =
+		"SELECT COUNT(*) FROM pg_trigger WHERE tgname IN ('plane_changed', 'pilot_changed', 'technician_changed')";
+
+	private final DBproject _esql;
+	private final Map<Integer, Rows.Plane> _planes = new ConcurrentHashMap<Integer, Rows.Plane>();
+	private final Map<Integer, Rows.Pilot> _pilots = new ConcurrentHashMap<Integer, Rows.Pilot>();
+	private final Map<Integer, Rows.Technician> _technicians = new ConcurrentHashMap<Integer, Rows.Technician>();
+	private final long _retryMillis;
+	private volatile boolean _active = false;
+	private volatile boolean _closed = false;
+	private Thread _listener = null;
+	private Connection _connection = null;
+
+	//one instance of each make, model and nationality, shared by the rows
+	private final CompactRows.Dictionary _values = new CompactRows.Dictionary();
+	private final DBproject.RowMapper<Rows.Plane> _planeMapper = new DBproject.RowMapper<Rows.Plane>(){
+		public Rows.Plane map(ResultSet rs) throws SQLException {
+			return compact(Rows.Plane.MAPPER.map(rs));
+		}
+	};
+	private final DBproject.RowMapper<Rows.Pilot> _pilotMapper = new DBproject.RowMapper<Rows.Pilot>(){
+		public Rows.Pilot map(ResultSet rs) throws SQLException {
+			return compact(Rows.Pilot.MAPPER.map(rs));
+		}
+	};
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _notifications = new AtomicLong();
+	private final AtomicLong _reloads = new AtomicLong();
+
+	/**
+	 * @param esql the database
+	 * @param retryMillis wait before reconnecting a listener that lost its connection
+	 */
+	public ReferenceCache(DBproject esql, long retryMillis){
+		this._esql = esql;
+		this._retryMillis = retryMillis;
+	}
+
+	/**
+	 * Method to load the tables and start listening for changes.  Does
+	 * nothing when the triggers of migration V004 are missing, since the
+	 * cache could not be kept current then.
+	 *
+	 * @return true when the cache is active
+	 * @throws java.sql.SQLException when the tables could not be loaded
+	 */
+	public synchronized boolean start() throws SQLException {
+		if(this._active){
+			return true;
+		}
+		Long triggers = this._esql.queryForObject(TRIGGERS_SQL, Rows.LONG);
+		if(triggers == null || triggers.longValue() < 3){
+			System.err.println("Reference cache off: run the migrate mode to install the change notifications");
+			return false;
+		}
+		//listening before loading, so no change falls in between
+		listen();
+		try{
+			reloadAll();
+		}catch (SQLException e){
+			closeConnection();
+			throw e;
+		}
+		this._active = true;
+		this._listener = new Thread(new Runnable(){
+			public void run(){
+				receive();
+			}
+		}, "reference-listener");
+		this._listener.setDaemon(true);
+		this._listener.start();
+		this._esql.getMetrics().addCollector(this);
+		return true;
+	}
+
+	/**
+	 * Method to stop listening.  The cache answers nothing afterwards.
+	 */
+	public void close(){
+		Thread listener;
+		synchronized(this){
+			this._active = false;
+			this._closed = true;
+			listener = this._listener;
+		}
+		if(listener != null){
+			try{
+				listener.join();
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public boolean isActive(){
+		return this._active;
+	}
+
+	/**
+	 * @param id the plane id
+	 * @return the plane, or null when it is not cached
+	 */
+	public Rows.Plane plane(int id){
+		return count(this._active ? this._planes.get(id) : null);
+	}
+
+	/**
+	 * @param id the pilot id
+	 * @return the pilot, or null when it is not cached
+	 */
+	public Rows.Pilot pilot(int id){
+		return count(this._active ? this._pilots.get(id) : null);
+	}
+
+	/**
+	 * @param id the technician id
+	 * @return the technician, or null when it is not cached
+	 */
+	public Rows.Technician technician(int id){
+		return count(this._active ? this._technicians.get(id) : null);
+	}
+
+	/**
+	 * Method to tell whether an id of a cached table is known to exist.
+	 *
+	 * @param table PLANE, PILOT or TECHNICIAN
+	 * @param id the id
+	 * @return true when cached; false means it has to be looked up
+	 */
+	public boolean contains(ExistenceChecker.Table table, int id){
+		switch(table){
+			case PLANE: return plane(id) != null;
+			case PILOT: return pilot(id) != null;
+			case TECHNICIAN: return technician(id) != null;
+			default: return false;
+		}
+	}
+
+	/**
+	 * Method to record rows inserted by this process, so they are visible
+	 * before their notification arrives.  Called once the insert has
+	 * committed (see DBproject.afterCommit()), so a rolled back row never
+	 * shows.
+	 *
+	 * @param plane the new plane
+	 */
+	public void added(Rows.Plane plane){
+		if(this._active){
+			this._planes.put(plane.id, compact(plane));
+		}
+	}
+
+	public void added(Rows.Pilot pilot){
+		if(this._active){
+			this._pilots.put(pilot.id, compact(pilot));
+		}
+	}
+
+	public void added(Rows.Technician technician){
+		if(this._active){
+			this._technicians.put(technician.id, technician);
+		}
+	}
+
+	private Rows.Plane compact(Rows.Plane plane){
+		return new Rows.Plane(plane.id, this._values.intern(plane.make), this._values.intern(plane.model), plane.age, plane.seats);
+	}
+
+	private Rows.Pilot compact(Rows.Pilot pilot){
+		return new Rows.Pilot(pilot.id, pilot.fullname, this._values.intern(pilot.nationality));
+	}
+
+	private <T> T count(T row){
+		(row == null ? this._misses : this._hits).incrementAndGet();
+		return row;
+	}
+
+	/**
+	 * Method run by the listener thread: apply notifications until closed.
+	 */
+	private void receive(){
+		while(!this._closed){
+			try{
+				PGNotification[] notifications = this._connection.unwrap(PGConnection.class).getNotifications(500);
+				if(notifications == null){
+					continue;
+				}
+				this._notifications.addAndGet(notifications.length);
+				if(notifications.length > RELOAD_AFTER){
+					//a bulk load: reading the tables beats a query per row
+					reloadAll();
+					invalidateQueryCache("plane", "pilot", "technician");
+					continue;
+				}
+				for(PGNotification n : notifications){
+					apply(n.getParameter());
+				}
+			}catch (SQLException e){
+				if(this._closed){
+					break;
+				}
+				System.err.println("Reference cache lost its notifications, reloading: " + e.getMessage());
+				reconnect();
+			}
+		}
+		closeConnection();
+	}
+
+	/**
+	 * Method to reload what a notification names.
+	 *
+	 * @param payload "<table>:<id>" or "<table>:*"
+	 * @throws java.sql.SQLException when the reload failed
+	 */
+	private void apply(String payload) throws SQLException {
+		int colon = payload.indexOf(':');
+		if(colon < 0){
+			return;
+		}
+		String table = payload.substring(0, colon);
+		String key = payload.substring(colon + 1);
+		invalidateQueryCache(table);
+		if(key.equals("*")){
+			reload(table);
+			return;
+		}
+		int id;
+		try{
+			id = Integer.parseInt(key);
+		}catch (NumberFormatException e){
+			return;
+		}
+		if(table.equals("plane")){
+			put(this._planes, id, this._esql.queryForObject(
+				"SELECT " + Rows.Plane.COLUMNS + " FROM Plane WHERE id = ?", this._planeMapper, id));
+		}
+		else if(table.equals("pilot")){
+			put(this._pilots, id, this._esql.queryForObject(
+				"SELECT " + Rows.Pilot.COLUMNS + " FROM Pilot WHERE id = ?", this._pilotMapper, id));
+		}
+		else if(table.equals("technician")){
+			put(this._technicians, id, this._esql.queryForObject(
+				"SELECT " + Rows.Technician.COLUMNS + " FROM Technician WHERE id = ?", Rows.Technician.MAPPER, id));
+		}
+	}
+
+	private void invalidateQueryCache(String... tables){
+		QueryCache queryCache = this._esql.getQueryCache();
+		if(queryCache != null){
+			queryCache.invalidate(Arrays.asList(tables));
+		}
+	}
+
+	private static <T> void put(Map<Integer, T> rows, int id, T row){
+		if(row == null){
+			rows.remove(id);
+		}else{
+			rows.put(id, row);
+		}
+	}
+
+	private void reloadAll() throws SQLException {
+		reload("plane");
+		reload("pilot");
+		reload("technician");
+	}
+
+	/**
+	 * Method to replace the cached rows of one table.
+	 */
+	private void reload(String table) throws SQLException {
+		this._reloads.incrementAndGet();
+		if(table.equals("plane")){
+			replace(this._planes, "SELECT " + Rows.Plane.COLUMNS + " FROM Plane", this._planeMapper);
+		}
+		else if(table.equals("pilot")){
+			replace(this._pilots, "SELECT " + Rows.Pilot.COLUMNS + " FROM Pilot", this._pilotMapper);
+		}
+		else if(table.equals("technician")){
+			replace(this._technicians, "SELECT " + Rows.Technician.COLUMNS + " FROM Technician", Rows.Technician.MAPPER);
+		}
+	}
+
+	private <T> void replace(final Map<Integer, T> rows, String query, final DBproject.RowMapper<T> mapper) throws SQLException {
+		final Map<Integer, T> loaded = new ConcurrentHashMap<Integer, T>();
+		this._esql.streamQuery(query, new DBproject.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				loaded.put(rs.getInt(1), mapper.map(rs));
+			}
+		});
+		rows.keySet().retainAll(loaded.keySet());
+		rows.putAll(loaded);
+	}
+
+	/**
+	 * Method to open the listening connection.
+	 */
+	private void listen() throws SQLException {
+		Connection c = this._esql.getPool().openDedicated();
+		try{
+			Statement stmt = c.createStatement();
+			stmt.execute("LISTEN " + CHANNEL);
+			stmt.close();
+		}catch (SQLException e){
+			c.close();
+			throw e;
+		}
+		this._connection = c;
+	}
+
+	/**
+	 * Method to listen again after the connection failed, until it works or
+	 * the cache is closed.  The cache answers nothing in between.
+	 */
+	private void reconnect(){
+		this._active = false;
+		closeConnection();
+		while(!this._closed){
+			try{
+				Thread.sleep(this._retryMillis);
+				listen();
+				reloadAll();
+				this._active = !this._closed;
+				return;
+			}catch (InterruptedException e){
+				return;
+			}catch (SQLException e){
+				closeConnection();
+				System.err.println("Reference cache cannot listen yet: " + e.getMessage());
+			}
+		}
+	}
+
+	private void closeConnection(){
+		if(this._connection != null){
+			try{
+				this._connection.close();
+			}catch (SQLException e){
+				System.err.println(e.getMessage());
+			}
+			this._connection = null;
+		}
+	}
+
+	public void write(Writer out) throws IOException {
+		out.write("# HELP dbproject_reference_cache_hits_total Reference lookups answered from memory.\n");
+		out.write("# TYPE dbproject_reference_cache_hits_total counter\n");
+		out.write("dbproject_reference_cache_hits_total " + this._hits.get() + "\n");
+		out.write("# HELP dbproject_reference_cache_misses_total Reference lookups that went to the database.\n");
+		out.write("# TYPE dbproject_reference_cache_misses_total counter\n");
+		out.write("dbproject_reference_cache_misses_total " + this._misses.get() + "\n");
+		out.write("# HELP dbproject_reference_cache_notifications_total Change notifications received.\n");
+		out.write("# TYPE dbproject_reference_cache_notifications_total counter\n");
+		out.write("dbproject_reference_cache_notifications_total " + this._notifications.get() + "\n");
+		out.write("# HELP dbproject_reference_cache_reloads_total Tables loaded in full.\n");
+		out.write("# TYPE dbproject_reference_cache_reloads_total counter\n");
+		out.write("dbproject_reference_cache_reloads_total " + this._reloads.get() + "\n");
+		out.write("# HELP dbproject_reference_cache_rows Rows cached per table.\n");
+		out.write("# TYPE dbproject_reference_cache_rows gauge\n");
+		out.write("dbproject_reference_cache_rows{table=\"plane\"} " + this._planes.size() + "\n");
+		out.write("dbproject_reference_cache_rows{table=\"pilot\"} " + this._pilots.size() + "\n");
+		out.write("dbproject_reference_cache_rows{table=\"technician\"} " + this._technicians.size() + "\n");
+	}
+}
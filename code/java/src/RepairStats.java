@@ -0,0 +1,103 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads repair_stats, the number of repairs per (plane, year,
+ * repair code), so the repair reports read one row per group instead of
+ * aggregating all of Repairs.  The triggers of migration V006 keep it
+ * current: every statement that writes Repairs, through the app or not
+ * (psql, COPY), updates the counts of its groups in the same transaction.
+ *
+ */
+
+public final class RepairStats{
+	static final String TRIGGERS_SQL =
+		"SELECT COUNT(*) FROM pg_trigger"
+		+ " WHERE tgname IN ('repairs_inserted', 'repairs_updated', 'repairs_deleted', 'repairs_truncated')";
+
+	static final String PER_PLANE_SQL =
+		"SELECT plane_id AS id, SUM(cnt) AS count"
+		+ " FROM repair_stats"
+		+ " GROUP BY plane_id"
+		+ " ORDER BY SUM(cnt) DESC";
+
+	static final String PER_YEAR_SQL =
+		"SELECT year, SUM(cnt) AS count"
+		+ " FROM repair_stats"
+		+ " GROUP BY year"
+		+ " ORDER BY SUM(cnt)";
+
+	static final String PER_PLANE_AND_YEAR_SQL =
+		"SELECT plane_id AS id, year, SUM(cnt) AS count"
+		+ " FROM repair_stats"
+		+ " GROUP BY plane_id, year"
+		+ " ORDER BY plane_id, year";
+
+	static final String PER_CODE_SQL =
+		"SELECT repair_code, SUM(cnt)"
+		+ " FROM repair_stats"
+		+ " GROUP BY repair_code"
+		+ " ORDER BY repair_code";
+
+	/** Maps a PER_CODE_SQL row to {repair code, count}. */
+	private static final DBproject.RowMapper<Object[]> CODE_COUNT = new DBproject.RowMapper<Object[]>(){
+		public Object[] map(ResultSet rs) throws SQLException {
+			return new Object[]{Rows.trim(rs.getString(1)), Long.valueOf(rs.getLong(2))};
+		}
+	};
+
+	private RepairStats(){}
+
+	/**
+	 * Method to check that the triggers keeping repair_stats current are
+	 * installed.  Reads the catalog only, never Repairs.
+	 *
+	 * @param esql the database
+	 * @return true when the repair reports can be trusted
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static boolean init(DBproject esql) throws SQLException {
+		Long triggers = esql.queryForObject(TRIGGERS_SQL, Rows.LONG);
+		if(triggers == null || triggers.longValue() < 4){
+			System.err.println("Repair reports may be stale: run the migrate mode to install the repair_stats triggers");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Method to count repairs per repair code.
+	 *
+	 * @param esql the database
+	 * @return repair code -> number of repairs, by code
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static Map<String, Long> perCode(final DBproject esql) throws SQLException {
+		List<Object[]> rows = esql.readOnly(new DBproject.TransactionWork<List<Object[]>>(){
+			public List<Object[]> run() throws SQLException {
+				return esql.queryForList(PER_CODE_SQL, CODE_COUNT);
+			}
+		});
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for(Object[] row : rows){
+			counts.put((String) row[0], (Long) row[1]);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds one connection pool per read replica and picks the
+ * replica for the next read, round robin.  A replica that fails to connect
+ * or drops a query is left out for retryMillis, after which it is tried
+ * again; while every replica is out, next() returns null and the caller
+ * reads from the primary.
+ *
+ * Endpoints are given as host:port, host:port/dbname or just a port on
+ * localhost, e.g. "localhost:9998,localhost:9997".  A replica that was not
+ * given a database name uses the primary's.
+ *
+ */
+
+public class ReplicaSet{
+	private final String[] _names;
+	private final ConnectionPool[] _pools;
+	//System.nanoTime() until which each replica is left out
+	private final AtomicLong[] _downUntil;
+	private final AtomicInteger _next = new AtomicInteger();
+	private final long _retryNanos;
+
+	/**
+	 * @param endpoints comma separated replica endpoints
+	 * @param dbname the primary's database name
+	 * @param user the user name
+	 * @param passwd the password
+	 * @param maxSize connections per replica
+	 * @param retryMillis how long a failed replica is left out
+	 * @throws java.sql.SQLException when a pool could not be created
+	 */
+	public ReplicaSet(String endpoints, String dbname, String user, String passwd, int maxSize, long retryMillis) throws SQLException {
+		List<String> names = new ArrayList<String>();
+		for(String endpoint : endpoints.split(",")){
+			if(endpoint.trim().length() > 0){
+				names.add(endpoint.trim());
+			}
+		}
+		if(names.isEmpty()){
+			throw new IllegalArgumentException("No replica endpoints in \"" + endpoints + "\"");
+		}
+		this._names = names.toArray(new String[names.size()]);
+		this._pools = new ConnectionPool[this._names.length];
+		this._downUntil = new AtomicLong[this._names.length];
+		this._retryNanos = retryMillis * 1000000L;
+		for(int i = 0; i < this._names.length; i++){
+			String endpoint = this._names[i];
+			if(endpoint.indexOf(':') < 0 && endpoint.indexOf('/') < 0){
+				endpoint = "localhost:" + endpoint;
+			}
+			if(endpoint.indexOf('/') < 0){
+				endpoint += "/" + dbname;
+			}
+			//no connections up front (minSize 0), so a replica that is down does not stop the program
+			this._pools[i] = new ConnectionPool("jdbc:postgresql://" + endpoint + "?prepareThreshold=1&connectTimeout=2&readOnly=true",
+				user, passwd, 0, maxSize,
+				Long.getLong("dbproject.pool.idleTimeoutMillis", 60000L),
+				Long.getLong("dbproject.pool.borrowTimeoutMillis", 30000L),
+				Long.getLong("dbproject.pool.validateAfterMillis", 1000L),
+				Integer.getInteger("dbproject.pool.statementCacheSize", 64));
+			this._downUntil[i] = new AtomicLong(System.nanoTime());
+		}
+	}
+
+	/**
+	 * Method to pick the replica for the next read.
+	 *
+	 * @return the index of a replica that is not left out, or -1 when all are
+	 */
+	public int next(){
+		long now = System.nanoTime();
+		int start = this._next.getAndIncrement();
+		for(int i = 0; i < this._pools.length; i++){
+			int r = Math.abs((start + i) % this._pools.length);
+			if(now - this._downUntil[r].get() >= 0){
+				return r;
+			}
+		}
+		return -1;
+	}
+
+	public ConnectionPool getPool(int replica){
+		return this._pools[replica];
+	}
+
+	public String getName(int replica){
+		return this._names[replica];
+	}
+
+	public int size(){
+		return this._pools.length;
+	}
+
+	/**
+	 * Method to leave a replica out for retryMillis after it failed.
+	 *
+	 * @param replica the replica's index
+	 * @param cause the failure
+	 */
+	public void markDown(int replica, SQLException cause){
+		long until = System.nanoTime() + this._retryNanos;
+		long previous = this._downUntil[replica].getAndSet(until);
+		//report once per outage, not once per thread that noticed it
+		if(previous - System.nanoTime() <= 0){
+			System.err.println("Replica " + this._names[replica] + " is unavailable, reading from the primary for "
+			                   + this._retryNanos / 1000000L + " ms: " + cause.getMessage());
+		}
+	}
+
+	/**
+	 * Method to tell whether a failure is the replica's rather than the
+	 * query's: lost or refused connections (08), shutdowns (57P) and
+	 * queries a hot standby cancelled to replay changes (40001).  The read
+	 * is worth repeating on the primary then.
+	 *
+	 * @param e the failure
+	 * @return true when the read should be repeated elsewhere
+	 */
+	public static boolean isReplicaFailure(SQLException e){
+		String state = e.getSQLState();
+		return state == null || state.startsWith("08") || state.startsWith("57P") || state.equals("40001");
+	}
+
+	public void close(){
+		for(ConnectionPool pool : this._pools){
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class writes query results as they stream from the ResultSet, in one
+ * of four formats:
+ *
+ *   TABLE  columns padded to a common width, with a header and a rule
+ *   TSV    tab separated, tabs and newlines in values escaped as \t and \n
+ *   CSV    comma separated, values quoted when needed (RFC 4180)
+ *   JSONL  one JSON object per row, numbers unquoted
+ *
+ * The column names and types are read once, from the first row, and output
+ * goes through a 64 KB buffer, so the console sees one write per buffer
+ * instead of one per cell.  TABLE holds back the first 100 rows to size the
+ * columns; wider values later on just push their row out of line.  Nothing
+ * is written for an empty result.  finish() must be called at the end.
+ *
+ */
+
+public class ResultRenderer implements DBproject.RowHandler{
+	public enum Format{
+		TABLE, TSV, CSV, JSONL;
+
+		/**
+		 * Method to read the format from dbproject.output.format (TSV by default).
+		 *
+		 * @return the configured format
+		 */
+		public static Format configured(){
+			String name = System.getProperty("dbproject.output.format", "TSV");
+			try{
+				return valueOf(name.trim().toUpperCase());
+			}catch (IllegalArgumentException e){
+				throw new IllegalArgumentException("dbproject.output.format must be TABLE, TSV, CSV or JSONL, not " + name);
+			}
+		}
+	}
+
+	private static final int TABLE_SAMPLE_ROWS = 100;
+
+	private final Format _format;
+	private final Writer _out;
+	private String[] _names = null;
+	private boolean[] _numeric = null;
+	private String[] _values = null;
+	//TABLE: rows held back to size the columns, null once the header is out
+	private List<String[]> _sample = null;
+	private int[] _widths = null;
+	private final StringBuilder _line = new StringBuilder(256);
+	//approximate bytes of the values written, for the metrics
+	long bytes = 0;
+
+	/**
+	 * @param format the output format
+	 * @param out where to write; it is flushed by finish() but not closed
+	 */
+	public ResultRenderer(Format format, OutputStream out){
+		this._format = format;
+		this._out = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), 1 << 16);
+	}
+
+	public void handle(ResultSet rs) throws SQLException {
+		if(this._names == null){
+			ResultSetMetaData rsmd = rs.getMetaData();
+			String[] names = new String[rsmd.getColumnCount()];
+			boolean[] numeric = new boolean[names.length];
+			for(int c = 0; c < names.length; c++){
+				names[c] = rsmd.getColumnName(c + 1);
+				numeric[c] = isNumeric(rsmd.getColumnType(c + 1));
+			}
+			start(names, numeric);
+		}
+		for(int c = 0; c < this._values.length; c++){
+			this._values[c] = rs.getString(c + 1);
+		}
+		row(this._values);
+	}
+
+	/**
+	 * Method to begin a result whose rows are given with row().  handle()
+	 * calls this itself on the first row.
+	 *
+	 * @param names the column names
+	 * @param numeric per column, whether its values are numbers
+	 * @throws java.sql.SQLException when the output could not be written
+	 */
+	public void start(String[] names, boolean[] numeric) throws SQLException {
+		this._names = names;
+		this._numeric = numeric;
+		this._values = new String[names.length];
+		switch(this._format){
+			case TABLE:
+				this._sample = new ArrayList<String[]>(TABLE_SAMPLE_ROWS);
+				break;
+			case TSV:
+				for(int c = 0; c < names.length; c++){
+					this._line.append(c == 0 ? "" : "\t");
+					tsv(names[c]);
+				}
+				emit();
+				break;
+			case CSV:
+				for(int c = 0; c < names.length; c++){
+					this._line.append(c == 0 ? "" : ",");
+					csv(names[c]);
+				}
+				emit();
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Method to write one row.  The array may be reused by the caller.
+	 *
+	 * @param values the values of the row, null for SQL NULL
+	 * @throws java.sql.SQLException when the output could not be written
+	 */
+	public void row(String[] values) throws SQLException {
+		for(String v : values){
+			this.bytes += v == null ? 0 : 2 * v.length();
+		}
+		switch(this._format){
+			case TABLE:
+				if(this._sample != null){
+					this._sample.add(values.clone());
+					if(this._sample.size() == TABLE_SAMPLE_ROWS){
+						flushSample();
+					}
+					return;
+				}
+				table(values);
+				break;
+			case TSV:
+				for(int c = 0; c < values.length; c++){
+					this._line.append(c == 0 ? "" : "\t");
+					if(values[c] != null){
+						tsv(values[c]);
+					}
+				}
+				break;
+			case CSV:
+				for(int c = 0; c < values.length; c++){
+					this._line.append(c == 0 ? "" : ",");
+					if(values[c] != null){
+						csv(values[c]);
+					}
+				}
+				break;
+			case JSONL:
+				this._line.append('{');
+				for(int c = 0; c < values.length; c++){
+					if(c > 0){
+						this._line.append(',');
+					}
+					Json.quote(this._names[c], this._line);
+					this._line.append(':');
+					if(values[c] == null){
+						this._line.append("null");
+					}
+					else if(this._numeric[c] && !values[c].equals("NaN") && !values[c].endsWith("Infinity")){
+						this._line.append(values[c]);
+					}
+					else{
+						Json.quote(values[c], this._line);
+					}
+				}
+				this._line.append('}');
+				break;
+		}
+		emit();
+	}
+
+	/**
+	 * Method to write what is still held back and flush the output.
+	 *
+	 * @throws java.sql.SQLException when the output could not be written
+	 */
+	public void finish() throws SQLException {
+		if(this._sample != null){
+			flushSample();
+		}
+		try{
+			this._out.flush();
+		}catch (IOException e){
+			throw new SQLException("Cannot write the result: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Method to size the TABLE columns from the rows held back and write
+	 * the header and those rows.
+	 */
+	private void flushSample() throws SQLException {
+		List<String[]> sample = this._sample;
+		this._sample = null;
+		this._widths = new int[this._names.length];
+		for(int c = 0; c < this._names.length; c++){
+			this._widths[c] = this._names[c].length();
+			for(String[] row : sample){
+				this._widths[c] = Math.max(this._widths[c], row[c] == null ? 0 : row[c].length());
+			}
+		}
+		table(this._names);
+		for(int c = 0; c < this._widths.length; c++){
+			this._line.append(c == 0 ? "" : "-+-");
+			for(int i = 0; i < this._widths[c]; i++){
+				this._line.append('-');
+			}
+		}
+		emit();
+		for(String[] row : sample){
+			table(row);
+		}
+	}
+
+	private void table(String[] values) throws SQLException {
+		for(int c = 0; c < values.length; c++){
+			String v = values[c] == null ? "" : values[c];
+			this._line.append(c == 0 ? "" : " | ");
+			int pad = this._widths[c] - v.length();
+			if(this._numeric[c] && values != this._names){
+				for(int i = 0; i < pad; i++){
+					this._line.append(' ');
+				}
+				this._line.append(v);
+			}
+			else{
+				this._line.append(v);
+				//no trailing blanks after the last column
+				for(int i = 0; c < values.length - 1 && i < pad; i++){
+					this._line.append(' ');
+				}
+			}
+		}
+		emit();
+	}
+
+	private void tsv(String v){
+		for(int i = 0; i < v.length(); i++){
+			char ch = v.charAt(i);
+			switch(ch){
+				case '\t': this._line.append("\\t"); break;
+				case '\n': this._line.append("\\n"); break;
+				case '\r': this._line.append("\\r"); break;
+				case '\\': this._line.append("\\\\"); break;
+				default: this._line.append(ch);
+			}
+		}
+	}
+
+	private void csv(String v){
+		boolean quote = false;
+		for(int i = 0; i < v.length() && !quote; i++){
+			char ch = v.charAt(i);
+			quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+		}
+		if(!quote){
+			this._line.append(v);
+			return;
+		}
+		this._line.append('"');
+		for(int i = 0; i < v.length(); i++){
+			char ch = v.charAt(i);
+			if(ch == '"'){
+				this._line.append('"');
+			}
+			this._line.append(ch);
+		}
+		this._line.append('"');
+	}
+
+	/**
+	 * Method to move the current line to the buffer.
+	 */
+	private void emit() throws SQLException {
+		this._line.append('\n');
+		try{
+			this._out.append(this._line);
+		}catch (IOException e){
+			throw new SQLException("Cannot write the result: " + e.getMessage(), e);
+		}
+		this._line.setLength(0);
+	}
+
+	static boolean isNumeric(int type){
+		switch(type){
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+}
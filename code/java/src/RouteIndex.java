@@ -0,0 +1,545 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class searches flights between airports in memory.  It holds every
+ * scheduled flight as a leg, grouped by departure airport and sorted by
+ * departure date, so the legs leaving an airport in a date range are a
+ * binary search away.  search() finds direct flights and connecting
+ * itineraries of up to maxLegs legs: it extends itineraries depth first from
+ * each first leg and prunes airports from which the destination is more
+ * legs away than are left.  The first legs are searched in parallel, on a
+ * pool of its own of dbproject.routes.threads daemon threads, so a search
+ * never waits behind other work for the common pool.
+ *
+ * The index is loaded from Flight and Schedule on first use and extended by
+ * the flights this process creates; reload() picks up changes made
+ * otherwise.  Schedule only holds dates, so connection times are whole days:
+ * a connection of 0 days leaves on the day the previous leg arrives.
+ *
+ */
+
+public class RouteIndex{
+	static final String FLIGHTS_SQL = "SELECT " + Rows.Flight.COLUMNS + " FROM Flight";
+	static final String SCHEDULES_SQL = "SELECT " + Rows.Schedule.COLUMNS + " FROM Schedule";
+
+	//most itineraries collected by one search before it stops looking,
+	//shared out between its first legs
+	private static final int MAX_FOUND = 100000;
+
+	/**
+	 * One scheduled flight.  Dates are days since 1970-01-01.
+	 */
+	public static final class Leg{
+		public final int fnum;
+		public final String from;
+		public final String to;
+		public final int departureDay;
+		public final int arrivalDay;
+		public final int cost;
+		public final int numStops;
+
+		Leg(int fnum, String from, String to, int departureDay, int arrivalDay, int cost, int numStops){
+			this.fnum = fnum;
+			this.from = from;
+			this.to = to;
+			this.departureDay = departureDay;
+			this.arrivalDay = arrivalDay;
+			this.cost = cost;
+			this.numStops = numStops;
+		}
+
+		public Date getDeparture(){
+			return date(this.departureDay);
+		}
+
+		public Date getArrival(){
+			return date(this.arrivalDay);
+		}
+	}
+
+	/**
+	 * Legs flown one after the other.
+	 */
+	public static final class Itinerary{
+		public final List<Leg> legs;
+		public final int cost;
+
+		Itinerary(List<Leg> legs){
+			this.legs = legs;
+			int cost = 0;
+			for(Leg leg : legs){
+				cost += leg.cost;
+			}
+			this.cost = cost;
+		}
+
+		public Leg first(){
+			return this.legs.get(0);
+		}
+
+		public Leg last(){
+			return this.legs.get(this.legs.size() - 1);
+		}
+	}
+
+	//earliest arrival first, then cheapest, then fewest legs
+	private static final Comparator<Itinerary> BEST = new Comparator<Itinerary>(){
+		public int compare(Itinerary a, Itinerary b){
+			if(a.last().arrivalDay != b.last().arrivalDay){
+				return a.last().arrivalDay < b.last().arrivalDay ? -1 : 1;
+			}
+			if(a.cost != b.cost){
+				return a.cost < b.cost ? -1 : 1;
+			}
+			return Integer.compare(a.legs.size(), b.legs.size());
+		}
+	};
+
+	private static final Comparator<Leg> BY_DEPARTURE = new Comparator<Leg>(){
+		public int compare(Leg a, Leg b){
+			return Integer.compare(a.departureDay, b.departureDay);
+		}
+	};
+
+	/**
+	 * The legs at one moment.  Never changed once published; added() publishes
+	 * a copy, so searches read it without locking.
+	 */
+	private static final class Snapshot{
+		//departure airport -> its legs by departure date
+		final Map<String, Leg[]> departures;
+		//arrival airport -> the airports with a leg to it
+		final Map<String, Set<String>> inbound;
+		final int size;
+
+		Snapshot(Map<String, Leg[]> departures, Map<String, Set<String>> inbound, int size){
+			this.departures = departures;
+			this.inbound = inbound;
+			this.size = size;
+		}
+	}
+
+	private final DBproject _esql;
+	private final int _threads;
+	private volatile Snapshot _snapshot = null;
+	//one instance of each airport code, shared by the legs
+	private final CompactRows.Dictionary _airports = new CompactRows.Dictionary();
+	//runs the first legs of a search, created on first use
+	private ExecutorService _searchers = null;
+
+	/**
+	 * @param esql the database
+	 * @param threads most first legs searched at once
+	 */
+	public RouteIndex(DBproject esql, int threads){
+		if(threads < 1){
+			throw new IllegalArgumentException("Route search threads must be positive: " + threads);
+		}
+		this._esql = esql;
+		this._threads = threads;
+	}
+
+	/**
+	 * Method to load every scheduled flight, replacing what the index held.
+	 *
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public synchronized void reload() throws SQLException {
+		final Map<Integer, List<Rows.Schedule>> schedules = new HashMap<Integer, List<Rows.Schedule>>();
+		this._esql.streamQuery(SCHEDULES_SQL, new DBproject.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				Rows.Schedule schedule = Rows.Schedule.MAPPER.map(rs);
+				List<Rows.Schedule> list = schedules.get(schedule.flightNum);
+				if(list == null){
+					list = new ArrayList<Rows.Schedule>(1);
+					schedules.put(schedule.flightNum, list);
+				}
+				list.add(schedule);
+			}
+		});
+		//one leg per scheduled date, or on the flight's own dates when it has none
+		final List<Leg> legs = new ArrayList<Leg>();
+		this._esql.streamQuery(FLIGHTS_SQL, new DBproject.RowHandler(){
+			public void handle(ResultSet rs) throws SQLException {
+				Rows.Flight f = Rows.Flight.MAPPER.map(rs);
+				String from = _airports.intern(f.departureAirport.trim());
+				String to = _airports.intern(f.arrivalAirport.trim());
+				List<Rows.Schedule> scheduled = schedules.get(f.fnum);
+				if(scheduled == null){
+					legs.add(new Leg(f.fnum, from, to, day(f.departureDate), day(f.arrivalDate), f.cost, f.numStops));
+					return;
+				}
+				for(Rows.Schedule s : scheduled){
+					legs.add(new Leg(f.fnum, from, to, day(s.departureTime), day(s.arrivalTime), f.cost, f.numStops));
+				}
+			}
+		});
+		Map<String, List<Leg>> byAirport = new HashMap<String, List<Leg>>();
+		for(Leg leg : legs){
+			List<Leg> from = byAirport.get(leg.from);
+			if(from == null){
+				from = new ArrayList<Leg>();
+				byAirport.put(leg.from, from);
+			}
+			from.add(leg);
+		}
+		Map<String, Leg[]> departures = new HashMap<String, Leg[]>();
+		Map<String, Set<String>> inbound = new HashMap<String, Set<String>>();
+		for(Map.Entry<String, List<Leg>> e : byAirport.entrySet()){
+			Leg[] sorted = e.getValue().toArray(new Leg[e.getValue().size()]);
+			Arrays.sort(sorted, BY_DEPARTURE);
+			departures.put(e.getKey(), sorted);
+			for(Leg leg : sorted){
+				link(inbound, leg);
+			}
+		}
+		this._snapshot = new Snapshot(departures, inbound, legs.size());
+	}
+
+	/**
+	 * Method to add flights created by this process, once they have
+	 * committed (see DBproject.afterCommit()).  Does nothing before the
+	 * index is loaded, since the load reads them from the database.
+	 *
+	 * @param flights the new flights
+	 */
+	public synchronized void added(List<FlightBatch.NewFlight> flights){
+		Snapshot current = this._snapshot;
+		if(current == null){
+			return;
+		}
+		Map<String, Leg[]> departures = new HashMap<String, Leg[]>(current.departures);
+		Map<String, Set<String>> inbound = new HashMap<String, Set<String>>(current.inbound);
+		int size = current.size;
+		for(FlightBatch.NewFlight f : flights){
+			Leg leg = new Leg(f.fnum, this._airports.intern(f.departureAirport.trim()), this._airports.intern(f.arrivalAirport.trim()),
+			                  day(f.departureDate), day(f.arrivalDate), f.cost, f.numStops);
+			Leg[] old = departures.get(leg.from);
+			if(contains(old, leg)){
+				//a reload running while the flight committed has it already
+				continue;
+			}
+			Leg[] legs = old == null ? new Leg[1] : Arrays.copyOf(old, old.length + 1);
+			//insertion into the sorted array
+			int i = legs.length - 1;
+			while(i > 0 && legs[i - 1].departureDay > leg.departureDay){
+				legs[i] = legs[i - 1];
+				i--;
+			}
+			legs[i] = leg;
+			departures.put(leg.from, legs);
+			Set<String> from = inbound.get(leg.to);
+			if(from == null || !from.contains(leg.from)){
+				Set<String> copy = from == null ? new HashSet<String>() : new HashSet<String>(from);
+				copy.add(leg.from);
+				inbound.put(leg.to, copy);
+			}
+			size++;
+		}
+		this._snapshot = new Snapshot(departures, inbound, size);
+	}
+
+	/**
+	 * Method to forget the flights, e.g. after the tables were reloaded.
+	 * The next search loads them again.
+	 */
+	public synchronized void clear(){
+		this._snapshot = null;
+	}
+
+	/**
+	 * Method to stop the search threads.
+	 */
+	public synchronized void close(){
+		if(this._searchers != null){
+			this._searchers.shutdownNow();
+			this._searchers = null;
+		}
+	}
+
+	/**
+	 * @return the number of legs indexed, 0 before the first load
+	 * @throws java.sql.SQLException when the index had to be loaded and failed to
+	 */
+	public int size() throws SQLException {
+		return snapshot().size;
+	}
+
+	/**
+	 * Method to find the direct flights between two airports.
+	 *
+	 * @param from the departure airport
+	 * @param to the arrival airport
+	 * @param first earliest departure date
+	 * @param last latest departure date
+	 * @return the flights by departure date
+	 * @throws java.sql.SQLException when the index had to be loaded and failed to
+	 */
+	public List<Leg> direct(String from, String to, Date first, Date last) throws SQLException {
+		Snapshot s = snapshot();
+		List<Leg> found = new ArrayList<Leg>();
+		Leg[] legs = s.departures.get(from.trim());
+		if(legs == null){
+			return found;
+		}
+		int end = day(last);
+		to = to.trim();
+		for(int i = firstDeparture(legs, day(first)); i < legs.length && legs[i].departureDay <= end; i++){
+			if(legs[i].to.equals(to)){
+				found.add(legs[i]);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Method to find the itineraries between two airports, direct or with
+	 * connections, that do not visit an airport twice.
+	 *
+	 * @param from the departure airport
+	 * @param to the arrival airport
+	 * @param first earliest departure date of the first leg
+	 * @param last latest departure date of the first leg
+	 * @param maxLegs most legs per itinerary
+	 * @param minConnectionDays least days between arriving and leaving a connecting airport
+	 * @param maxConnectionDays most days between arriving and leaving a connecting airport
+	 * @param limit most itineraries returned
+	 * @return the itineraries, earliest arrival first, then cheapest
+	 * @throws java.sql.SQLException when the index had to be loaded and failed to
+	 */
+	public List<Itinerary> search(String from, String to, Date first, Date last, final int maxLegs,
+	                              final int minConnectionDays, final int maxConnectionDays, int limit) throws SQLException {
+		if(maxLegs < 1 || minConnectionDays < 0 || maxConnectionDays < minConnectionDays){
+			throw new IllegalArgumentException("Invalid search: " + maxLegs + " legs, connections of "
+			                                   + minConnectionDays + " to " + maxConnectionDays + " days");
+		}
+		Metrics.Series op = this._esql.getMetrics().operation("SearchFlights");
+		long start = System.nanoTime();
+		final Snapshot s = snapshot();
+		final String origin = from.trim();
+		final String destination = to.trim();
+		final Map<String, Integer> hops = hopsTo(s, destination, maxLegs);
+		Leg[] legs = s.departures.get(origin);
+		if(legs == null || !hops.containsKey(origin)){
+			op.record(System.nanoTime() - start, 0, 0);
+			return new ArrayList<Itinerary>();
+		}
+		int end = day(last);
+		List<Leg> firsts = new ArrayList<Leg>();
+		for(int i = firstDeparture(legs, day(first)); i < legs.length && legs[i].departureDay <= end; i++){
+			Integer left = hops.get(legs[i].to);
+			if(left != null && 1 + left.intValue() <= maxLegs){
+				firsts.add(legs[i]);
+			}
+		}
+
+		//each first leg is searched on its own, with its own share of MAX_FOUND
+		final int cap = Math.max(limit, MAX_FOUND / Math.max(firsts.size(), 1));
+		List<Callable<List<Itinerary>>> tasks = new ArrayList<Callable<List<Itinerary>>>(firsts.size());
+		for(final Leg leg : firsts){
+			tasks.add(new Callable<List<Itinerary>>(){
+				public List<Itinerary> call(){
+					List<Itinerary> found = new ArrayList<Itinerary>();
+					Leg[] path = new Leg[maxLegs];
+					path[0] = leg;
+					Set<String> visited = new HashSet<String>();
+					visited.add(origin);
+					extend(s, hops, destination, path, 1, visited, minConnectionDays, maxConnectionDays, cap, found);
+					return found;
+				}
+			});
+		}
+		List<Itinerary> result = new ArrayList<Itinerary>();
+		try{
+			for(Future<List<Itinerary>> f : searchers().invokeAll(tasks)){
+				result.addAll(f.get());
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			op.error();
+			throw new SQLException("Interrupted while searching flights");
+		}catch (ExecutionException e){
+			op.error();
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		Collections.sort(result, BEST);
+		if(result.size() > limit){
+			result = new ArrayList<Itinerary>(result.subList(0, Math.max(limit, 0)));
+		}
+		op.record(System.nanoTime() - start, result.size(), 0);
+		return result;
+	}
+
+	/**
+	 * Method to complete the itineraries that start with path[0..length-1],
+	 * until out holds cap of them.
+	 */
+	private static void extend(Snapshot s, Map<String, Integer> hops, String destination, Leg[] path, int length,
+	                           Set<String> visited, int minConnectionDays, int maxConnectionDays,
+	                           int cap, List<Itinerary> out){
+		Leg previous = path[length - 1];
+		if(previous.to.equals(destination)){
+			if(out.size() < cap){
+				out.add(new Itinerary(Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(path, length)))));
+			}
+			return;
+		}
+		if(length == path.length || out.size() >= cap){
+			return;
+		}
+		Leg[] legs = s.departures.get(previous.to);
+		if(legs == null){
+			return;
+		}
+		visited.add(previous.to);
+		int end = previous.arrivalDay + maxConnectionDays;
+		for(int i = firstDeparture(legs, previous.arrivalDay + minConnectionDays); i < legs.length && legs[i].departureDay <= end; i++){
+			Leg next = legs[i];
+			Integer left = hops.get(next.to);
+			if(left == null || length + 1 + left.intValue() > path.length || visited.contains(next.to)){
+				continue;
+			}
+			path[length] = next;
+			extend(s, hops, destination, path, length + 1, visited, minConnectionDays, maxConnectionDays, cap, out);
+		}
+		visited.remove(previous.to);
+	}
+
+	/**
+	 * Method to find, for every airport within maxLegs legs of the
+	 * destination, the fewest legs to it, ignoring dates.
+	 */
+	private static Map<String, Integer> hopsTo(Snapshot s, String destination, int maxLegs){
+		Map<String, Integer> hops = new HashMap<String, Integer>();
+		hops.put(destination, 0);
+		List<String> frontier = Collections.singletonList(destination);
+		for(int d = 1; d <= maxLegs && !frontier.isEmpty(); d++){
+			List<String> next = new ArrayList<String>();
+			for(String airport : frontier){
+				Set<String> from = s.inbound.get(airport);
+				if(from == null){
+					continue;
+				}
+				for(String a : from){
+					if(!hops.containsKey(a)){
+						hops.put(a, d);
+						next.add(a);
+					}
+				}
+			}
+			frontier = next;
+		}
+		return hops;
+	}
+
+	/**
+	 * Method to find the first leg leaving on or after a day.
+	 */
+	private static int firstDeparture(Leg[] legs, int day){
+		int lo = 0;
+		int hi = legs.length;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(legs[mid].departureDay < day){
+				lo = mid + 1;
+			}else{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static boolean contains(Leg[] legs, Leg leg){
+		if(legs == null){
+			return false;
+		}
+		for(int i = firstDeparture(legs, leg.departureDay); i < legs.length && legs[i].departureDay == leg.departureDay; i++){
+			if(legs[i].fnum == leg.fnum){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void link(Map<String, Set<String>> inbound, Leg leg){
+		Set<String> from = inbound.get(leg.to);
+		if(from == null){
+			from = new HashSet<String>();
+			inbound.put(leg.to, from);
+		}
+		from.add(leg.from);
+	}
+
+	private synchronized ExecutorService searchers(){
+		if(this._searchers == null){
+			this._searchers = Executors.newFixedThreadPool(this._threads, new ThreadFactory(){
+				private int _count = 0;
+
+				public synchronized Thread newThread(Runnable r){
+					Thread t = new Thread(r, "route-search-" + (++this._count));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return this._searchers;
+	}
+
+	private Snapshot snapshot() throws SQLException {
+		Snapshot s = this._snapshot;
+		if(s == null){
+			synchronized(this){
+				if(this._snapshot == null){
+					reload();
+				}
+				s = this._snapshot;
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Method to turn a date into days since 1970-01-01.
+	 */
+	static int day(Date date){
+		return (int) date.toLocalDate().toEpochDay();
+	}
+
+	static Date date(int day){
+		return Date.valueOf(LocalDate.ofEpochDay(day));
+	}
+}
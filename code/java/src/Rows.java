@@ -0,0 +1,220 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class holds small typed records for the rows of the airline tables,
+ * together with the mappers that build them straight from a ResultSet.  Each
+ * record declares COLUMNS, the select list its mapper expects, in order;
+ * mappers read by position with the typed getters instead of getString.
+ * Blank padding of CHAR(n) columns is trimmed.
+ *
+ */
+
+public final class Rows{
+	private Rows(){}
+
+	/** Maps the first column of a row to an Integer (null stays null). */
+	public static final DBproject.RowMapper<Integer> INT = new DBproject.RowMapper<Integer>(){
+		public Integer map(ResultSet rs) throws SQLException {
+			int v = rs.getInt(1);
+			return rs.wasNull() ? null : Integer.valueOf(v);
+		}
+	};
+
+	/** Maps the first column of a row to a Long (null stays null). */
+	public static final DBproject.RowMapper<Long> LONG = new DBproject.RowMapper<Long>(){
+		public Long map(ResultSet rs) throws SQLException {
+			long v = rs.getLong(1);
+			return rs.wasNull() ? null : Long.valueOf(v);
+		}
+	};
+
+	public static final class Flight{
+		public static final String COLUMNS = "fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport";
+		public static final DBproject.RowMapper<Flight> MAPPER = new DBproject.RowMapper<Flight>(){
+			public Flight map(ResultSet rs) throws SQLException {
+				return new Flight(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4),
+				                  rs.getDate(5), rs.getDate(6), trim(rs.getString(7)), trim(rs.getString(8)));
+			}
+		};
+
+		public final int fnum;
+		public final int cost;
+		public final int numSold;
+		public final int numStops;
+		public final Date departureDate;
+		public final Date arrivalDate;
+		public final String arrivalAirport;
+		public final String departureAirport;
+
+		public Flight(int fnum, int cost, int numSold, int numStops, Date departureDate, Date arrivalDate,
+		              String arrivalAirport, String departureAirport){
+			this.fnum = fnum;
+			this.cost = cost;
+			this.numSold = numSold;
+			this.numStops = numStops;
+			this.departureDate = departureDate;
+			this.arrivalDate = arrivalDate;
+			this.arrivalAirport = arrivalAirport;
+			this.departureAirport = departureAirport;
+		}
+	}
+
+	public static final class Plane{
+		public static final String COLUMNS = "id, make, model, age, seats";
+		public static final DBproject.RowMapper<Plane> MAPPER = new DBproject.RowMapper<Plane>(){
+			public Plane map(ResultSet rs) throws SQLException {
+				return new Plane(rs.getInt(1), trim(rs.getString(2)), trim(rs.getString(3)), rs.getInt(4), rs.getInt(5));
+			}
+		};
+
+		public final int id;
+		public final String make;
+		public final String model;
+		public final int age;
+		public final int seats;
+
+		public Plane(int id, String make, String model, int age, int seats){
+			this.id = id;
+			this.make = make;
+			this.model = model;
+			this.age = age;
+			this.seats = seats;
+		}
+	}
+
+	public static final class Pilot{
+		public static final String COLUMNS = "id, fullname, nationality";
+		public static final DBproject.RowMapper<Pilot> MAPPER = new DBproject.RowMapper<Pilot>(){
+			public Pilot map(ResultSet rs) throws SQLException {
+				return new Pilot(rs.getInt(1), trim(rs.getString(2)), trim(rs.getString(3)));
+			}
+		};
+
+		public final int id;
+		public final String fullname;
+		public final String nationality;
+
+		public Pilot(int id, String fullname, String nationality){
+			this.id = id;
+			this.fullname = fullname;
+			this.nationality = nationality;
+		}
+	}
+
+	public static final class Technician{
+		public static final String COLUMNS = "id, full_name";
+		public static final DBproject.RowMapper<Technician> MAPPER = new DBproject.RowMapper<Technician>(){
+			public Technician map(ResultSet rs) throws SQLException {
+				return new Technician(rs.getInt(1), trim(rs.getString(2)));
+			}
+		};
+
+		public final int id;
+		public final String fullName;
+
+		public Technician(int id, String fullName){
+			this.id = id;
+			this.fullName = fullName;
+		}
+	}
+
+	public static final class Reservation{
+		public static final String COLUMNS = "rnum, cid, fid, status";
+		public static final DBproject.RowMapper<Reservation> MAPPER = new DBproject.RowMapper<Reservation>(){
+			public Reservation map(ResultSet rs) throws SQLException {
+				String status = rs.getString(4);
+				return new Reservation(rs.getInt(1), rs.getInt(2), rs.getInt(3), status == null ? ' ' : status.charAt(0));
+			}
+		};
+
+		public final int rnum;
+		public final int cid;
+		public final int fid;
+		public final char status;
+
+		public Reservation(int rnum, int cid, int fid, char status){
+			this.rnum = rnum;
+			this.cid = cid;
+			this.fid = fid;
+			this.status = status;
+		}
+	}
+
+	public static final class Schedule{
+		public static final String COLUMNS = "id, flightNum, departure_time, arrival_time";
+		public static final DBproject.RowMapper<Schedule> MAPPER = new DBproject.RowMapper<Schedule>(){
+			public Schedule map(ResultSet rs) throws SQLException {
+				return new Schedule(rs.getInt(1), rs.getInt(2), rs.getDate(3), rs.getDate(4));
+			}
+		};
+
+		public final int id;
+		public final int flightNum;
+		public final Date departureTime;
+		public final Date arrivalTime;
+
+		public Schedule(int id, int flightNum, Date departureTime, Date arrivalTime){
+			this.id = id;
+			this.flightNum = flightNum;
+			this.departureTime = departureTime;
+			this.arrivalTime = arrivalTime;
+		}
+	}
+
+	public static final class Repairs{
+		public static final String COLUMNS = "rid, repair_date, repair_code, pilot_id, plane_id, technician_id";
+		public static final DBproject.RowMapper<Repairs> MAPPER = new DBproject.RowMapper<Repairs>(){
+			public Repairs map(ResultSet rs) throws SQLException {
+				return new Repairs(rs.getInt(1), rs.getDate(2), trim(rs.getString(3)), rs.getInt(4), rs.getInt(5), rs.getInt(6));
+			}
+		};
+
+		public final int rid;
+		public final Date repairDate;
+		public final String repairCode;
+		public final int pilotId;
+		public final int planeId;
+		public final int technicianId;
+
+		public Repairs(int rid, Date repairDate, String repairCode, int pilotId, int planeId, int technicianId){
+			this.rid = rid;
+			this.repairDate = repairDate;
+			this.repairCode = repairCode;
+			this.pilotId = pilotId;
+			this.planeId = planeId;
+			this.technicianId = technicianId;
+		}
+	}
+
+	/**
+	 * Method to strip the blank padding PostgreSQL adds to CHAR(n) values.
+	 *
+	 * @param value a CHAR(n) value, may be null
+	 * @return the value without trailing blanks
+	 */
+	static String trim(String value){
+		if(value == null){
+			return null;
+		}
+		int end = value.length();
+		while(end > 0 && value.charAt(end - 1) == ' '){
+			end--;
+		}
+		return end == value.length() ? value : value.substring(0, end);
+	}
+}
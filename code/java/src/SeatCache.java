@@ -0,0 +1,217 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches the number of available seats per (flight, departure
+ * date).  Available seats depend only on the flight (seats - num_sold), so
+ * every cached date of a flight shares one counter; the booking path updates
+ * that counter in place when num_sold changes.  Entries are evicted least
+ * recently used once maxEntries is reached.
+ *
+ * A miss is filled by a query that may race a booking: the count it read
+ * can be older than the one the booking reports.  So every change to a
+ * flight bumps a version, kept per stripe of flight numbers, and a fill
+ * passes the version it saw before its query (stamp()); put() drops the
+ * fill when the version moved since.
+ *
+ */
+
+public class SeatCache{
+	//versions are kept for flight numbers modulo this many stripes
+	private static final int STRIPES = 1024;
+
+	private final int _maxEntries;
+	private final long[] _versions = new long[STRIPES];
+	private final LinkedHashMap<Key, Seats> _entries;
+	//flight number -> counter shared by all cached dates of the flight
+	private final Map<Integer, Seats> _byFlight = new HashMap<Integer, Seats>();
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+
+	public SeatCache(int maxEntries){
+		this._maxEntries = maxEntries;
+		this._entries = new LinkedHashMap<Key, Seats>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<Key, Seats> eldest){
+				if(size() <= _maxEntries){
+					return false;
+				}
+				unlink(eldest.getKey().fnum, eldest.getValue());
+				_evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to look up the available seats of a flight on a date.
+	 *
+	 * @param fnum the flight number
+	 * @param departure the departure date
+	 * @return the available seats, or null when not cached
+	 */
+	public synchronized Integer get(int fnum, Date departure){
+		Seats seats = this._entries.get(new Key(fnum, departure));
+		if(seats == null){
+			this._misses.incrementAndGet();
+			return null;
+		}
+		this._hits.incrementAndGet();
+		return Integer.valueOf(seats.available);
+	}
+
+	/**
+	 * Method to return the version of a flight's seat count, taken before
+	 * the query that fills a miss.
+	 *
+	 * @param fnum the flight number
+	 * @return the version to pass to put()
+	 */
+	public synchronized long stamp(int fnum){
+		return this._versions[stripe(fnum)];
+	}
+
+	/**
+	 * Method to cache the available seats of a flight on a date.  This also
+	 * updates every other cached date of the same flight.  Does nothing when
+	 * the flight changed since stamp, since the count may predate the change.
+	 *
+	 * @param fnum the flight number
+	 * @param departure the departure date
+	 * @param available the available seats
+	 * @param stamp what stamp() returned before the count was read
+	 * @return false when the count was dropped as stale
+	 */
+	public synchronized boolean put(int fnum, Date departure, int available, long stamp){
+		if(this._versions[stripe(fnum)] != stamp){
+			return false;
+		}
+		Key key = new Key(fnum, departure);
+		Seats seats = this._byFlight.get(fnum);
+		if(seats == null){
+			seats = new Seats();
+			this._byFlight.put(fnum, seats);
+		}
+		seats.available = available;
+		if(this._entries.get(key) == null){
+			seats.refs++;
+			this._entries.put(key, seats);
+		}
+		return true;
+	}
+
+	/**
+	 * Method to record the seats left after a booking.  Bookings that commit
+	 * concurrently may report back out of order, so the cached count only
+	 * ever goes down here; writes that free seats must invalidate instead.
+	 * Does nothing when the flight is not cached.
+	 *
+	 * @param fnum the flight number
+	 * @param available the number of available seats reported by the booking
+	 */
+	public synchronized void update(int fnum, int available){
+		this._versions[stripe(fnum)]++;
+		Seats seats = this._byFlight.get(fnum);
+		if(seats != null && available < seats.available){
+			seats.available = available;
+		}
+	}
+
+	/**
+	 * Method to forget every cached date of a flight, for writes whose
+	 * effect on the seat count is not known.
+	 *
+	 * @param fnum the flight number
+	 */
+	public synchronized void invalidate(int fnum){
+		this._versions[stripe(fnum)]++;
+		if(this._byFlight.remove(fnum) == null){
+			return;
+		}
+		Iterator<Key> it = this._entries.keySet().iterator();
+		while(it.hasNext()){
+			if(it.next().fnum == fnum){
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Method to empty the cache.
+	 */
+	public synchronized void clear(){
+		for(int i = 0; i < STRIPES; i++){
+			this._versions[i]++;
+		}
+		this._entries.clear();
+		this._byFlight.clear();
+	}
+
+	public synchronized int size(){ return this._entries.size(); }
+	public long getHitCount(){ return this._hits.get(); }
+	public long getMissCount(){ return this._misses.get(); }
+	public long getEvictionCount(){ return this._evictions.get(); }
+
+	public String toString(){
+		return "seatCache[size=" + size()
+		     + ", hits=" + getHitCount()
+		     + ", misses=" + getMissCount()
+		     + ", evictions=" + getEvictionCount()
+		     + "]";
+	}
+
+	private static int stripe(int fnum){
+		return fnum & (STRIPES - 1);
+	}
+
+	private void unlink(int fnum, Seats seats){
+		if(--seats.refs == 0){
+			this._byFlight.remove(fnum);
+		}
+	}
+
+	private static final class Seats{
+		int available;
+		//number of cached dates sharing this counter
+		int refs;
+	}
+
+	private static final class Key{
+		final int fnum;
+		final long departure;
+
+		Key(int fnum, Date departure){
+			this.fnum = fnum;
+			this.departure = departure.getTime();
+		}
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key)){
+				return false;
+			}
+			Key k = (Key) o;
+			return k.fnum == this.fnum && k.departure == this.departure;
+		}
+
+		public int hashCode(){
+			return this.fnum * 31 + (int) (this.departure ^ (this.departure >>> 32));
+		}
+	}
+}
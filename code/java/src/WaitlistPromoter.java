@@ -0,0 +1,310 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class cancels reservations and gives the seats they free to the
+ * waitlist.  Waitlisted reservations ('W') of a flight are promoted to 'R',
+ * oldest reservation number first, while the flight has free seats.  One
+ * statement promotes a whole batch of flights: it locks their Flight rows,
+ * numbers each flight's waitlist with row_number(), updates the
+ * reservations that fit and adds them to num_sold, so the cost does not
+ * grow with round trips per passenger.  Bookings of the same flight queue
+ * on the same Flight row lock, so a seat is never given twice.
+ *
+ * A cancellation promotes on its flight in the same transaction.  The
+ * SeatCache learns of both only after the commit, through
+ * DBproject.afterCommit(), so a fill racing the transaction cannot cache
+ * the count from before it.  sweep()
+ * promotes on every flight with free seats and a waitlist, batchSize
+ * flights per statement, and can run in the background every few seconds.
+ *
+ */
+
+public class WaitlistPromoter{
+	/** Deletes a reservation, gives back its seat when it held one and returns it as a Rows.Reservation row. */
+	static final String CANCEL_SQL =
+		"WITH f AS ("
+		+ " SELECT F.fnum FROM Flight F, Reservation R WHERE R.rnum = ? AND F.fnum = R.fid FOR UPDATE OF F),"
+		+ " c AS ("
+		+ " DELETE FROM Reservation R USING f WHERE R.rnum = ? AND R.fid = f.fnum RETURNING R.rnum, R.cid, R.fid, R.status),"
+		+ " s AS ("
+		+ " UPDATE Flight F SET num_sold = F.num_sold - 1 FROM c"
+		+ " WHERE F.fnum = c.fid AND c.status <> 'W' AND F.num_sold > 0 RETURNING F.fnum)"
+		+ " SELECT " + Rows.Reservation.COLUMNS + " FROM c";
+
+	/** Promotes on the flights given as an int4[] literal. */
+	static final String PROMOTE_SQL = promoteSql("F.fnum = ANY (CAST(? AS int4[]))");
+
+	/** Promotes on the next flights after a flight number that have a waitlist. */
+	static final String SWEEP_SQL = promoteSql("F.fnum > ? AND F.fnum IN (SELECT fid FROM Reservation WHERE status = 'W')");
+
+	/**
+	 * Method to build the promotion statement for a choice of flights.  Its
+	 * parameters are those of the choice, then the most flights to lock.
+	 * Returns one row per flight that had free seats: the flight number, the
+	 * reservations promoted and the seats left.
+	 */
+	private static String promoteSql(String flights){
+		return "WITH f AS ("
+			+ " SELECT F.fnum, CAST(P.seats AS int4) - CAST(F.num_sold AS int4) AS free"
+			+ " FROM Flight F, FlightInfo FI, Plane P"
+			+ " WHERE " + flights + " AND FI.flight_id = F.fnum AND P.id = FI.plane_id AND F.num_sold < P.seats"
+			+ " ORDER BY F.fnum LIMIT ? FOR UPDATE OF F),"
+			+ " w AS ("
+			+ " SELECT R.rnum, R.fid, row_number() OVER (PARTITION BY R.fid ORDER BY R.rnum) AS pos"
+			+ " FROM Reservation R, f WHERE R.fid = f.fnum AND R.status = 'W'),"
+			+ " p AS ("
+			+ " UPDATE Reservation R SET status = 'R' FROM w, f"
+			+ " WHERE R.rnum = w.rnum AND f.fnum = w.fid AND w.pos <= f.free AND R.status = 'W' RETURNING R.fid),"
+			+ " n AS (SELECT fid, CAST(COUNT(*) AS int4) AS promoted FROM p GROUP BY fid),"
+			+ " s AS ("
+			+ " UPDATE Flight F SET num_sold = F.num_sold + n.promoted FROM n WHERE F.fnum = n.fid RETURNING F.fnum)"
+			+ " SELECT f.fnum, COALESCE(n.promoted, 0), f.free - COALESCE(n.promoted, 0)"
+			+ " FROM f LEFT JOIN n ON n.fid = f.fnum ORDER BY f.fnum";
+	}
+
+	private final DBproject _esql;
+	private final int _batchSize;
+	private final int _maxRetries;
+	private final AtomicLong _cancelled = new AtomicLong();
+	private final AtomicLong _promoted = new AtomicLong();
+	private ScheduledExecutorService _sweeper = null;
+
+	/**
+	 * @param esql the database
+	 * @param batchSize flights promoted on per statement by sweep()
+	 * @param maxRetries retries after a deadlock or serialization failure
+	 */
+	public WaitlistPromoter(DBproject esql, int batchSize, int maxRetries){
+		if(batchSize < 1){
+			throw new IllegalArgumentException("Waitlist batch size must be positive: " + batchSize);
+		}
+		this._esql = esql;
+		this._batchSize = batchSize;
+		this._maxRetries = maxRetries;
+	}
+
+	/**
+	 * Method to cancel a reservation.  When it held a seat, the seat goes to
+	 * the oldest waitlisted reservation of the flight, in the same
+	 * transaction.
+	 *
+	 * @param rnum the reservation number
+	 * @return the number of waitlisted reservations promoted
+	 * @throws java.sql.SQLException when there is no such reservation or the statements failed
+	 */
+	public int cancel(final int rnum) throws SQLException {
+		Metrics.Series op = this._esql.getMetrics().operation("CancelReservation");
+		long begin = System.nanoTime();
+		for(int attempt = 0; ; attempt++){
+			try{
+				int promoted = this._esql.inTransaction(new DBproject.TransactionWork<Integer>(){
+					public Integer run() throws SQLException {
+						Rows.Reservation cancelled = _esql.executeUpdateReturning(CANCEL_SQL, Rows.Reservation.MAPPER, rnum, rnum);
+						if(cancelled == null){
+							throw new SQLException("There is no reservation with number " + rnum + ".", "02000");
+						}
+						final int fid = cancelled.fid;
+						//a fill between here and the commit would read the old count
+						_esql.afterCommit(new Runnable(){
+							public void run(){
+								_esql.getSeatCache().invalidate(fid);
+							}
+						});
+						return promote(new int[]{fid});
+					}
+				});
+				this._cancelled.incrementAndGet();
+				op.record(System.nanoTime() - begin, 1, 0);
+				return promoted;
+			}catch (SQLException e){
+				if(attempt >= this._maxRetries || !BookingEngine.isRetryable(e) || this._esql.isInTransaction()){
+					op.error();
+					throw e;
+				}
+			}
+			backoff(attempt);
+		}
+	}
+
+	/**
+	 * Method to promote waitlisted reservations on some flights, as far as
+	 * their free seats go.
+	 *
+	 * @param fids the flight numbers
+	 * @return the number of reservations promoted
+	 * @throws java.sql.SQLException when the statement failed after all retries
+	 */
+	public int promote(int[] fids) throws SQLException {
+		StringBuilder array = new StringBuilder("{");
+		for(int fid : fids){
+			if(array.length() > 1){
+				array.append(',');
+			}
+			array.append(fid);
+		}
+		array.append('}');
+		return promoted(run(PROMOTE_SQL, new Object[]{array.toString(), fids.length}));
+	}
+
+	/**
+	 * Method to promote waitlisted reservations on every flight with free
+	 * seats, batchSize flights per statement and transaction.
+	 *
+	 * @return the number of reservations promoted
+	 * @throws java.sql.SQLException when a statement failed after all retries
+	 */
+	public int sweep() throws SQLException {
+		Metrics.Series op = this._esql.getMetrics().operation("PromoteWaitlist");
+		long begin = System.nanoTime();
+		int total = 0;
+		int after = Integer.MIN_VALUE;
+		try{
+			while(true){
+				List<int[]> flights = run(SWEEP_SQL, new Object[]{after, this._batchSize});
+				total += promoted(flights);
+				if(flights.size() < this._batchSize){
+					break;
+				}
+				after = flights.get(flights.size() - 1)[0];
+			}
+		}catch (SQLException e){
+			op.error();
+			throw e;
+		}
+		op.record(System.nanoTime() - begin, total, 0);
+		return total;
+	}
+
+	/**
+	 * Method to run sweep() every intervalMillis on a daemon thread.
+	 *
+	 * @param intervalMillis time between the end of one sweep and the start of the next
+	 */
+	public synchronized void startSweeping(long intervalMillis){
+		stopSweeping();
+		this._sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "waitlist-sweeper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._sweeper.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				try{
+					sweep();
+				}catch (SQLException e){
+					System.err.println(e.getMessage());
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopSweeping(){
+		if(this._sweeper != null){
+			this._sweeper.shutdownNow();
+			this._sweeper = null;
+		}
+	}
+
+	public long getCancelledCount(){ return this._cancelled.get(); }
+	public long getPromotedCount(){ return this._promoted.get(); }
+
+	/**
+	 * Method to count the promotions of a promotion statement and write the
+	 * seats left through to the SeatCache once they are committed.
+	 */
+	private int promoted(List<int[]> flights){
+		int total = 0;
+		for(final int[] flight : flights){
+			if(flight[1] > 0){
+				total += flight[1];
+				this._esql.afterCommit(new Runnable(){
+					public void run(){
+						_esql.getSeatCache().update(flight[0], flight[2]);
+					}
+				});
+			}
+		}
+		this._promoted.addAndGet(total);
+		return total;
+	}
+
+	/**
+	 * Method to run a statement, retrying deadlocks and serialization
+	 * failures unless it runs inside a transaction.
+	 */
+	private List<int[]> run(String sql, Object[] params) throws SQLException {
+		for(int attempt = 0; ; attempt++){
+			try{
+				return execute(sql, params);
+			}catch (SQLException e){
+				if(attempt >= this._maxRetries || !BookingEngine.isRetryable(e) || this._esql.isInTransaction()){
+					throw e;
+				}
+			}
+			backoff(attempt);
+		}
+	}
+
+	/**
+	 * Method to run a statement once and read its rows of integers.
+	 */
+	private List<int[]> execute(String sql, Object[] params) throws SQLException {
+		Metrics.Series m = this._esql.getMetrics().statement(sql);
+		long start = System.nanoTime();
+		PooledConnection pc = this._esql.acquireConnection();
+		try{
+			PreparedStatement stmt = DBproject.bind(pc.prepare(sql), params);
+			ResultSet rs = stmt.executeQuery();
+			int columns = rs.getMetaData().getColumnCount();
+			List<int[]> rows = new ArrayList<int[]>();
+			while(rs.next()){
+				int[] row = new int[columns];
+				for(int c = 0; c < columns; c++){
+					row[c] = rs.getInt(c + 1);
+				}
+				rows.add(row);
+			}
+			rs.close();
+			this._esql.wrote(sql);
+			m.record(System.nanoTime() - start, rows.size(), 0);
+			return rows;
+		}catch (SQLException e){
+			m.error();
+			throw e;
+		}finally{
+			this._esql.releaseConnection(pc);
+		}
+	}
+
+	private static void backoff(int attempt){
+		try{
+			Thread.sleep((long) (Math.random() * (5L << Math.min(attempt, 6))));
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+#! /bin/bash
+# Starts a streaming read replica of the database started by startPostgreSQL.sh,
+# on its own port (default 9998).  Run it after startPostgreSQL.sh, in the same
+# shell, then point the Java program at it:
+#   source ./startReplica.sh 9998
+#   JAVA_OPTS="-Ddbproject.replicas=localhost:9998" source ../java/run.sh $USER"_DB" $PGPORT $USER
+# The defaults of initdb (PostgreSQL 10 or later) already allow local
+# replication connections.
+REPLICA_PORT=${1:-9998}
+folder=/tmp/$USER/replica$REPLICA_PORT
+export REPLICA_DATA=$folder/data
+export REPLICA_SOCKETS=$folder/sockets
+
+echo $folder
+
+#Clear folder
+rm -rf $folder
+
+#Initialize folders
+mkdir -p $REPLICA_SOCKETS
+
+#Copy the primary; -R makes the copy a standby that keeps following it
+pg_basebackup -h localhost -p $PGPORT -D $REPLICA_DATA -R -X stream
+chmod 700 $REPLICA_DATA
+
+sleep 1
+#Start the replica
+pg_ctl -o "-c unix_socket_directories=$REPLICA_SOCKETS -p $REPLICA_PORT -c hot_standby=on" -D $REPLICA_DATA -l $folder/logfile start
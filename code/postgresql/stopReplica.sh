@@ -0,0 +1,3 @@
+#! /bin/bash
+REPLICA_PORT=${1:-9998}
+pg_ctl -D /tmp/$USER/replica$REPLICA_PORT/data stop
@@ -9,6 +9,14 @@ DROP TABLE IF EXISTS FlightInfo CASCADE;--OK
 DROP TABLE IF EXISTS Repairs CASCADE;--OK
 DROP TABLE IF EXISTS Schedule CASCADE;--OK
 
+DROP TABLE IF EXISTS id_allocator;--recreated by migration V005
+DROP TABLE IF EXISTS repair_stats;--recreated by migration V005
+DROP TABLE IF EXISTS schema_migrations;--the tables are new, so every migration must run again
+
+-- This script creates and loads the airline tables only.  The indexes and
+-- the tables and triggers the Java app needs come from ../sql/migrations:
+-- run the migrate mode (source ./run.sh <db> <port> <user> migrate) after it.
+
 -------------
 ---DOMAINS---
 -------------
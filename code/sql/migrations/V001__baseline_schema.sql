@@ -0,0 +1,130 @@
+-- The schema of create.sql, without the DROPs and the COPYs.  On a database
+-- created with create.sql every statement is a no-op; on an empty one it
+-- creates the tables, which can then be filled with the "load" mode.
+
+DO $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = 'us_postal_code') THEN
+		CREATE DOMAIN us_postal_code AS TEXT CHECK(VALUE ~ '^\d{5}$' OR VALUE ~ '^\d{5}-\d{4}$');
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = '_status') THEN
+		CREATE DOMAIN _STATUS CHAR(1) CHECK (value IN ( 'W' , 'C', 'R' ) );
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = '_gender') THEN
+		CREATE DOMAIN _GENDER CHAR(1) CHECK (value IN ( 'F' , 'M' ) );
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = '_code') THEN
+		CREATE DOMAIN _CODE CHAR(2) CHECK (value IN ( 'MJ' , 'MN', 'SV' ) ); --Major, Minimum, Service
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = '_pinteger') THEN
+		CREATE DOMAIN _PINTEGER AS int4 CHECK(VALUE > 0);
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = '_pzerointeger') THEN
+		CREATE DOMAIN _PZEROINTEGER AS int4 CHECK(VALUE >= 0);
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = '_year_1970') THEN
+		CREATE DOMAIN _YEAR_1970 AS int4 CHECK(VALUE >= 0);
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM pg_type WHERE typname = '_seats') THEN
+		CREATE DOMAIN _SEATS AS int4 CHECK(VALUE > 0 AND VALUE < 500);--Plane Seats
+	END IF;
+END
+$$;
+
+CREATE TABLE IF NOT EXISTS Customer
+(
+	id INTEGER NOT NULL,
+	fname CHAR(24) NOT NULL,
+	lname CHAR(24) NOT NULL,
+	gtype _GENDER NOT NULL,
+	dob DATE NOT NULL,
+	address CHAR(256),
+	phone CHAR(10),
+	zipcode char(10),
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS Pilot
+(
+	id INTEGER NOT NULL,
+	fullname CHAR(128),
+	nationality CHAR(24),
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS Flight
+(
+	fnum INTEGER NOT NULL,
+	cost _PINTEGER NOT NULL,
+	num_sold _PZEROINTEGER NOT NULL,
+	num_stops _PZEROINTEGER NOT NULL,
+	actual_departure_date DATE NOT NULL,
+	actual_arrival_date DATE NOT NULL,
+	arrival_airport CHAR(5) NOT NULL,-- AIRPORT CODE --
+	departure_airport CHAR(5) NOT NULL,-- AIRPORT CODE --
+	PRIMARY KEY (fnum)
+);
+
+CREATE TABLE IF NOT EXISTS Plane
+(
+	id INTEGER NOT NULL,
+	make CHAR(32) NOT NULL,
+	model CHAR(64) NOT NULL,
+	age _YEAR_1970 NOT NULL,
+	seats _SEATS NOT NULL,
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS Technician
+(
+	id INTEGER NOT NULL,
+	full_name CHAR(128) NOT NULL,
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS Reservation
+(
+	rnum INTEGER NOT NULL,
+	cid INTEGER NOT NULL,
+	fid INTEGER NOT NULL,
+	status _STATUS,
+	PRIMARY KEY (rnum),
+	FOREIGN KEY (cid) REFERENCES Customer(id),
+	FOREIGN KEY (fid) REFERENCES Flight(fnum)
+);
+
+CREATE TABLE IF NOT EXISTS FlightInfo
+(
+	fiid INTEGER NOT NULL,
+	flight_id INTEGER NOT NULL,
+	pilot_id INTEGER NOT NULL,
+	plane_id INTEGER NOT NULL,
+	PRIMARY KEY (fiid),
+	FOREIGN KEY (flight_id) REFERENCES Flight(fnum),
+	FOREIGN KEY (pilot_id) REFERENCES Pilot(id),
+	FOREIGN KEY (plane_id) REFERENCES Plane(id)
+);
+
+CREATE TABLE IF NOT EXISTS Repairs
+(
+	rid INTEGER NOT NULL,
+	repair_date DATE NOT NULL,
+	repair_code _CODE,
+	pilot_id INTEGER NOT NULL,
+	plane_id INTEGER NOT NULL,
+	technician_id INTEGER NOT NULL,
+	PRIMARY KEY (rid),
+	FOREIGN KEY (pilot_id) REFERENCES Pilot(id),
+	FOREIGN KEY (plane_id) REFERENCES Plane(id),
+	FOREIGN KEY (technician_id) REFERENCES Technician(id)
+);
+
+CREATE TABLE IF NOT EXISTS Schedule
+(
+	id INTEGER NOT NULL,
+	flightNum INTEGER NOT NULL,
+	departure_time DATE NOT NULL,
+	arrival_time DATE NOT NULL,
+	PRIMARY KEY (id),
+	FOREIGN KEY (flightNum) REFERENCES Flight(fnum)
+);
@@ -0,0 +1,18 @@
+-- Secondary indexes for the predicates of the menu operations.  They are
+-- built CONCURRENTLY so a live database keeps taking bookings; the runner
+-- then executes each statement on its own, outside a transaction.  A build
+-- that failed half way leaves an INVALID index behind; the runner drops it
+-- before building it again.
+
+-- FindPassengersCountWithStatus: WHERE fid = ? AND status = ?, answered from the index alone
+CREATE INDEX CONCURRENTLY IF NOT EXISTS reservation_fid_status_idx ON Reservation (fid, status, rnum);
+
+-- ListNumberOfAvailableSeats and BookFlight: FlightInfo by flight, carrying the plane
+CREATE INDEX CONCURRENTLY IF NOT EXISTS flightinfo_flight_plane_idx ON FlightInfo (flight_id, plane_id);
+
+-- ListNumberOfAvailableSeats: Schedule by flight and departure date
+CREATE INDEX CONCURRENTLY IF NOT EXISTS schedule_flight_departure_idx ON Schedule (flightNum, departure_time);
+
+-- the repair reports when repair_stats is rebuilt, and the foreign key checks of DELETE FROM Plane
+CREATE INDEX CONCURRENTLY IF NOT EXISTS repairs_plane_idx ON Repairs (plane_id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS repairs_date_idx ON Repairs (repair_date);
@@ -0,0 +1,7 @@
+-- The waitlist sweep looks for the flights that have waitlisted
+-- reservations; a partial index holds just those rows, so the sweep does
+-- not read the whole Reservation table, and it stays small because
+-- promoted reservations leave it.
+
+-- WaitlistPromoter: WHERE status = 'W' [AND fid = ?] ORDER BY rnum
+CREATE INDEX CONCURRENTLY IF NOT EXISTS reservation_waitlist_idx ON Reservation (fid, rnum) WHERE status = 'W';
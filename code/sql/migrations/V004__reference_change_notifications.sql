@@ -0,0 +1,42 @@
+-- Plane, Pilot and Technician are cached in memory by every running
+-- instance (ReferenceCache).  These triggers tell the instances about
+-- changes: each changed row sends "<table>:<id>" on the reference_changed
+-- channel, and a TRUNCATE sends "<table>:*".  Notifications are delivered
+-- when the transaction commits, and not at all when it rolls back.
+
+CREATE OR REPLACE FUNCTION reference_changed() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'TRUNCATE' THEN
+		PERFORM pg_notify('reference_changed', lower(TG_TABLE_NAME) || ':*');
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM pg_notify('reference_changed', lower(TG_TABLE_NAME) || ':' || OLD.id);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM pg_notify('reference_changed', lower(TG_TABLE_NAME) || ':' || NEW.id);
+	END IF;
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS plane_changed ON Plane;
+CREATE TRIGGER plane_changed AFTER INSERT OR UPDATE OR DELETE ON Plane
+	FOR EACH ROW EXECUTE PROCEDURE reference_changed();
+DROP TRIGGER IF EXISTS plane_truncated ON Plane;
+CREATE TRIGGER plane_truncated AFTER TRUNCATE ON Plane
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_changed();
+
+DROP TRIGGER IF EXISTS pilot_changed ON Pilot;
+CREATE TRIGGER pilot_changed AFTER INSERT OR UPDATE OR DELETE ON Pilot
+	FOR EACH ROW EXECUTE PROCEDURE reference_changed();
+DROP TRIGGER IF EXISTS pilot_truncated ON Pilot;
+CREATE TRIGGER pilot_truncated AFTER TRUNCATE ON Pilot
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_changed();
+
+DROP TRIGGER IF EXISTS technician_changed ON Technician;
+CREATE TRIGGER technician_changed AFTER INSERT OR UPDATE OR DELETE ON Technician
+	FOR EACH ROW EXECUTE PROCEDURE reference_changed();
+DROP TRIGGER IF EXISTS technician_truncated ON Technician;
+CREATE TRIGGER technician_truncated AFTER TRUNCATE ON Technician
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_changed();
@@ -0,0 +1,23 @@
+-- The tables the Java app keeps beside the airline tables, which it used to
+-- create itself at startup.
+--
+-- id_allocator holds, per table, the next id no process has reserved yet
+-- (IdAllocator); the app seeds it from the tables' current keys at startup.
+-- repair_stats counts the repairs per (plane, year, repair code) for the
+-- repair reports (RepairStats); the app fills it from Repairs.
+
+CREATE TABLE IF NOT EXISTS id_allocator
+(
+	name VARCHAR(32) NOT NULL,
+	next_id INTEGER NOT NULL,
+	PRIMARY KEY (name)
+);
+
+CREATE TABLE IF NOT EXISTS repair_stats
+(
+	plane_id INTEGER NOT NULL,
+	year INTEGER NOT NULL,
+	repair_code CHAR(2) NOT NULL,
+	cnt INTEGER NOT NULL,
+	PRIMARY KEY (plane_id, year, repair_code)
+);
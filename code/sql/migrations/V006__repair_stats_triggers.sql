@@ -0,0 +1,60 @@
+-- repair_stats counts the repairs per (plane, year, repair code) for the
+-- repair reports (RepairStats).  These triggers keep it current for every
+-- write to Repairs, from the app, psql or COPY alike, in the transaction
+-- that writes.  They fire once per statement and fold all of its rows in
+-- with one grouped statement, so a COPY of many repairs costs one pass.
+-- Transition tables need PostgreSQL 10 or later.
+
+CREATE OR REPLACE FUNCTION repairs_counted() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'TRUNCATE' THEN
+		DELETE FROM repair_stats;
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE repair_stats S SET cnt = S.cnt - d.cnt
+		FROM (SELECT plane_id, CAST(EXTRACT(YEAR FROM repair_date) AS int4) AS year,
+		             COALESCE(repair_code, '') AS repair_code, CAST(COUNT(*) AS int4) AS cnt
+		      FROM removed GROUP BY 1, 2, 3) d
+		WHERE S.plane_id = d.plane_id AND S.year = d.year AND S.repair_code = d.repair_code;
+		DELETE FROM repair_stats S
+		USING (SELECT DISTINCT plane_id, CAST(EXTRACT(YEAR FROM repair_date) AS int4) AS year,
+		                       COALESCE(repair_code, '') AS repair_code
+		       FROM removed) d
+		WHERE S.plane_id = d.plane_id AND S.year = d.year AND S.repair_code = d.repair_code AND S.cnt <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO repair_stats (plane_id, year, repair_code, cnt)
+		SELECT plane_id, CAST(EXTRACT(YEAR FROM repair_date) AS int4), COALESCE(repair_code, ''), CAST(COUNT(*) AS int4)
+		FROM added GROUP BY 1, 2, 3
+		ON CONFLICT (plane_id, year, repair_code) DO UPDATE SET cnt = repair_stats.cnt + EXCLUDED.cnt;
+	END IF;
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+-- no repair is written between the count below and the triggers
+LOCK TABLE Repairs IN SHARE ROW EXCLUSIVE MODE;
+
+DROP TRIGGER IF EXISTS repairs_inserted ON Repairs;
+CREATE TRIGGER repairs_inserted AFTER INSERT ON Repairs
+	REFERENCING NEW TABLE AS added
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_counted();
+DROP TRIGGER IF EXISTS repairs_updated ON Repairs;
+CREATE TRIGGER repairs_updated AFTER UPDATE ON Repairs
+	REFERENCING OLD TABLE AS removed NEW TABLE AS added
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_counted();
+DROP TRIGGER IF EXISTS repairs_deleted ON Repairs;
+CREATE TRIGGER repairs_deleted AFTER DELETE ON Repairs
+	REFERENCING OLD TABLE AS removed
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_counted();
+DROP TRIGGER IF EXISTS repairs_truncated ON Repairs;
+CREATE TRIGGER repairs_truncated AFTER TRUNCATE ON Repairs
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_counted();
+
+-- the repairs written before the triggers existed
+DELETE FROM repair_stats;
+INSERT INTO repair_stats (plane_id, year, repair_code, cnt)
+SELECT plane_id, CAST(EXTRACT(YEAR FROM repair_date) AS int4), COALESCE(repair_code, ''), CAST(COUNT(*) AS int4)
+FROM Repairs
+GROUP BY 1, 2, 3;